@@ -0,0 +1,61 @@
+package edu.temple.UMB;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler dispatch overhead with a {@link CountingSink}.
+ * Every event is due at time {@code 0}, so an iteration measures how fast the dispatch thread
+ * can walk the timeline and hand events to the sink, not the macro's own timing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DispatchBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    int events;
+
+    CountingSink sink;
+    KeyReplayer keyReplayer;
+    MouseReplayer mouseReplayer;
+    MergedReplayer mergedReplayer;
+
+    @Setup
+    public void setup() {
+        SyntheticMacros.quietLogging();
+        sink = new CountingSink();
+        EventTimeline keys = SyntheticMacros.keys(events, true);
+        EventTimeline mice = SyntheticMacros.mice(events, true);
+        keyReplayer = new KeyReplayer(keys, sink);
+        mouseReplayer = new MouseReplayer(mice, sink);
+        mergedReplayer = new MergedReplayer(keys, mice, sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        keyReplayer.scheduler.shutdownNow();
+        mouseReplayer.scheduler.shutdownNow();
+        mergedReplayer.scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public long dispatchSeparate() throws InterruptedException {
+        long start = System.nanoTime();
+        keyReplayer.start(start);
+        mouseReplayer.start(start);
+        keyReplayer.scheduler.awaitTermination(1, TimeUnit.HOURS);
+        mouseReplayer.scheduler.awaitTermination(1, TimeUnit.HOURS);
+        return sink.getTotal();
+    }
+
+    @Benchmark
+    public long dispatchMerged() throws InterruptedException {
+        mergedReplayer.start();
+        mergedReplayer.scheduler.awaitTermination(1, TimeUnit.HOURS);
+        return sink.getTotal();
+    }
+}
@@ -0,0 +1,75 @@
+package edu.temple.UMB;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of {@link Loader}, {@link MouseLoader} and a single {@link MappedLoader} pass
+ * over text and binary macros, and of a {@link MacroCache} hit on the same file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    int events;
+
+    @Param({"text", "binary"})
+    String format;
+
+    File file;
+    MacroCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticMacros.quietLogging();
+        file = File.createTempFile("umb-load", format.equals("binary") ? ".umb" : ".txt");
+        SyntheticMacros.write(file, events, format.equals("binary"));
+        cache = new MacroCache(Long.MAX_VALUE);
+        cache.get(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public EventTimeline loadKeys() throws IOException {
+        return new Loader(file).loadJNativeEventsFromFile();
+    }
+
+    @Benchmark
+    public EventTimeline loadMouse() throws IOException {
+        return new MouseLoader(file).loadJNativeEventsFromFile();
+    }
+
+    @Benchmark
+    public int loadBothSinglePass() throws IOException {
+        EventTimeline.Builder keys = new EventTimeline.Builder();
+        EventTimeline.Builder mice = new EventTimeline.Builder();
+        new MappedLoader(file).load(new MappedLoader.Visitor() {
+            @Override
+            public void key(long time, int opcode, int keyCode) {
+                keys.key(time, opcode, keyCode);
+            }
+
+            @Override
+            public void mouse(long time, int opcode, int x, int y, int button) {
+                mice.mouse(time, opcode, x, y, button);
+            }
+        });
+        return keys.build().size() + mice.build().size();
+    }
+
+    @Benchmark
+    public MacroCache.Macro cachedLoad() throws IOException {
+        return cache.get(file);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.temple.UMB;
+
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic macros for the benchmarks.
+ * A macro of {@code n} events has {@code n / 2} key events (press/release pairs over the letter keys) and
+ * {@code n / 2} mouse events (mostly moves with an occasional click), one millisecond (1000 microseconds) apart per stream.
+ */
+final class SyntheticMacros {
+    private static final int[] KEYS = {
+            NativeKeyEvent.VC_A, NativeKeyEvent.VC_S, NativeKeyEvent.VC_D, NativeKeyEvent.VC_F,
+            NativeKeyEvent.VC_J, NativeKeyEvent.VC_K, NativeKeyEvent.VC_L, NativeKeyEvent.VC_SPACE
+    };
+
+    private SyntheticMacros() {}
+
+    /**
+     * Turns logging down so the file appender does not dominate the measurements.
+     */
+    static void quietLogging() {
+        Configurator.setRootLevel(Level.WARN);
+    }
+
+    static EventTimeline keys(int n, boolean sameTime) {
+        EventTimeline.Builder b = new EventTimeline.Builder();
+        for (int i = 0; i < n / 2; i++) {
+            int opcode = i % 2 == 0 ? MacroFormat.KEY_PRESSED : MacroFormat.KEY_RELEASED;
+            b.add(sameTime ? 0 : i * 1000L, opcode, KEYS[(i / 2) % KEYS.length], 0, 0);
+        }
+        return b.build();
+    }
+
+    static EventTimeline mice(int n, boolean sameTime) {
+        EventTimeline.Builder b = new EventTimeline.Builder();
+        for (int i = 0; i < n / 2; i++) {
+            b.add(sameTime ? 0 : i * 1000L, mouseOpcode(i), mouseButton(i), i % 1920, i % 1080);
+        }
+        return b.build();
+    }
+
+    static List<KeyEvent> keyEvents(int n) {
+        List<KeyEvent> events = new ArrayList<>(n / 2);
+        for (int i = 0; i < n / 2; i++) {
+            boolean press = i % 2 == 0;
+            NativeKeyEvent e = new NativeKeyEvent(press ? NativeKeyEvent.NATIVE_KEY_PRESSED : NativeKeyEvent.NATIVE_KEY_RELEASED,
+                    0, 0, KEYS[(i / 2) % KEYS.length], NativeKeyEvent.CHAR_UNDEFINED);
+            events.add(new KeyEvent(i * 1000L, e, press ? "PRESSED" : "RELEASED"));
+        }
+        return events;
+    }
+
+    static List<MouseEvent> mouseEvents(int n) {
+        List<MouseEvent> events = new ArrayList<>(n / 2);
+        for (int i = 0; i < n / 2; i++) {
+            int opcode = mouseOpcode(i);
+            NativeMouseEvent e = new NativeMouseEvent(NativeMouseEvent.NATIVE_MOUSE_MOVED, 0, i % 1920, i % 1080, 1, mouseButton(i));
+            events.add(new MouseEvent(i * 1000L, e, MacroFormat.contextOf(opcode)));
+        }
+        return events;
+    }
+
+    /**
+     * Writes a macro of {@code n} events to {@code file} in the text or binary format.
+     */
+    static void write(File file, int n, boolean binary) throws IOException {
+        List<KeyEvent> keys = keyEvents(n);
+        List<MouseEvent> mice = mouseEvents(n);
+        file.delete();
+        if (binary) {
+            new BinaryWriter().writeToFile(file, keys, mice);
+        } else {
+            new Writer(Writer.Type.KEY).writeToFile(file, keys);
+            new Writer(Writer.Type.MOUSE).writeToFile(file, mice);
+        }
+    }
+
+    // every 100th mouse event is a click: press then release on the next event
+    private static int mouseOpcode(int i) {
+        return switch (i % 100) {
+            case 0 -> MacroFormat.MOUSE_PRESSED;
+            case 1 -> MacroFormat.MOUSE_RELEASED;
+            default -> MacroFormat.MOUSE_MOVED;
+        };
+    }
+
+    private static int mouseButton(int i) {
+        return i % 100 < 2 ? NativeMouseEvent.BUTTON1 : NativeMouseEvent.NOBUTTON;
+    }
+}
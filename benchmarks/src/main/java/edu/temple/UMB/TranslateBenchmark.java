@@ -0,0 +1,39 @@
+package edu.temple.UMB;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of translating loaded JNativeHook timelines into AWT timelines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TranslateBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    int events;
+
+    EventTimeline keys;
+    EventTimeline mice;
+
+    @Setup
+    public void setup() {
+        SyntheticMacros.quietLogging();
+        keys = SyntheticMacros.keys(events, false);
+        mice = SyntheticMacros.mice(events, false);
+    }
+
+    @Benchmark
+    public EventTimeline translateKeys() {
+        return KeyReplayer.JNativeToAWT(keys);
+    }
+
+    @Benchmark
+    public EventTimeline translateMouse() {
+        return MouseReplayer.JNativeToAWT(mice);
+    }
+}
@@ -0,0 +1,54 @@
+package edu.temple.UMB;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization throughput of {@link Writer} (text) and {@link BinaryWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WriteBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    int events;
+
+    List<KeyEvent> keys;
+    List<MouseEvent> mice;
+    File file;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticMacros.quietLogging();
+        keys = SyntheticMacros.keyEvents(events);
+        mice = SyntheticMacros.mouseEvents(events);
+        file = File.createTempFile("umb-write", ".out");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long writeText() throws IOException {
+        // Writer appends, so start from an empty file every time
+        file.delete();
+        new Writer(Writer.Type.KEY).writeToFile(file, keys);
+        new Writer(Writer.Type.MOUSE).writeToFile(file, mice);
+        return file.length();
+    }
+
+    @Benchmark
+    public long writeBinary() throws IOException {
+        new BinaryWriter().writeToFile(file, keys, mice);
+        return file.length();
+    }
+}
@@ -0,0 +1,232 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Replays several macros, e.g. every macro in a directory for a regression run.
+ * All macros are loaded and translated up front on a bounded worker pool, so startup cost is paid once and in parallel.
+ * Replay then runs one macro after the other, or in parallel on the same pool when every macro gets its own sink
+ * that does not drive the real screen (such as a {@link CountingSink}); a {@link RobotSink} must never be shared
+ * between concurrent macros.
+ * Load and replay times are collected per macro and summarized by {@link #report()}.
+ */
+public class BatchReplayer {
+    private static final Logger logger = LogManager.getLogger(BatchReplayer.class);
+
+    /**
+     * Timings of one macro of the batch.
+     */
+    public static class Result {
+        private final File macro;
+        private final Replayer replayer;
+        private final long loadNanos;
+        private long replayNanos;
+
+        Result(File macro, Replayer replayer, long loadNanos) {
+            this.macro = macro;
+            this.replayer = replayer;
+            this.loadNanos = loadNanos;
+        }
+
+        /** Returns the replayed macro file. */
+        public File getMacro() { return macro; }
+
+        /** Returns the number of events replayed per iteration. */
+        public int getEventCount() { return replayer.getEventCount(); }
+
+        /** Returns how long loading and translating took in nanoseconds. */
+        public long getLoadNanos() { return loadNanos; }
+
+        /** Returns how long replaying (all iterations) took in nanoseconds, {@code 0} before {@link #run(boolean)}. */
+        public long getReplayNanos() { return replayNanos; }
+
+        /** Returns how late events were dispatched. */
+        public LatencyHistogram getLateness() { return replayer.getLateness(); }
+    }
+
+    private final List<File> macros;
+    private final int repeatCount;
+    private final boolean merged;
+    private final ReplayTiming timing;
+    private final Supplier<InputSink> sinks;
+    private final int threads;
+    private final List<Result> results = new ArrayList<>();
+    private long spinMicros = 0L;
+    private ReplayScheduler.CatchUp catchUp = ReplayScheduler.CatchUp.ALL;
+    // wall time of prepare and run, which is less than the per-macro sum when work runs in parallel
+    private long prepareNanos;
+    private long runNanos;
+
+    /**
+     * Creates a batch replayer; nothing is loaded until {@link #prepare()}.
+     * @param macros macro files in the order they should be replayed
+     * @param repeatCount number of times to replay each macro; must not be infinite
+     * @param merged whether to replay key and mouse events as one merged timeline from a single thread
+     * @param timing how recorded timestamps map to replay time
+     * @param sinks creates the sink of each macro, called once per macro
+     * @param threads size of the worker pool used for loading (and parallel replay)
+     */
+    public BatchReplayer(List<File> macros, int repeatCount, boolean merged, ReplayTiming timing, Supplier<InputSink> sinks, int threads) {
+        if (repeatCount < 0) {
+            throw new IllegalArgumentException("Batch replay needs a finite repeat count: " + repeatCount);
+        }
+        this.macros = List.copyOf(macros);
+        this.repeatCount = repeatCount;
+        this.merged = merged;
+        this.timing = timing;
+        this.sinks = sinks;
+        this.threads = Math.max(1, Math.min(threads, macros.size()));
+    }
+
+    /**
+     * Sets the catch-up policy of every macro, see {@link Replayer#setCatchUp(ReplayScheduler.CatchUp)}. Must be called before {@link #prepare()}.
+     * @param catchUp the catch-up policy
+     */
+    public void setCatchUp(ReplayScheduler.CatchUp catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * Sets the spin window of every macro, see {@link Replayer#setSpinMicros(long)}. Must be called before {@link #prepare()}.
+     * @param spinMicros spin window in microseconds
+     */
+    public void setSpinMicros(long spinMicros) {
+        this.spinMicros = spinMicros;
+    }
+
+    /**
+     * Loads and translates every macro in parallel and waits until all are ready.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void prepare() throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> loading = new ArrayList<>();
+            for (File macro : macros) {
+                InputSink sink = sinks.get();
+                loading.add(pool.submit(() -> {
+                    long loadStart = System.nanoTime();
+                    Replayer replayer = new Replayer(macro.getAbsolutePath(), repeatCount, merged, sink, timing);
+                    replayer.setSpinMicros(spinMicros);
+                    replayer.setCatchUp(catchUp);
+                    return new Result(macro, replayer, System.nanoTime() - loadStart);
+                }));
+            }
+            results.clear();
+            for (Future<Result> f : loading) {
+                results.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            for (Result r : results) {
+                r.replayer.close();
+            }
+            throw new IllegalStateException("Failed to prepare batch replay", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        prepareNanos = System.nanoTime() - start;
+        logger.info("Prepared {} macros on {} threads", results.size(), threads);
+    }
+
+    /**
+     * Replays every prepared macro. {@link #prepare()} must have been called.
+     * @param parallel whether to replay the macros concurrently instead of one after the other;
+     *                 only safe if each macro's sink is independent of the others and of the screen
+     * @throws InterruptedException if interrupted while waiting for parallel replays
+     */
+    public void run(boolean parallel) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            if (parallel) {
+                runParallel();
+            } else {
+                for (Result r : results) {
+                    replay(r);
+                }
+            }
+        } finally {
+            runNanos = System.nanoTime() - start;
+        }
+    }
+
+    private void runParallel() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (Result r : results) {
+                running.add(pool.submit(() -> replay(r)));
+            }
+            for (Future<?> f : running) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch replay failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void replay(Result r) {
+        logger.info("Batch replaying {}", r.macro.getAbsolutePath());
+        long start = System.nanoTime();
+        try {
+            // no shutdown hook per macro, and the dispatch threads end with the macro
+            r.replayer.replay();
+            r.replayNanos = System.nanoTime() - start;
+        } finally {
+            r.replayer.close();
+        }
+    }
+
+    /**
+     * Stops every prepared macro as soon as possible and releases held keys and buttons, e.g. from a shutdown hook.
+     */
+    public void stop() {
+        for (Result r : results) {
+            r.replayer.stop();
+        }
+    }
+
+    /**
+     * Returns the results of the prepared macros in batch order.
+     */
+    public List<Result> getResults() {
+        return List.copyOf(results);
+    }
+
+    /**
+     * Returns a table with the load time, replay time, throughput and p99 lateness of every macro plus a total line.
+     * The total line uses wall time, so parallel work is not counted twice.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-30s %8s %10s %10s %12s %10s%n", "macro", "events", "load ms", "replay ms", "events/s", "p99 us"));
+        long events = 0;
+        for (Result r : results) {
+            long replayed = (long) r.getEventCount() * repeatCount;
+            events += replayed;
+            sb.append(String.format("%-30s %8d %10d %10d %12.0f %10d%n", r.macro.getName(), replayed,
+                    TimeUnit.NANOSECONDS.toMillis(r.loadNanos), TimeUnit.NANOSECONDS.toMillis(r.replayNanos),
+                    perSecond(replayed, r.replayNanos), TimeUnit.NANOSECONDS.toMicros(r.getLateness().getPercentile(99))));
+        }
+        sb.append(String.format("%-30s %8d %10d %10d %12.0f%n", "total (" + results.size() + " macros)", events,
+                TimeUnit.NANOSECONDS.toMillis(prepareNanos), TimeUnit.NANOSECONDS.toMillis(runNanos), perSecond(events, runNanos)));
+        return sb.toString();
+    }
+
+    private static double perSecond(long events, long nanos) {
+        return nanos == 0 ? 0 : events * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,97 @@
+package edu.temple.UMB;
+
+import java.io.*;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes recorded events to a file using the compact binary format described in {@link MacroFormat}.
+ * Unlike {@link Writer}, key and mouse events are written into a single stream ordered by timestamp.
+ */
+public class BinaryWriter {
+    private static final Logger logger = LogManager.getLogger(BinaryWriter.class);
+
+    /**
+     * Writes the given events to {@code path}, replacing any existing content.
+     * Key and mouse events are merged by timestamp; on ties the event recorded first ({@link Event#getSequence()}) is written first.
+     * @param path destination file
+     * @param keyEvents recorded key events in recording order
+     * @param mouseEvents recorded mouse events in recording order
+     * @throws IOException if writing fails
+     */
+    public void writeToFile(File path, List<KeyEvent> keyEvents, List<MouseEvent> mouseEvents) throws IOException {
+        logger.info("Writing {} key and {} mouse events in binary format to {}", keyEvents.size(), mouseEvents.size(), path.getAbsolutePath());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, false)))) {
+            writeHeader(out);
+            long last = 0;
+            int k = 0;
+            int m = 0;
+            while (k < keyEvents.size() || m < mouseEvents.size()) {
+                boolean takeKey = m >= mouseEvents.size()
+                        || (k < keyEvents.size() && comesFirst(keyEvents.get(k), mouseEvents.get(m)));
+                if (takeKey) {
+                    KeyEvent e = keyEvents.get(k++);
+                    writeKeyRecord(out, MacroFormat.opcodeOf(e.context), e.getDeltaMicros() - last, e.getKeyCode());
+                    last = e.getDeltaMicros();
+                } else {
+                    MouseEvent e = mouseEvents.get(m++);
+                    writeMouseRecord(out, MacroFormat.opcodeOf(e.context), e.getDeltaMicros() - last, e.getX(), e.getY(), e.getButton());
+                    last = e.getDeltaMicros();
+                }
+            }
+            out.writeByte(MacroFormat.END);
+            logger.debug("Finished writing binary macro ({} bytes)", out.size());
+        } catch (IOException ex) {
+            logger.error("Failed to write binary macro to {}", path.getAbsolutePath(), ex);
+            throw ex;
+        }
+    }
+
+    private static boolean comesFirst(Event a, Event b) {
+        if (a.getDeltaMicros() != b.getDeltaMicros()) {
+            return a.getDeltaMicros() < b.getDeltaMicros();
+        }
+        return a.getSequence() < b.getSequence();
+    }
+
+    /**
+     * Writes the magic bytes and format version.
+     */
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(MacroFormat.MAGIC);
+        out.writeByte(MacroFormat.VERSION);
+    }
+
+    /**
+     * Writes one key record: opcode, varint time delta and the 16 bit key code.
+     */
+    static void writeKeyRecord(DataOutputStream out, int opcode, long timeDelta, int keyCode) throws IOException {
+        out.writeByte(opcode);
+        writeVarLong(out, timeDelta);
+        out.writeShort(keyCode);
+    }
+
+    /**
+     * Writes one mouse record: opcode, varint time delta, 16 bit x and y and the 8 bit button.
+     */
+    static void writeMouseRecord(DataOutputStream out, int opcode, long timeDelta, int x, int y, int button) throws IOException {
+        out.writeByte(opcode);
+        writeVarLong(out, timeDelta);
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeByte(button);
+    }
+
+    /**
+     * Writes a zigzag encoded varint so small (and occasionally negative) deltas take a single byte.
+     */
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+}
@@ -0,0 +1,174 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sidecar file holding a macro's events already translated to AWT key codes and button masks, so replaying it
+ * skips parsing and translation and loads straight into the schedulers.
+ * The sidecar is written next to the macro as {@code <macro>.umbc} by {@link #compile(File)} and records the
+ * {@link MacroCache.Stamp} (modification time, size and file key) of the macro it was compiled from; once the macro
+ * changes or is replaced the sidecar is ignored. It is written to a temp file and moved into place, so a process that
+ * is reading the old sidecar never sees a partly written one.
+ * Coordinates are stored as recorded, the {@link InputSink} still maps them to the screen when replaying.
+ * <p>
+ * Layout (big endian): the magic bytes {@code UMBC}, a version byte, the source modification time in nanoseconds and
+ * size as longs, its file key as a {@link DataOutputStream#writeUTF modified UTF-8} string, then the key events and the mouse events, each as an int count followed by one fixed-size record per event
+ * (time as long, sequence as int, opcode as byte, code as int, and for mouse events x and y as ints).
+ */
+public final class CompiledMacro {
+    private static final Logger logger = LogManager.getLogger(CompiledMacro.class);
+    /**
+     * File name suffix of compiled sidecars.
+     */
+    public static final String SUFFIX = ".umbc";
+    private static final byte[] MAGIC = "UMBC".getBytes(StandardCharsets.US_ASCII);
+    // bump whenever the record layout or the translation tables change, so old sidecars are recompiled
+    private static final int VERSION = 2;
+
+    private CompiledMacro() {}
+
+    /**
+     * Returns the sidecar path of a macro.
+     */
+    public static File sidecarOf(File macro) {
+        return new File(macro.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns whether a file is a compiled sidecar rather than a macro.
+     */
+    public static boolean isSidecar(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Loads and translates a macro and writes its sidecar, replacing an existing one.
+     * @param macro a text or binary macro
+     * @return the written sidecar
+     * @throws IOException if the macro cannot be read or the sidecar cannot be written
+     */
+    public static File compile(File macro) throws IOException {
+        MacroCache.Stamp stamp = MacroCache.Stamp.of(macro.toPath());
+        MacroCache.Macro raw = MacroCache.load(macro);
+        EventTimeline keys = KeyReplayer.JNativeToAWT(raw.getKeys());
+        EventTimeline mice = MouseReplayer.JNativeToAWT(raw.getMice());
+        File sidecar = sidecarOf(macro);
+        // a daemon may be mapping the old sidecar, so never write into it
+        Path target = sidecar.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), sidecar.getName(), ".tmp");
+        try {
+            write(tmp.toFile(), stamp, keys, mice);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info("Compiled {} into {} ({} key and {} mouse events)", macro.getAbsolutePath(), sidecar.getAbsolutePath(), keys.size(), mice.size());
+        return sidecar;
+    }
+
+    private static void write(File file, MacroCache.Stamp stamp, EventTimeline keys, EventTimeline mice) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(stamp.modifiedNanos);
+            out.writeLong(stamp.size);
+            out.writeUTF(stamp.fileKey);
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeLong(keys.time(i));
+                out.writeInt(keys.sequence(i));
+                out.writeByte(keys.opcode(i));
+                out.writeInt(keys.code(i));
+            }
+            out.writeInt(mice.size());
+            for (int i = 0; i < mice.size(); i++) {
+                out.writeLong(mice.time(i));
+                out.writeInt(mice.sequence(i));
+                out.writeByte(mice.opcode(i));
+                out.writeInt(mice.code(i));
+                out.writeInt(mice.x(i));
+                out.writeInt(mice.y(i));
+            }
+        }
+    }
+
+    /**
+     * Loads the sidecar of a macro if there is one and it was compiled from the macro as it is now.
+     * @param macro a text or binary macro
+     * @return the translated events, or {@code null} if there is no up-to-date sidecar
+     */
+    public static MacroCache.Macro loadIfFresh(File macro) {
+        File sidecar = sidecarOf(macro);
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        FlightEvents.MacroLoad event = new FlightEvents.MacroLoad();
+        event.begin();
+        try (FileChannel ch = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+            MacroCache.Stamp current = MacroCache.Stamp.of(macro.toPath());
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            for (byte b : MAGIC) {
+                if (buf.get() != b) {
+                    logger.warn("{} is not a compiled macro", sidecar.getAbsolutePath());
+                    return null;
+                }
+            }
+            if ((buf.get() & 0xFF) != VERSION || !current.matches(readStamp(buf))) {
+                logger.info("Ignoring outdated compiled macro {}", sidecar.getAbsolutePath());
+                return null;
+            }
+            EventTimeline.Builder keys = new EventTimeline.Builder();
+            int keyCount = buf.getInt();
+            for (int i = 0; i < keyCount; i++) {
+                keys.add(buf.getLong(), buf.getInt(), buf.get(), buf.getInt(), 0, 0);
+            }
+            EventTimeline.Builder mice = new EventTimeline.Builder();
+            int mouseCount = buf.getInt();
+            for (int i = 0; i < mouseCount; i++) {
+                long time = buf.getLong();
+                int sequence = buf.getInt();
+                int opcode = buf.get();
+                int code = buf.getInt();
+                mice.add(time, sequence, opcode, code, buf.getInt(), buf.getInt());
+            }
+            logger.info("Loaded compiled macro {}", sidecar.getAbsolutePath());
+            MacroCache.Macro compiled = new MacroCache.Macro(keys.build(), mice.build(), true);
+            if (event.shouldCommit()) {
+                event.path = sidecar.getPath();
+                event.phase = "compiled";
+                event.fileSize = ch.size();
+                event.keyEvents = compiled.getKeys().size();
+                event.mouseEvents = compiled.getMice().size();
+                event.commit();
+            }
+            return compiled;
+        } catch (IOException | BufferUnderflowException e) {
+            logger.warn("Failed to read compiled macro {}, falling back to the macro itself", sidecar.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    // reads what compile wrote with writeLong, writeLong and writeUTF
+    private static MacroCache.Stamp readStamp(ByteBuffer buf) {
+        long modifiedNanos = buf.getLong();
+        long size = buf.getLong();
+        byte[] fileKey = new byte[buf.getShort() & 0xFFFF];
+        buf.get(fileKey);
+        return new MacroCache.Stamp(modifiedNanos, size, new String(fileKey, StandardCharsets.UTF_8));
+    }
+}
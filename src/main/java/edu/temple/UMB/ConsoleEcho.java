@@ -0,0 +1,203 @@
+package edu.temple.UMB;
+
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live terminal echo of recorded input, rendered in batches by its own thread.
+ * Recording only appends to an in-memory batch; every {@link #INTERVAL_MS} ms the render thread prints what
+ * accumulated, so a slow terminal can never hold up recording.
+ * In {@link Mode#FULL} every event gets a line (up to {@link #MAX_LINES_PER_BATCH} per batch, the rest are counted);
+ * in {@link Mode#SUMMARY} each batch becomes one line of counts; {@link Mode#OFF} prints nothing.
+ */
+public class ConsoleEcho {
+    private static final Logger logger = LogManager.getLogger(ConsoleEcho.class);
+    /**
+     * Time between two printed batches in milliseconds.
+     */
+    public static final long INTERVAL_MS = 100L;
+    /**
+     * Most lines printed per batch in {@link Mode#FULL}.
+     */
+    public static final int MAX_LINES_PER_BATCH = 50;
+
+    /**
+     * How recorded input is echoed.
+     */
+    public enum Mode {
+        /** one line per event */
+        FULL,
+        /** one line of counts per interval */
+        SUMMARY,
+        /** no echo */
+        OFF;
+
+        /**
+         * Parses a mode name case-insensitively.
+         * @return the mode, or {@code null} if the name is unknown
+         */
+        public static Mode parse(String name) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(name)) {
+                    return m;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Mode mode;
+    private final PrintStream out;
+    private Thread thread;
+    private volatile boolean running;
+
+    // current batch, guarded by this
+    private StringBuilder lines = new StringBuilder();
+    private int lineCount;
+    private int omitted;
+    private int keyPresses;
+    private int keyReleases;
+    private int mouseMoves;
+    private int mouseButtons;
+    private int lastX;
+    private int lastY;
+
+    /**
+     * Creates an echo that prints to {@link System#out}.
+     */
+    public ConsoleEcho(Mode mode) {
+        this(mode, System.out);
+    }
+
+    /**
+     * Creates an echo that prints to the given stream.
+     */
+    public ConsoleEcho(Mode mode, PrintStream out) {
+        this.mode = mode;
+        this.out = out;
+    }
+
+    /**
+     * Starts the render thread. Does nothing in {@link Mode#OFF}.
+     */
+    public void start() {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "console-echo");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the render thread after printing the last batch.
+     * @throws InterruptedException if interrupted while waiting for the render thread
+     */
+    public void close() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        thread.join();
+    }
+
+    /**
+     * Adds a key event to the current batch.
+     * @param opcode {@link MacroFormat#KEY_PRESSED} or {@link MacroFormat#KEY_RELEASED}
+     * @param keyCode JNativeHook key code
+     */
+    public synchronized void key(int opcode, int keyCode) {
+        switch (mode) {
+            case FULL -> addLine(MacroFormat.contextOf(opcode) + ": " + NativeKeyEvent.getKeyText(keyCode));
+            case SUMMARY -> {
+                if (opcode == MacroFormat.KEY_PRESSED) {
+                    keyPresses++;
+                } else {
+                    keyReleases++;
+                }
+            }
+            case OFF -> {}
+        }
+    }
+
+    /**
+     * Adds a mouse event to the current batch.
+     * @param opcode one of the mouse opcodes of {@link MacroFormat}
+     */
+    public synchronized void mouse(int opcode, int x, int y, int button) {
+        switch (mode) {
+            case FULL -> addLine(MacroFormat.contextOf(opcode) + ": " + x + "," + y + " button=" + button);
+            case SUMMARY -> {
+                if (opcode == MacroFormat.MOUSE_MOVED || opcode == MacroFormat.MOUSE_DRAGGED) {
+                    mouseMoves++;
+                } else {
+                    mouseButtons++;
+                }
+                lastX = x;
+                lastY = y;
+            }
+            case OFF -> {}
+        }
+    }
+
+    private void addLine(String line) {
+        if (lineCount < MAX_LINES_PER_BATCH) {
+            lines.append(line).append(System.lineSeparator());
+            lineCount++;
+        } else {
+            omitted++;
+        }
+    }
+
+    /**
+     * Takes the current batch and renders it as text, or returns an empty string if nothing happened.
+     */
+    synchronized String takeBatch() {
+        String text = "";
+        if (mode == Mode.FULL) {
+            if (omitted > 0) {
+                lines.append("... ").append(omitted).append(" more events").append(System.lineSeparator());
+            }
+            text = lines.toString();
+            lines = new StringBuilder();
+        } else if (mode == Mode.SUMMARY && keyPresses + keyReleases + mouseMoves + mouseButtons > 0) {
+            text = String.format("keys: %d pressed, %d released | mouse: %d moves, %d button events, at %d,%d%n",
+                    keyPresses, keyReleases, mouseMoves, mouseButtons, lastX, lastY);
+        }
+        lineCount = 0;
+        omitted = 0;
+        keyPresses = 0;
+        keyReleases = 0;
+        mouseMoves = 0;
+        mouseButtons = 0;
+        return text;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                // closing, the last batch is printed below
+            }
+            print();
+        }
+        print();
+        logger.debug("Console echo stopped");
+    }
+
+    // printing happens outside the lock so recording never waits for the terminal
+    private void print() {
+        String batch = takeBatch();
+        if (!batch.isEmpty()) {
+            out.print(batch);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package edu.temple.UMB;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link InputSink} that performs no input and only counts the actions it receives.
+ * Useful to measure raw replay throughput without a display.
+ */
+public class CountingSink implements InputSink {
+    private final AtomicLong keyPresses = new AtomicLong();
+    private final AtomicLong keyReleases = new AtomicLong();
+    private final AtomicLong mouseMoves = new AtomicLong();
+    private final AtomicLong mousePresses = new AtomicLong();
+    private final AtomicLong mouseReleases = new AtomicLong();
+
+    @Override
+    public void keyPress(int keyCode) {
+        keyPresses.incrementAndGet();
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        keyReleases.incrementAndGet();
+    }
+
+    @Override
+    public void mouseMove(int x, int y) {
+        mouseMoves.incrementAndGet();
+    }
+
+    @Override
+    public void mousePress(int buttons) {
+        mousePresses.incrementAndGet();
+    }
+
+    @Override
+    public void mouseRelease(int buttons) {
+        mouseReleases.incrementAndGet();
+    }
+
+    public long getKeyPresses() {
+        return keyPresses.get();
+    }
+
+    public long getKeyReleases() {
+        return keyReleases.get();
+    }
+
+    public long getMouseMoves() {
+        return mouseMoves.get();
+    }
+
+    public long getMousePresses() {
+        return mousePresses.get();
+    }
+
+    public long getMouseReleases() {
+        return mouseReleases.get();
+    }
+
+    /**
+     * Returns the total number of actions received.
+     */
+    public long getTotal() {
+        return getKeyPresses() + getKeyReleases() + getMouseMoves() + getMousePresses() + getMouseReleases();
+    }
+}
@@ -0,0 +1,62 @@
+package edu.temple.UMB;
+
+/**
+ * Pointer positions of a timeline resolved ahead of replay: for every event the screen it lands on and the
+ * coordinates to hand to that screen, stored as parallel primitive arrays like {@link EventTimeline}.
+ * Built once per macro by {@link InputSink#resolve(EventTimeline)}, so dispatching a move only reads the arrays.
+ */
+public final class DevicePoints {
+    private final int[] screens;
+    private final int[] xs;
+    private final int[] ys;
+
+    DevicePoints(int[] screens, int[] xs, int[] ys) {
+        this.screens = screens;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * Keeps the recorded coordinates of every event and puts them all on screen {@code 0}.
+     * @param events the events to place
+     * @return points equal to the recorded coordinates
+     */
+    public static DevicePoints unchanged(EventTimeline events) {
+        int n = events.size();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = events.x(i);
+            ys[i] = events.y(i);
+        }
+        return new DevicePoints(new int[n], xs, ys);
+    }
+
+    /**
+     * Returns the number of points, equal to the number of events they were resolved from.
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    /**
+     * Returns the index of the screen event {@code i} lands on.
+     */
+    public int screen(int i) {
+        return screens[i];
+    }
+
+    /**
+     * Returns the resolved x coordinate of event {@code i}.
+     */
+    public int x(int i) {
+        return xs[i];
+    }
+
+    /**
+     * Returns the resolved y coordinate of event {@code i}.
+     */
+    public int y(int i) {
+        return ys[i];
+    }
+}
@@ -1,25 +1,41 @@
 package edu.temple.UMB;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Base type for recorded input events.
- * Holds the elapsed time offset {@code delta} in milliseconds from the start of recording.
+ * Holds the elapsed time offset {@code delta} in microseconds from the start of recording,
+ * and a sequence number that orders events created at the same time.
  */
 public class Event {
+    // shared by key and mouse events so the sequence reflects the order events were recorded in
+    private static final AtomicLong nextSequence = new AtomicLong();
     private final long delta;
+    private final long sequence;
 
     /**
      * Creates a new event with the given time offset.
-     * @param delta milliseconds since the first recorded event
+     * @param delta microseconds since the first recorded event
      */
     public Event(long delta) {
         this.delta = delta;
+        this.sequence = nextSequence.getAndIncrement();
     }
 
     /**
-     * Returns the time offset of this event in milliseconds.
+     * Returns the time offset of this event in microseconds.
      * @return the {@code delta} value
      */
-    public long getDelta() {
+    public long getDeltaMicros() {
         return delta;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the creation order of this event among all recorded events.
+     * Used to break ties between events with the same {@code delta}.
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,122 @@
+package edu.temple.UMB;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated, lock-free single-producer single-consumer ring buffer of input events stored as primitives.
+ * The producer (JNativeHook's dispatch thread) only writes a few array slots and publishes them with a release store,
+ * so a callback never allocates, locks or blocks. When the consumer falls behind and the ring is full, new events are
+ * dropped and counted instead of stalling the native hook.
+ * Each slot holds a timestamp, a {@link MacroFormat} opcode, a code (key code or button) and x/y coordinates.
+ */
+public class EventRing {
+    private final long[] times;
+    private final int[] opcodes;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+    private final int mask;
+    // next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // written by the producer only
+    private volatile long dropped = 0L;
+    private volatile int highWater = 0;
+
+    /**
+     * Creates a ring that holds at least {@code capacity} events, rounded up to a power of two.
+     * @param capacity minimum number of events that can be buffered
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        times = new long[size];
+        opcodes = new int[size];
+        codes = new int[size];
+        xs = new int[size];
+        ys = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event. Must only be called from the single producer thread.
+     * @return {@code false} if the ring was full and the event was dropped
+     */
+    public boolean offer(long time, int opcode, int code, int x, int y) {
+        long t = tail.get();
+        int used = (int) (t - head.getAcquire());
+        if (used == times.length) {
+            dropped++;
+            return false;
+        }
+        int slot = (int) t & mask;
+        times[slot] = time;
+        opcodes[slot] = opcode;
+        codes[slot] = code;
+        xs[slot] = x;
+        ys[slot] = y;
+        // publishes the slot to the consumer
+        tail.setRelease(t + 1);
+        if (used + 1 > highWater) {
+            highWater = used + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Hands every buffered event to the visitor, oldest first. Must only be called from the single consumer thread.
+     * @param visitor receives key events through {@link MappedLoader.Visitor#key} and mouse events through {@link MappedLoader.Visitor#mouse}
+     * @return the number of events drained
+     */
+    public int drain(MappedLoader.Visitor visitor) {
+        long h = head.get();
+        long t = tail.getAcquire();
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            int opcode = opcodes[slot];
+            if (MacroFormat.isKeyOpcode(opcode)) {
+                visitor.key(times[slot], opcode, codes[slot]);
+            } else {
+                visitor.mouse(times[slot], opcode, xs[slot], ys[slot], codes[slot]);
+            }
+        }
+        // frees the slots for the producer
+        head.setRelease(t);
+        return (int) (t - h);
+    }
+
+    /**
+     * Returns how many events are buffered and not drained yet. Safe to call from any thread.
+     */
+    public int size() {
+        return (int) (tail.getAcquire() - head.getAcquire());
+    }
+
+    /**
+     * Returns how many events were accepted since the ring was created. Safe to call from any thread.
+     */
+    public long getAccepted() {
+        return tail.getAcquire();
+    }
+
+    /**
+     * Returns the number of slots in the ring.
+     */
+    public int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Returns how many events were dropped because the ring was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Returns the largest number of events that were ever buffered at once.
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+}
@@ -0,0 +1,292 @@
+package edu.temple.UMB;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable, ordered sequence of input events stored as parallel primitive arrays.
+ * Every event has a timestamp in microseconds, a sequence number, an opcode from {@link MacroFormat}, a code (the key code for key events
+ * or the button for mouse events) and x/y coordinates (unused for key events).
+ * Events are always ordered by timestamp and then by sequence number, so events sharing a timestamp are all kept
+ * and stay in the order they were recorded (or loaded) in.
+ * The same type is used for raw JNativeHook events as produced by the loaders and for translated AWT events
+ * as consumed by the replayers; only the meaning of {@link #code(int)} differs.
+ */
+public final class EventTimeline {
+    /**
+     * A timeline without any events.
+     */
+    public static final EventTimeline EMPTY = new Builder().build();
+
+    private final long[] times;
+    private final int[] sequences;
+    private final int[] opcodes;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+
+    private EventTimeline(long[] times, int[] sequences, int[] opcodes, int[] codes, int[] xs, int[] ys) {
+        this.times = times;
+        this.sequences = sequences;
+        this.opcodes = opcodes;
+        this.codes = codes;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * Returns the number of events.
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * Returns whether the timeline has no events.
+     */
+    public boolean isEmpty() {
+        return times.length == 0;
+    }
+
+    /**
+     * Returns the timestamp of event {@code i}.
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * Returns the sequence number of event {@code i}, used to order events with equal timestamps.
+     */
+    public int sequence(int i) {
+        return sequences[i];
+    }
+
+    /**
+     * Returns the {@link MacroFormat} opcode of event {@code i}.
+     */
+    public int opcode(int i) {
+        return opcodes[i];
+    }
+
+    /**
+     * Returns the key code or mouse button of event {@code i}.
+     */
+    public int code(int i) {
+        return codes[i];
+    }
+
+    /**
+     * Returns the x coordinate of event {@code i}.
+     */
+    public int x(int i) {
+        return xs[i];
+    }
+
+    /**
+     * Returns the y coordinate of event {@code i}.
+     */
+    public int y(int i) {
+        return ys[i];
+    }
+
+    /**
+     * Returns the timestamp of the last event, or {@code 0} if there are none.
+     */
+    public long lastTime() {
+        return times.length == 0 ? 0 : times[times.length - 1];
+    }
+
+    /**
+     * Merges several timelines into one, ordered by timestamp and then sequence number.
+     * Each input must already be ordered, which every {@link EventTimeline} is.
+     * @param timelines the timelines to merge, e.g. the key and the mouse timeline of a macro
+     * @return a timeline containing all events of the inputs
+     */
+    public static EventTimeline merge(EventTimeline... timelines) {
+        int total = 0;
+        for (EventTimeline t : timelines) {
+            total += t.size();
+        }
+        long[] times = new long[total];
+        int[] sequences = new int[total];
+        int[] opcodes = new int[total];
+        int[] codes = new int[total];
+        int[] xs = new int[total];
+        int[] ys = new int[total];
+        // one cursor per input; with only a handful of inputs a linear scan for the head beats a heap
+        int[] cursors = new int[timelines.length];
+        for (int out = 0; out < total; out++) {
+            int best = -1;
+            for (int k = 0; k < timelines.length; k++) {
+                if (cursors[k] == timelines[k].size()) {
+                    continue;
+                }
+                if (best == -1 || comesBefore(timelines[k], cursors[k], timelines[best], cursors[best])) {
+                    best = k;
+                }
+            }
+            EventTimeline from = timelines[best];
+            int i = cursors[best]++;
+            times[out] = from.times[i];
+            sequences[out] = from.sequences[i];
+            opcodes[out] = from.opcodes[i];
+            codes[out] = from.codes[i];
+            xs[out] = from.xs[i];
+            ys[out] = from.ys[i];
+        }
+        return new EventTimeline(times, sequences, opcodes, codes, xs, ys);
+    }
+
+    private static boolean comesBefore(EventTimeline a, int i, EventTimeline b, int j) {
+        if (a.times[i] != b.times[j]) {
+            return a.times[i] < b.times[j];
+        }
+        return a.sequences[i] < b.sequences[j];
+    }
+
+    /**
+     * Collects events and produces an {@link EventTimeline}.
+     * Implements {@link MappedLoader.Visitor} so it can be filled directly by the loader.
+     */
+    public static class Builder implements MappedLoader.Visitor {
+        private long[] times = new long[16];
+        private int[] sequences = new int[16];
+        private int[] opcodes = new int[16];
+        private int[] codes = new int[16];
+        private int[] xs = new int[16];
+        private int[] ys = new int[16];
+        private int size;
+        private int nextSequence;
+        private boolean sorted = true;
+
+        /**
+         * Appends an event with the next free sequence number.
+         * @param time timestamp of the event
+         * @param opcode {@link MacroFormat} opcode
+         * @param code key code or mouse button
+         * @param x x coordinate, {@code 0} for key events
+         * @param y y coordinate, {@code 0} for key events
+         * @return this builder
+         */
+        public Builder add(long time, int opcode, int code, int x, int y) {
+            return add(time, nextSequence, opcode, code, x, y);
+        }
+
+        /**
+         * Appends an event with an explicit sequence number.
+         * Useful when several builders are filled from one ordered source and later merged.
+         * @param time timestamp of the event
+         * @param sequence tie-break for events with equal timestamps
+         * @param opcode {@link MacroFormat} opcode
+         * @param code key code or mouse button
+         * @param x x coordinate, {@code 0} for key events
+         * @param y y coordinate, {@code 0} for key events
+         * @return this builder
+         */
+        public Builder add(long time, int sequence, int opcode, int code, int x, int y) {
+            if (size == times.length) {
+                int cap = size * 2;
+                times = Arrays.copyOf(times, cap);
+                sequences = Arrays.copyOf(sequences, cap);
+                opcodes = Arrays.copyOf(opcodes, cap);
+                codes = Arrays.copyOf(codes, cap);
+                xs = Arrays.copyOf(xs, cap);
+                ys = Arrays.copyOf(ys, cap);
+            }
+            if (size > 0 && (time < times[size - 1] || (time == times[size - 1] && sequence < sequences[size - 1]))) {
+                sorted = false;
+            }
+            times[size] = time;
+            sequences[size] = sequence;
+            opcodes[size] = opcode;
+            codes[size] = code;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            return this;
+        }
+
+        @Override
+        public void key(long time, int opcode, int keyCode) {
+            add(time, opcode, keyCode, 0, 0);
+        }
+
+        @Override
+        public void mouse(long time, int opcode, int x, int y, int button) {
+            add(time, opcode, button, x, y);
+        }
+
+        /**
+         * Returns the number of events added so far.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the opcode of the {@code i}th added event.
+         */
+        public int opcode(int i) {
+            return opcodes[i];
+        }
+
+        /**
+         * Returns the code of the {@code i}th added event.
+         */
+        public int code(int i) {
+            return codes[i];
+        }
+
+        /**
+         * Returns the largest timestamp added so far, or {@code 0} if empty.
+         */
+        public long maxTime() {
+            long max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, times[i]);
+            }
+            return max;
+        }
+
+        /**
+         * Creates the immutable timeline, ordered by timestamp and then sequence number.
+         * The builder can keep being used afterwards.
+         * @return a timeline holding a copy of the added events
+         */
+        public EventTimeline build() {
+            if (sorted) {
+                return new EventTimeline(
+                        Arrays.copyOf(times, size),
+                        Arrays.copyOf(sequences, size),
+                        Arrays.copyOf(opcodes, size),
+                        Arrays.copyOf(codes, size),
+                        Arrays.copyOf(xs, size),
+                        Arrays.copyOf(ys, size));
+            }
+            // only happens for out of order input (e.g. the wall clock stepping back while recording), so boxing is fine here
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingLong(i -> times[i]).thenComparingInt(i -> sequences[i]));
+            long[] t = new long[size];
+            int[] s = new int[size];
+            int[] o = new int[size];
+            int[] c = new int[size];
+            int[] x = new int[size];
+            int[] y = new int[size];
+            for (int i = 0; i < size; i++) {
+                int from = order[i];
+                t[i] = times[from];
+                s[i] = sequences[from];
+                o[i] = opcodes[from];
+                c[i] = codes[from];
+                x[i] = xs[from];
+                y[i] = ys[from];
+            }
+            return new EventTimeline(t, s, o, c, x, y);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.temple.UMB;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of capture, loading, translation and dispatch.
+ * They are recorded whenever a flight recording is running, e.g. with
+ * {@code java -XX:StartFlightRecording=filename=umb.jfr -jar UniversalMacroBuilder.jar ...}, and cost next to nothing
+ * otherwise, so unlike debug logging they can stay on in production runs and be lined up with GC and safepoint events.
+ * None of them record stack traces. The per-event hot paths check {@link #dispatchEnabled()} and
+ * {@link #nativeInput} checks its event type before creating an event, so they allocate nothing without a recording.
+ */
+public final class FlightEvents {
+    private static final EventType NATIVE_INPUT_TYPE = EventType.getEventType(NativeInput.class);
+    private static final EventType DISPATCH_TYPE = EventType.getEventType(Dispatch.class);
+
+    private FlightEvents() {}
+
+    /**
+     * One native key or mouse callback captured by {@link InputEventRecorder}.
+     */
+    @Name("edu.temple.UMB.NativeInput")
+    @Label("Native Input")
+    @Category({"Universal Macro Builder", "Capture"})
+    @Description("A key or mouse event received from the native hook")
+    @StackTrace(false)
+    public static class NativeInput extends Event {
+        @Label("Opcode")
+        int opcode;
+        @Label("Code")
+        int code;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Accepted")
+        @Description("false if the ring buffer was full and the event was dropped")
+        boolean accepted;
+    }
+
+    /**
+     * Loading a macro file, either by parsing the macro or from its {@link CompiledMacro} sidecar.
+     */
+    @Name("edu.temple.UMB.MacroLoad")
+    @Label("Macro Load")
+    @Category({"Universal Macro Builder", "Load"})
+    @StackTrace(false)
+    public static class MacroLoad extends Event {
+        @Label("Path")
+        String path;
+        @Label("Phase")
+        @Description("parse for macro files, compiled for sidecars")
+        String phase;
+        @Label("File Size")
+        @DataAmount
+        long fileSize;
+        @Label("Key Events")
+        int keyEvents;
+        @Label("Mouse Events")
+        int mouseEvents;
+    }
+
+    /**
+     * Translating raw JNativeHook events to AWT codes.
+     */
+    @Name("edu.temple.UMB.Translation")
+    @Label("Translation")
+    @Category({"Universal Macro Builder", "Load"})
+    @StackTrace(false)
+    public static class Translation extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Raw Events")
+        int rawEvents;
+        @Label("Translated Events")
+        int translatedEvents;
+    }
+
+    /**
+     * One event handed to the {@link InputSink} by a {@link ReplayScheduler}; the duration is the sink (Robot) call.
+     */
+    @Name("edu.temple.UMB.Dispatch")
+    @Label("Dispatch")
+    @Category({"Universal Macro Builder", "Replay"})
+    @StackTrace(false)
+    public static class Dispatch extends Event {
+        @Label("Index")
+        int index;
+        @Label("Opcode")
+        int opcode;
+        @Label("Code")
+        int code;
+        @Label("Target")
+        @Description("When the event was due, measured from the start of the iteration")
+        @Timespan(Timespan.NANOSECONDS)
+        long target;
+        @Label("Lateness")
+        @Description("How long after its target the event was dispatched")
+        @Timespan(Timespan.NANOSECONDS)
+        long lateness;
+    }
+
+    /**
+     * Returns whether a running flight recording wants {@link Dispatch} events, without creating one.
+     */
+    static boolean dispatchEnabled() {
+        return DISPATCH_TYPE.isEnabled();
+    }
+
+    /**
+     * Records a captured native callback if a flight recording wants it.
+     */
+    static void nativeInput(int opcode, int code, int x, int y, boolean accepted) {
+        if (NATIVE_INPUT_TYPE.isEnabled()) {
+            NativeInput event = new NativeInput();
+            event.opcode = opcode;
+            event.code = code;
+            event.x = x;
+            event.y = y;
+            event.accepted = accepted;
+            event.commit();
+        }
+    }
+}
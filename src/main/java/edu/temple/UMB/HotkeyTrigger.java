@@ -0,0 +1,326 @@
+package edu.temple.UMB;
+
+import com.github.kwhat.jnativehook.GlobalScreen;
+import com.github.kwhat.jnativehook.NativeHookException;
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Replays macros when global hotkeys are pressed.
+ * A config file maps key chords to macros, one binding per line, e.g. {@code CTRL+SHIFT+F1 = login.txt};
+ * blank lines and lines starting with {@code #} are ignored. Key names are JNativeHook {@code VC_*} names without
+ * the prefix, plus the aliases {@code CTRL}, {@code WIN} and {@code CMD}.
+ * <p>
+ * Every bound macro is loaded, translated and given its own {@link Replayer} at startup, and a single replay thread
+ * is started, so a chord only hands an already built replayer to that thread. The native hook thread never replays
+ * itself. Chords pressed while a macro is still replaying are ignored, which also keeps a macro from triggering itself.
+ * A chord with modifiers replays once all of its modifiers have been released, so the replayed keys are not combined
+ * with them (a {@code CTRL+F1} macro that types "a" must not send Ctrl+A).
+ * The delay from the chord being complete (its key press, or the release of its last modifier) to the start of the
+ * replay is logged per trigger and collected in a {@link LatencyHistogram}.
+ * Pressing the stop key stops any running replay and ends hotkey mode.
+ */
+public class HotkeyTrigger implements NativeKeyListener {
+    private static final Logger logger = LogManager.getLogger(HotkeyTrigger.class);
+    private static final Map<String, String> ALIASES = Map.of("CTRL", "CONTROL", "WIN", "META", "CMD", "META");
+
+    /**
+     * One chord and the macro it replays.
+     */
+    public static class Binding {
+        private final String chord;
+        private final int key;
+        // sorted, so held keys can be compared with Arrays.equals
+        private final int[] modifiers;
+        private final String macro;
+
+        Binding(String chord, int key, int[] modifiers, String macro) {
+            this.chord = chord;
+            this.key = key;
+            this.modifiers = modifiers;
+            this.macro = macro;
+        }
+
+        /** Returns the chord as written in the config. */
+        public String getChord() { return chord; }
+
+        /** Returns the macro name, relative to the macros folder. */
+        public String getMacro() { return macro; }
+    }
+
+    private final List<Binding> bindings;
+    private final Replayer[] replayers;
+    private final int stopKeyCode;
+    // only touched on the native hook thread
+    private final Set<Integer> held = new HashSet<>();
+    // binding whose chord was pressed and that waits for its modifiers to be released, -1 if none; hook thread only
+    private int pending = -1;
+    private final ExecutorService replayThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "hotkey-replay");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile Replayer current;
+    private volatile boolean hooked;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final LatencyHistogram triggerLatency = new LatencyHistogram();
+
+    /**
+     * Builds a replayer for every binding and starts the replay thread. Nothing is triggered until {@link #start()}.
+     * @param bindings chords and their macros, see {@link #parse(List)}
+     * @param macroDir folder the macro names are resolved against
+     * @param stopKey name of the key that ends hotkey mode, such as {@code ESCAPE}
+     * @param replayers creates the replayer for a macro file, e.g. with the sink, timing and merged mode to use
+     * @throws IllegalArgumentException if the stop key is unknown
+     */
+    public HotkeyTrigger(List<Binding> bindings, File macroDir, String stopKey, Function<File, Replayer> replayers) {
+        this.bindings = List.copyOf(bindings);
+        this.stopKeyCode = keyCode(stopKey, 0);
+        this.replayers = new Replayer[bindings.size()];
+        for (int i = 0; i < bindings.size(); i++) {
+            File macro = new File(macroDir, bindings.get(i).macro);
+            this.replayers[i] = replayers.apply(macro);
+            logger.info("Bound {} to {} ({} events)", bindings.get(i).chord, macro.getAbsolutePath(), this.replayers[i].getEventCount());
+        }
+        // start the replay thread now rather than on the first trigger
+        replayThread.submit(() -> {});
+    }
+
+    /**
+     * Reads bindings from a config file, see {@link #parse(List)}.
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed or names an unknown key
+     */
+    public static List<Binding> parse(File config) throws IOException {
+        return parse(Files.readAllLines(config.toPath()));
+    }
+
+    /**
+     * Parses binding lines of the form {@code <chord> = <macro>}, where a chord is key names joined by {@code +}
+     * and the last key triggers it.
+     * @param lines config lines
+     * @return the bindings in config order
+     * @throws IllegalArgumentException if a line is malformed, names an unknown key or repeats a chord
+     */
+    public static List<Binding> parse(List<String> lines) {
+        List<Binding> bindings = new ArrayList<>();
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq <= 0 || eq == line.length() - 1) {
+                throw new IllegalArgumentException("Line " + (n + 1) + ": expected <chord> = <macro>: " + line);
+            }
+            String chord = line.substring(0, eq).trim();
+            String macro = line.substring(eq + 1).trim();
+            String[] keys = chord.split("\\s*\\+\\s*");
+            int[] codes = new int[keys.length];
+            for (int k = 0; k < keys.length; k++) {
+                codes[k] = keyCode(keys[k], n + 1);
+            }
+            int[] modifiers = Arrays.copyOf(codes, codes.length - 1);
+            Arrays.sort(modifiers);
+            Binding binding = new Binding(chord, codes[codes.length - 1], modifiers, macro);
+            for (Binding other : bindings) {
+                if (other.key == binding.key && Arrays.equals(other.modifiers, binding.modifiers)) {
+                    throw new IllegalArgumentException("Line " + (n + 1) + ": " + chord + " is already bound to " + other.macro);
+                }
+            }
+            bindings.add(binding);
+        }
+        return bindings;
+    }
+
+    // line 0 is used for keys that do not come from the config
+    private static int keyCode(String name, int line) {
+        String upper = name.trim().toUpperCase();
+        upper = ALIASES.getOrDefault(upper, upper);
+        try {
+            return NativeKeyEvent.class.getField("VC_" + upper).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException((line > 0 ? "Line " + line + ": " : "") + "unknown key " + name);
+        }
+    }
+
+    /**
+     * Registers the native hook and starts reacting to chords.
+     * @throws NativeHookException if the hook cannot be registered
+     */
+    public void start() throws NativeHookException {
+        GlobalScreen.registerNativeHook();
+        GlobalScreen.addNativeKeyListener(this);
+        hooked = true;
+        logger.info("Hotkeys active: {} bindings", bindings.size());
+    }
+
+    /**
+     * Blocks until the stop key was pressed or {@link #stop()} was called.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops any running replay, removes the native hook, ends the replay thread and closes every prebuilt replayer.
+     */
+    public void stop() {
+        Replayer r = current;
+        if (r != null) {
+            r.stop();
+        }
+        if (hooked) {
+            hooked = false;
+            GlobalScreen.removeNativeKeyListener(this);
+            try {
+                GlobalScreen.unregisterNativeHook();
+            } catch (NativeHookException e) {
+                logger.warn("Failed to unregister native hook", e);
+            }
+        }
+        replayThread.shutdownNow();
+        try {
+            if (!replayThread.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Hotkey replay thread did not end in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the replay thread is gone, so no replayer is in use any more
+        for (Replayer replayer : replayers) {
+            replayer.close();
+        }
+        synchronized (triggerLatency) {
+            logger.info("Hotkey trigger latency: {}", triggerLatency.summary());
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Returns the trigger latency of every replay so far.
+     */
+    public LatencyHistogram getTriggerLatency() {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (triggerLatency) {
+            copy.add(triggerLatency);
+        }
+        return copy;
+    }
+
+    @Override
+    public void nativeKeyPressed(NativeKeyEvent e) {
+        keyPressed(e.getKeyCode(), System.nanoTime());
+    }
+
+    @Override
+    public void nativeKeyReleased(NativeKeyEvent e) {
+        keyReleased(e.getKeyCode(), System.nanoTime());
+    }
+
+    // runs on the native hook thread, returns whether a macro was triggered
+    private boolean keyPressed(int keyCode, long pressedNano) {
+        if (keyCode == stopKeyCode) {
+            logger.info("Stop key pressed, leaving hotkey mode.");
+            stop();
+            return false;
+        }
+        // key repeat sends presses while the key is held, only the first one counts
+        if (!held.add(keyCode)) {
+            return false;
+        }
+        for (int i = 0; i < bindings.size(); i++) {
+            Binding b = bindings.get(i);
+            if (b.key == keyCode && modifiersHeld(b)) {
+                return trigger(i, pressedNano);
+            }
+        }
+        return false;
+    }
+
+    private void keyReleased(int keyCode, long releasedNano) {
+        held.remove(keyCode);
+        if (pending >= 0 && !anyModifierHeld(bindings.get(pending))) {
+            int index = pending;
+            pending = -1;
+            replay(index, releasedNano);
+        }
+    }
+
+    private boolean anyModifierHeld(Binding b) {
+        for (int m : b.modifiers) {
+            if (held.contains(m)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean modifiersHeld(Binding b) {
+        if (held.size() != b.modifiers.length + 1) {
+            return false;
+        }
+        for (int m : b.modifiers) {
+            if (!held.contains(m)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean trigger(int index, long pressedNano) {
+        Binding b = bindings.get(index);
+        if (!busy.compareAndSet(false, true)) {
+            logger.info("Ignoring {}, a macro is still waiting or replaying", b.chord);
+            return false;
+        }
+        if (anyModifierHeld(b)) {
+            logger.info("{} pressed, replaying {} once its modifiers are released", b.chord, b.macro);
+            pending = index;
+        } else {
+            replay(index, pressedNano);
+        }
+        return true;
+    }
+
+    // hands the replayer to the replay thread; busy is already set. triggeredNano is when the chord was complete
+    private void replay(int index, long triggeredNano) {
+        Binding b = bindings.get(index);
+        Replayer replayer = replayers[index];
+        replayThread.execute(() -> {
+            current = replayer;
+            try {
+                replayer.replay();
+                long latency = replayer.getReplayStartNano() - triggeredNano;
+                synchronized (triggerLatency) {
+                    triggerLatency.record(latency);
+                }
+                logger.info("{} replayed {}, started {} us after the chord", b.chord, b.macro, TimeUnit.NANOSECONDS.toMicros(latency));
+                System.out.println("[INFO] " + b.chord + " -> " + b.macro + " (started " + TimeUnit.NANOSECONDS.toMicros(latency) + " us after the chord)");
+            } finally {
+                current = null;
+                busy.set(false);
+            }
+        });
+    }
+}
@@ -6,33 +6,60 @@ import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
 import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
 import com.github.kwhat.jnativehook.mouse.NativeMouseInputListener;
 
-import java.lang.annotation.Native;
-import java.security.Key;    
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import static java.lang.Thread.sleep;
-
 /**
  * Records global keyboard and mouse input using JNativeHook.
- * Produces {@link KeyEvent} and {@link MouseEvent} instances with millisecond offsets from the start of recording.
+ * Produces {@link KeyEvent} and {@link MouseEvent} instances with microsecond offsets from the start of recording,
+ * measured with the monotonic {@link System#nanoTime()} clock.
+ * The native callbacks only copy a timestamp and the event's primitives into an {@link EventRing}; a drain thread
+ * turns them into events, so heavy mouse motion never backs up the native hook.
+ * The live terminal echo is rendered in batches by a {@link ConsoleEcho} and never blocks either thread on the terminal.
+ * Events are kept in memory, or handed straight to a {@link StreamingWriter} when one is given.
  */
 public class InputEventRecorder implements NativeKeyListener, NativeMouseInputListener {
     private static final Logger logger = LogManager.getLogger(InputEventRecorder.class);
+    /**
+     * Number of captured events that can wait for the drain thread before new ones are dropped.
+     */
+    public static final int RING_CAPACITY = 1 << 16;
     private final List<KeyEvent> keyEvents = new ArrayList<>();
     private final List<MouseEvent> mouseEvents = new ArrayList<>();
-    private boolean recording;
+    // how long the drain thread sleeps when the ring is empty
+    private static final long DRAIN_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final EventRing ring = new EventRing(RING_CAPACITY);
+    private volatile boolean recording;
+    private volatile boolean draining = true;
+    private Thread drainThread;
+    // live terminal echo, rendered on its own thread
+    private ConsoleEcho echo = new ConsoleEcho(ConsoleEcho.Mode.FULL);
+    // System.nanoTime() when recording started
     private long firstEventTime = -1;
     private final int stopKeyCode;
+    // when set, events are streamed to disk instead of collected in the lists above
+    private final StreamingWriter stream;
     
     /**
      * Creates a recorder that will stop when the specified key is pressed.
      * @param stopKeyName key name such as {@code ESCAPE} corresponding to {@link NativeKeyEvent} {@code VC_*} constants
      */
     public InputEventRecorder(String stopKeyName) {
+        this(stopKeyName, null);
+    }
+
+    /**
+     * Creates a recorder that will stop when the specified key is pressed and streams every event to {@code stream}.
+     * @param stopKeyName key name such as {@code ESCAPE} corresponding to {@link NativeKeyEvent} {@code VC_*} constants
+     * @param stream receives events as they are recorded, or {@code null} to keep them in memory
+     */
+    public InputEventRecorder(String stopKeyName, StreamingWriter stream) {
         this.stopKeyCode = keyTextToJNative(stopKeyName);
+        this.stream = stream;
     }
 
     /**
@@ -55,141 +82,212 @@ public class InputEventRecorder implements NativeKeyListener, NativeMouseInputLi
         }
     }
 
+    /**
+     * Sets how recorded input is echoed to the terminal. Must be called before {@link #startRecording()}.
+     * @param mode echo mode, {@link ConsoleEcho.Mode#FULL} by default
+     */
+    public void setEchoMode(ConsoleEcho.Mode mode) {
+        this.echo = new ConsoleEcho(mode);
+    }
+
     /**
      * Registers native hooks and begins capturing input events.
      */
     public void startRecording() throws Exception {
         logger.info("Registering native hooks and starting input recording");
+        echo.start();
+        firstEventTime = System.nanoTime();
+        drainThread = new Thread(this::drainLoop, "recorder-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
         GlobalScreen.registerNativeHook();
         GlobalScreen.addNativeKeyListener(this);
         GlobalScreen.addNativeMouseListener(this);
         GlobalScreen.addNativeMouseMotionListener(this);
         recording = true;
-        firstEventTime = System.currentTimeMillis();
+        UMBMetrics.shared().recordingStarted(this);
+    }
+
+    /**
+     * Waits until every captured event has been handed on, then stops the drain thread.
+     * Call once {@link #isRecording()} returned {@code false} and before reading the recorded events.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void finishRecording() throws InterruptedException {
+        // a long-lived process may record again, so the next recorder must not share the hook with this one
+        GlobalScreen.removeNativeKeyListener(this);
+        GlobalScreen.removeNativeMouseListener(this);
+        GlobalScreen.removeNativeMouseMotionListener(this);
+        draining = false;
+        if (drainThread != null) {
+            drainThread.join();
+        }
+        echo.close();
+        UMBMetrics.shared().recordingFinished(this);
+        logger.info("Ring buffer high-water mark {} of {}, {} events dropped", ring.getHighWater(), ring.capacity(), ring.getDropped());
+        if (ring.getDropped() > 0) {
+            System.out.println("[WARN] " + ring.getDropped() + " events were dropped because the recorder could not keep up.");
+        }
     }
 
+    // the callbacks below run on JNativeHook's dispatch thread: they only capture primitives into the ring,
+    // everything else (building events, writing, echoing) happens on the drain thread
+
     @Override
     public void nativeKeyPressed(NativeKeyEvent e) {
         // Press ESC to stop recording (before adding it to array)
         if (e.getKeyCode() == stopKeyCode) {
-            try {
-                System.out.println("\n[Recorder] stop key pressed — stopping...");
-                logger.info("Stop key pressed. Unregistering native hook and stopping recording.");
-                GlobalScreen.unregisterNativeHook();
-                recording = false;
-                return;
-            } catch (Exception ex) {
-                logger.error("Failed to unregister native hook during stop", ex);
-                return;
-            }
+            System.out.println("\n[Recorder] stop key pressed — stopping...");
+            logger.info("Stop key pressed. Unregistering native hook and stopping recording.");
+            stopRecording();
+            return;
         }
-
-        long delta = System.currentTimeMillis() - firstEventTime;
-
-        keyEvents.add(new KeyEvent(delta, e, "PRESSED"));
-
-        // Print what the user types live in the terminal
-        String keyText = NativeKeyEvent.getKeyText(e.getKeyCode());
-        printKeyToTerminal("PRESSED: " + keyText);
-
-
+        capture(System.nanoTime(), MacroFormat.KEY_PRESSED, e.getKeyCode(), 0, 0);
     }
 
     @Override public void nativeKeyReleased(NativeKeyEvent e) {
-
-        long delta = System.currentTimeMillis() - firstEventTime;
-        if (e.getKeyCode() == NativeKeyEvent.VC_ENTER && delta > 10) {
+        long now = System.nanoTime();
+        if (e.getKeyCode() == NativeKeyEvent.VC_ENTER && toMicros(now) > 10_000) {
             // assume this is the first enter key release due to keycode and timestamp
             return;
         }
-
-        keyEvents.add(new KeyEvent(delta, e, "RELEASED"));
-
-        String keyText = NativeKeyEvent.getKeyText(e.getKeyCode());
-        printKeyToTerminal("RELEASED: " + keyText);
+        capture(now, MacroFormat.KEY_RELEASED, e.getKeyCode(), 0, 0);
     }
 
     @Override public void nativeKeyTyped(NativeKeyEvent e) {}
 
     @Override
     public void nativeMousePressed(NativeMouseEvent e) {
-
-        long delta = System.currentTimeMillis() - firstEventTime;
-
-        mouseEvents.add(new MouseEvent(delta, e, "MOUSE_PRESSED"));
-
-        // Print what the user types live in the terminal
-        String eventText = e.paramString();
-        printMouseEventToTerminal("MOUSE_PRESSED: " + eventText);
+        capture(System.nanoTime(), MacroFormat.MOUSE_PRESSED, e.getButton(), e.getX(), e.getY());
     }
 
     @Override
     public void nativeMouseReleased(NativeMouseEvent e) {
-        long delta = System.currentTimeMillis() - firstEventTime;
-
-        mouseEvents.add(new MouseEvent(delta, e, "MOUSE_RELEASED"));
-
-        String eventText = e.paramString();
-        printMouseEventToTerminal("MOUSE_RELEASED: " + eventText);
+        capture(System.nanoTime(), MacroFormat.MOUSE_RELEASED, e.getButton(), e.getX(), e.getY());
     }
 
     @Override public void nativeMouseClicked(NativeMouseEvent e) {}
 
     @Override
     public void nativeMouseDragged(NativeMouseEvent e) {
-        long delta = System.currentTimeMillis() - firstEventTime;
-        mouseEvents.add(new MouseEvent(delta, e, "MOUSE_DRAGGED"));
-        String eventText = e.paramString();
-        printMouseEventToTerminal("MOUSE_DRAGGED: " + eventText);
+        capture(System.nanoTime(), MacroFormat.MOUSE_DRAGGED, e.getButton(), e.getX(), e.getY());
     }
 
     @Override
     public void nativeMouseMoved(NativeMouseEvent e) {
-        long delta = System.currentTimeMillis() - firstEventTime;
+        capture(System.nanoTime(), MacroFormat.MOUSE_MOVED, e.getButton(), e.getX(), e.getY());
+    }
 
-        mouseEvents.add(new MouseEvent(delta, e, "MOUSE_MOVED"));
-        String eventText = e.paramString();
-        printMouseEventToTerminal("MOUSE_MOVED: " + eventText);
+    private void capture(long time, int opcode, int code, int x, int y) {
+        boolean accepted = ring.offer(time, opcode, code, x, y);
+        FlightEvents.nativeInput(opcode, code, x, y, accepted);
+    }
+
+    private long toMicros(long nanoTime) {
+        return TimeUnit.NANOSECONDS.toMicros(nanoTime - firstEventTime);
+    }
+
+    private void drainLoop() {
+        MappedLoader.Visitor handler = new MappedLoader.Visitor() {
+            @Override
+            public void key(long time, int opcode, int keyCode) {
+                addKey(new KeyEvent(toMicros(time), keyCode, MacroFormat.contextOf(opcode)));
+                echo.key(opcode, keyCode);
+            }
+
+            @Override
+            public void mouse(long time, int opcode, int x, int y, int button) {
+                addMouse(new MouseEvent(toMicros(time), x, y, button, MacroFormat.contextOf(opcode)));
+                echo.mouse(opcode, x, y, button);
+            }
+        };
+        while (draining) {
+            if (ring.drain(handler) == 0) {
+                LockSupport.parkNanos(DRAIN_IDLE_NANOS);
+            }
+        }
+        // whatever was captured before the stop
+        ring.drain(handler);
+    }
+
+    private void addKey(KeyEvent e) {
+        if (stream != null) {
+            stream.submit(e);
+        } else {
+            keyEvents.add(e);
+        }
+    }
+
+    private void addMouse(MouseEvent e) {
+        if (stream != null) {
+            stream.submit(e);
+        } else {
+            mouseEvents.add(e);
+        }
     }
 
     /**
-     * Returns the recorded key events so far.
+     * Returns the recorded key events so far. Always empty when streaming.
      */
     public List<KeyEvent> getKeyEvents() { return keyEvents; }
 
     /**
-     * Returns the recorded mouse events so far.
+     * Returns the recorded mouse events so far. Always empty when streaming.
      */
     public List<MouseEvent> getMouseEvents() { return mouseEvents; }
 
     /**
-     * Indicates whether recording is active.
+     * Returns how many events were captured so far, including the ones still buffered.
      */
-    public boolean isRecording() {
-        return recording;
+    public long getCapturedCount() {
+        return ring.getAccepted();
+    }
+
+    /**
+     * Returns how many events were dropped so far because the recorder could not keep up.
+     */
+    public long getDroppedCount() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Returns how many captured events are waiting in the ring buffer for the drain thread.
+     */
+    public int getBufferedCount() {
+        return ring.size();
+    }
+
+    /**
+     * Returns how many events are waiting to be written by the {@link StreamingWriter}, {@code 0} when not streaming.
+     */
+    public int getStreamQueueDepth() {
+        return stream == null ? 0 : stream.getQueueDepth();
     }
 
-    // Helper function to make terminal output look like typing
-    private void printKeyToTerminal(String keyText) {
-        switch (keyText) {
-            case "Space":
-                System.out.println(" ");
-                break;
-            case "Enter":
-                System.out.println();
-                break;
-            case "Backspace":
-                System.out.println("\b \b"); // erase last character
-                break;
-            case "Tab":
-                System.out.println("\t");
-                break;
-            default:
-                System.out.println(keyText);
+    /**
+     * Returns the {@link System#nanoTime()} at which recording started.
+     */
+    public long getStartNano() {
+        return firstEventTime;
+    }
+
+    /**
+     * Stops recording as if the stop key was pressed; {@link #isRecording()} returns {@code false} afterwards.
+     * Can be called from any thread.
+     */
+    public void stopRecording() {
+        try {
+            GlobalScreen.unregisterNativeHook();
+            recording = false;
+        } catch (Exception ex) {
+            logger.error("Failed to unregister native hook during stop", ex);
         }
     }
 
-    private void printMouseEventToTerminal(String eventText) {
-        System.out.println(eventText);
+    /**
+     * Indicates whether recording is active.
+     */
+    public boolean isRecording() {
+        return recording;
     }
 }
@@ -0,0 +1,57 @@
+package edu.temple.UMB;
+
+/**
+ * Destination for the input actions produced by replay.
+ * The replayers never talk to the OS directly; they hand every translated event to a sink.
+ * {@link RobotSink} drives the real keyboard and mouse, while {@link CountingSink} and {@link RecordingSink}
+ * let replay run headless (e.g. in CI without a display) for tests and benchmarks.
+ * Codes are AWT key codes and button masks, coordinates are the recorded screen coordinates.
+ * Implementations must be safe to call from several dispatch threads at once.
+ */
+public interface InputSink {
+    /**
+     * Presses the key with the given AWT key code.
+     */
+    void keyPress(int keyCode);
+
+    /**
+     * Releases the key with the given AWT key code.
+     */
+    void keyRelease(int keyCode);
+
+    /**
+     * Moves the pointer to the given recorded coordinates.
+     */
+    void mouseMove(int x, int y);
+
+    /**
+     * Resolves the recorded coordinates of a macro's events into what {@link #mouseMoveResolved} expects, once before replay.
+     * The default keeps the recorded coordinates on a single screen.
+     * @param events events with recorded coordinates
+     * @return one resolved point per event
+     */
+    default DevicePoints resolve(EventTimeline events) {
+        return DevicePoints.unchanged(events);
+    }
+
+    /**
+     * Moves the pointer to a point returned by {@link #resolve(EventTimeline)}.
+     * The default forwards to {@link #mouseMove(int, int)}.
+     * @param screen the screen index of the point
+     * @param x the resolved x coordinate
+     * @param y the resolved y coordinate
+     */
+    default void mouseMoveResolved(int screen, int x, int y) {
+        mouseMove(x, y);
+    }
+
+    /**
+     * Presses the buttons in the given AWT button mask.
+     */
+    void mousePress(int buttons);
+
+    /**
+     * Releases the buttons in the given AWT button mask.
+     */
+    void mouseRelease(int buttons);
+}
@@ -3,39 +3,50 @@ package edu.temple.UMB;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
 
 /**
- * Recorded keyboard event with its {@link NativeKeyEvent} and context.
- * The {@code context} is {@code PRESSED} or {@code RELEASED} and {@code delta} is milliseconds since recording started.
+ * Recorded keyboard event with its key code and context.
+ * The {@code context} is {@code PRESSED} or {@code RELEASED} and {@code delta} is microseconds since recording started.
+ * Only the key code is kept from the {@link NativeKeyEvent}, so recorded events stay small.
  */
 public class KeyEvent extends Event {
-    private final NativeKeyEvent event;
+    private final int keyCode;
     String context;
 
     /**
      * Creates a recorded key event.
-     * @param delta milliseconds since the first recorded event
+     * @param delta microseconds since the first recorded event
      * @param event the underlying {@link NativeKeyEvent}
      * @param context {@code PRESSED} or {@code RELEASED}
      */
     public KeyEvent(long delta, NativeKeyEvent event, String context) {
+        this(delta, event.getKeyCode(), context);
+    }
+
+    /**
+     * Creates a recorded key event from its key code.
+     * @param delta microseconds since the first recorded event
+     * @param keyCode the JNativeHook {@code VC_*} key code
+     * @param context {@code PRESSED} or {@code RELEASED}
+     */
+    public KeyEvent(long delta, int keyCode, String context) {
         super(delta);
-        this.event = event;
+        this.keyCode = keyCode;
         this.context = context;
     }
 
     /**
-     * Returns the underlying {@link NativeKeyEvent}.
-     * @return the native key event
+     * Returns the JNativeHook key code of the event.
+     * @return the {@code VC_*} key code
      */
-    public NativeKeyEvent getEvent() {
-        return event;
+    public int getKeyCode() {
+        return keyCode;
     }
 
     /**
      * Serializes this event for file output.
-     * @return a line of the form {@code <delta> <context> <keyCode>}
+     * @return a line of the form {@code <delta> <context> <keyCode>}, with the delta in decimal milliseconds
      */
     @Override
     public String toString() {
-        return getDelta() + " " + context + " " + event.getKeyCode();
+        return MacroFormat.formatMillis(getDeltaMicros()) + " " + context + " " + keyCode;
     }
-}
\ No newline at end of file
+}
@@ -6,114 +6,119 @@ import org.apache.logging.log4j.Logger;
 
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.Set;
-import java.util.concurrent.*;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.ConcurrentHashMap;
 
 // TODO: kepp of track of held keys and dont re-record presses, it can lag with held keys
 
 /**
- * Replays a sequence of translated keyboard {@link AWTReplayEvent} items at precise timestamps.
- * Backed by a single-threaded {@link ScheduledExecutorService} and a {@link Robot} for key emission.
+ * Replays a translated keyboard {@link EventTimeline} at precise timestamps.
+ * Backed by a {@link ReplayScheduler} (one dispatch thread walking the timeline) and an {@link InputSink} for key emission,
+ * a {@link RobotSink} unless another sink is given.
  * Timing is computed relative to the instant {@link #start()} is invoked.
- * The executor schedules an automatic finish sequence: log completion, release any held keys, and shut down.
- * Callers typically invoke {@link #start()} and then, if needed, await termination on {@link #exec}.
+ * After the last event the scheduler logs completion and releases any held keys.
+ * Callers typically invoke {@link #start()} and then, if needed, await termination on {@link #scheduler}.
  */
-public class KeyReplayer {
+public final class KeyReplayer {
     private static final Logger logger = LogManager.getLogger(KeyReplayer.class);
-    private static final Map<Integer, Integer> jnativeToAwt = new HashMap<>();
-    // ordered mapping of timestamps to AWTReplayEvents
-    LinkedHashMap<Long, AWTReplayEvent> awtEvents = new LinkedHashMap<>();
-    // the scheduler we will use to enable accurate playback. TODO: make this private and have this class auto terminate after last event
-    public final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
-    private final CountDownLatch startLatch = new CountDownLatch(1);
-    private volatile long startNano;
-    // system time when replay was started
-    // the (lazy instantiation) of the Robot class to be used for actual replay
-    private final Robot robot;
+    /**
+     * Returned by {@link #toAwt(int)} for keys without an AWT key code.
+     */
+    public static final int UNMAPPED = -1;
+    // AWT key code by JNativeHook key code
+    private static final int[] jnativeToAwt;
+    // translated events, codes are AWT key codes
+    final EventTimeline awtEvents;
+    // single thread that dispatches the events in order
+    public final ReplayScheduler scheduler;
+    // where the key actions go, normally a robot
+    private final InputSink sink;
     // track keys currently pressed
     private final Set<Integer> keysDown = ConcurrentHashMap.newKeySet();
     long maxDelay = 0L;
 
 
     /**
-     * Constructor for {@link KeyReplayer}.
+     * Constructor for {@link KeyReplayer} that replays through a {@link RobotSink}.
      * @param loadedJNativeHookEvents The JNativeHook events returned by {@link Loader}.
      * @throws RuntimeException if the {@link Robot} cannot be created (e.g., if the environment does not support AWT operations).
      */
-    public KeyReplayer(LinkedHashMap<Long, String> loadedJNativeHookEvents) throws RuntimeException {
+    public KeyReplayer(EventTimeline loadedJNativeHookEvents) throws RuntimeException {
+        this(loadedJNativeHookEvents, RobotSink.forAllScreens());
+    }
+
+    /**
+     * Constructor for {@link KeyReplayer}.
+     * @param loadedJNativeHookEvents The JNativeHook events returned by {@link Loader}.
+     * @param sink receives the key presses and releases
+     */
+    public KeyReplayer(EventTimeline loadedJNativeHookEvents, InputSink sink) {
         // translate those events to AWT events
-        JNativeToAWT(loadedJNativeHookEvents);
+        this(sink, JNativeToAWT(loadedJNativeHookEvents));
+    }
 
-        // debug print
-        logger.info("Translated to {} AWT events", awtEvents.size());
-        for (Long key : awtEvents.keySet()) {
-            logger.debug("{} {} {}", key, awtEvents.get(key).context, awtEvents.get(key).event);
-        }
+    /**
+     * Creates a key replayer for events whose codes already are AWT key codes, e.g. from a {@link CompiledMacro}.
+     * @param awtEvents translated key events
+     * @param sink receives the key presses and releases
+     * @return the new replayer
+     */
+    static KeyReplayer fromTranslated(EventTimeline awtEvents, InputSink sink) {
+        return new KeyReplayer(sink, awtEvents);
+    }
 
-        // initialize robot so now so we have minimal overhead later
-        try {
-            robot = new Robot();
-            logger.info("Key replay started with {} events", awtEvents.size());
-        } catch (AWTException e) {
-            logger.fatal("Failed to initialize Robot for key replay", e);
-            throw new RuntimeException(e);
-        }
+    private KeyReplayer(InputSink sink, EventTimeline awtEvents) {
+        this.sink = sink;
+        this.awtEvents = awtEvents;
 
-        // schedule events now, on start just release latch
-        for (Long key : awtEvents.keySet()) {
-            long delay = key;
-            if (delay < 0) delay = 0;
-            maxDelay = Math.max(delay, maxDelay);
-            exec.submit(() -> {
-                try {
-                    startLatch.await();
-                    long target = startNano + TimeUnit.MILLISECONDS.toNanos(key);
-                    long now;
-                    while ((now = System.nanoTime()) < target) {
-                        LockSupport.parkNanos(target - now);
-                    }
-                    executeEvent(awtEvents.get(key));
-                } catch (InterruptedException ignored) {
-                }
-            });
-        }
-        exec.submit(() -> logger.info("Key replay finished!"), maxDelay + 50);
-        exec.submit(this::releaseAllHeld, maxDelay + 100);
-        exec.submit(exec::shutdown, maxDelay + 150);
+        logger.info("Translated to {} AWT events", awtEvents.size());
+
+        // the scheduler thread waits until start, then walks the timeline in order
+        maxDelay = TimeUnit.MICROSECONDS.toMillis(Math.max(0L, awtEvents.lastTime()));
+        scheduler = new ReplayScheduler("key-replay", awtEvents, this::executeEvent, () -> {
+            logger.info("Key replay finished!");
+            releaseAllHeld();
+        }, this::releaseAllHeld);
     }
 
     /**
-     * Schedules and starts playback of the translated key events.
+     * Starts playback of the translated key events.
      * Each entry in {@code awtEvents} is executed relative to the instant this method is called.
      * If an entry's timestamp is already in the past, it will be executed immediately.
-     *
-     * @return the approximate number of milliseconds the caller should wait for all scheduled tasks to finish,
-     *         including a small buffer to release any held keys and shut down the executor
      */
     public void start() {
-        startNano = System.nanoTime(); // reference point for event delays
-        startLatch.countDown(); // release latch
+        start(System.nanoTime());
     }
 
     /**
-     * Executes a single {@link AWTReplayEvent}.
-     * Depending on the {@code context} of the event ("PRESSED" or "RELEASED"),
-     * this method will call {@link Robot#keyPress(int)} or {@link Robot#keyRelease(int)}.
+     * Starts playback relative to the given reference point, so several replayers can share one start time.
+     * @param startNano reference point from {@link System#nanoTime()}
+     */
+    public void start(long startNano) {
+        scheduler.start(startNano);
+    }
+
+    /**
+     * Executes a single translated event.
+     * Depending on the opcode of the event ({@link MacroFormat#KEY_PRESSED} or {@link MacroFormat#KEY_RELEASED}),
+     * this method will call {@link InputSink#keyPress(int)} or {@link InputSink#keyRelease(int)}.
      *
-     * @param event the {@link AWTReplayEvent} to execute
+     * @param i index of the event in {@code awtEvents}
      */
-    private void executeEvent(AWTReplayEvent event) {
-        logger.debug("Executing {} with code {}", event.context, event.event);
-        if (event.context.equals("PRESSED")) {
-            keysDown.add(event.event);
-            robot.keyPress(event.event);
-        } else if (event.context.equals("RELEASED")) {
-            keysDown.remove(event.event);
-            robot.keyRelease(event.event);
+    private void executeEvent(int i) {
+        int code = awtEvents.code(i);
+        if (awtEvents.opcode(i) == MacroFormat.KEY_PRESSED) {
+            keysDown.add(code);
+            sink.keyPress(code);
+        } else if (awtEvents.opcode(i) == MacroFormat.KEY_RELEASED) {
+            keysDown.remove(code);
+            sink.keyRelease(code);
         }
     }
 
@@ -126,7 +131,7 @@ public class KeyReplayer {
         for (Integer key : keysDown) {
             try {
                 logger.warn("Key {} is still being held! Trying to release...", key);
-                robot.keyRelease(key);
+                sink.keyRelease(key);
             } catch (Exception ignored) {}
         }
         keysDown.clear();
@@ -142,116 +147,95 @@ public class KeyReplayer {
     }
 
     static {
-        // Letters
-        jnativeToAwt.put(NativeKeyEvent.VC_A, KeyEvent.VK_A);
-        jnativeToAwt.put(NativeKeyEvent.VC_B, KeyEvent.VK_B);
-        jnativeToAwt.put(NativeKeyEvent.VC_C, KeyEvent.VK_C);
-        jnativeToAwt.put(NativeKeyEvent.VC_D, KeyEvent.VK_D);
-        jnativeToAwt.put(NativeKeyEvent.VC_E, KeyEvent.VK_E);
-        jnativeToAwt.put(NativeKeyEvent.VC_F, KeyEvent.VK_F);
-        jnativeToAwt.put(NativeKeyEvent.VC_G, KeyEvent.VK_G);
-        jnativeToAwt.put(NativeKeyEvent.VC_H, KeyEvent.VK_H);
-        jnativeToAwt.put(NativeKeyEvent.VC_I, KeyEvent.VK_I);
-        jnativeToAwt.put(NativeKeyEvent.VC_J, KeyEvent.VK_J);
-        jnativeToAwt.put(NativeKeyEvent.VC_K, KeyEvent.VK_K);
-        jnativeToAwt.put(NativeKeyEvent.VC_L, KeyEvent.VK_L);
-        jnativeToAwt.put(NativeKeyEvent.VC_M, KeyEvent.VK_M);
-        jnativeToAwt.put(NativeKeyEvent.VC_N, KeyEvent.VK_N);
-        jnativeToAwt.put(NativeKeyEvent.VC_O, KeyEvent.VK_O);
-        jnativeToAwt.put(NativeKeyEvent.VC_P, KeyEvent.VK_P);
-        jnativeToAwt.put(NativeKeyEvent.VC_Q, KeyEvent.VK_Q);
-        jnativeToAwt.put(NativeKeyEvent.VC_R, KeyEvent.VK_R);
-        jnativeToAwt.put(NativeKeyEvent.VC_S, KeyEvent.VK_S);
-        jnativeToAwt.put(NativeKeyEvent.VC_T, KeyEvent.VK_T);
-        jnativeToAwt.put(NativeKeyEvent.VC_U, KeyEvent.VK_U);
-        jnativeToAwt.put(NativeKeyEvent.VC_V, KeyEvent.VK_V);
-        jnativeToAwt.put(NativeKeyEvent.VC_W, KeyEvent.VK_W);
-        jnativeToAwt.put(NativeKeyEvent.VC_X, KeyEvent.VK_X);
-        jnativeToAwt.put(NativeKeyEvent.VC_Y, KeyEvent.VK_Y);
-        jnativeToAwt.put(NativeKeyEvent.VC_Z, KeyEvent.VK_Z);
-
-        // Digits
-        jnativeToAwt.put(NativeKeyEvent.VC_0, KeyEvent.VK_0);
-        jnativeToAwt.put(NativeKeyEvent.VC_1, KeyEvent.VK_1);
-        jnativeToAwt.put(NativeKeyEvent.VC_2, KeyEvent.VK_2);
-        jnativeToAwt.put(NativeKeyEvent.VC_3, KeyEvent.VK_3);
-        jnativeToAwt.put(NativeKeyEvent.VC_4, KeyEvent.VK_4);
-        jnativeToAwt.put(NativeKeyEvent.VC_5, KeyEvent.VK_5);
-        jnativeToAwt.put(NativeKeyEvent.VC_6, KeyEvent.VK_6);
-        jnativeToAwt.put(NativeKeyEvent.VC_7, KeyEvent.VK_7);
-        jnativeToAwt.put(NativeKeyEvent.VC_8, KeyEvent.VK_8);
-        jnativeToAwt.put(NativeKeyEvent.VC_9, KeyEvent.VK_9);
-
-        // Function keys
-        for (int i = 1; i <= 24; i++) {
-            try {
-                int jn = NativeKeyEvent.class.getField("VC_F" + i).getInt(null);
-                int awt = KeyEvent.class.getField("VK_F" + i).getInt(null);
-                jnativeToAwt.put(jn, awt);
-            } catch (Exception ignored) {
+        // size the table by the largest JNativeHook code so lookups are a bounds check and an array read
+        List<Field> nativeFields = new ArrayList<>();
+        int maxCode = 0;
+        for (Field f : NativeKeyEvent.class.getFields()) {
+            if (f.getName().startsWith("VC_") && f.getType() == int.class && Modifier.isStatic(f.getModifiers())) {
+                nativeFields.add(f);
+                maxCode = Math.max(maxCode, nativeCode(f.getName()));
+            }
+        }
+        jnativeToAwt = new int[maxCode + 1];
+        Arrays.fill(jnativeToAwt, UNMAPPED);
+
+        // every key that has the same name in both libraries: letters, digits, F1-F24, modifiers, punctuation,
+        // navigation, locks, and so on
+        for (Field f : nativeFields) {
+            String name = f.getName().substring(3);
+            if (!name.equals("UNDEFINED")) {
+                map(name, name);
             }
         }
 
-        // Modifiers
-        jnativeToAwt.put(NativeKeyEvent.VC_SHIFT, KeyEvent.VK_SHIFT);
-        jnativeToAwt.put(NativeKeyEvent.VC_CONTROL, KeyEvent.VK_CONTROL);
-        jnativeToAwt.put(NativeKeyEvent.VC_ALT, KeyEvent.VK_ALT);
-        jnativeToAwt.put(NativeKeyEvent.VC_META, KeyEvent.VK_META);
+        // keys named differently in AWT
+        map("BACKSPACE", "BACK_SPACE");
+        map("BACKQUOTE", "BACK_QUOTE");
+        // the keypad decimal key
+        map("SEPARATOR", "DECIMAL");
+        map("SUN_HELP", "HELP");
+        map("SUN_STOP", "STOP");
+        map("SUN_PROPS", "PROPS");
+        map("SUN_FIND", "FIND");
+        map("SUN_AGAIN", "AGAIN");
+        map("SUN_UNDO", "UNDO");
+        map("SUN_COPY", "COPY");
+        map("SUN_CUT", "CUT");
+        // media, browser and application keys have no AWT key code and stay unmapped
+    }
 
-        // Common punctuation
-        jnativeToAwt.put(NativeKeyEvent.VC_SPACE, KeyEvent.VK_SPACE);
-        jnativeToAwt.put(NativeKeyEvent.VC_ENTER, KeyEvent.VK_ENTER);
-        jnativeToAwt.put(NativeKeyEvent.VC_TAB, KeyEvent.VK_TAB);
-        jnativeToAwt.put(NativeKeyEvent.VC_BACKSPACE, KeyEvent.VK_BACK_SPACE);
-        jnativeToAwt.put(NativeKeyEvent.VC_COMMA, KeyEvent.VK_COMMA);
-        jnativeToAwt.put(NativeKeyEvent.VC_PERIOD, KeyEvent.VK_PERIOD);
-        jnativeToAwt.put(NativeKeyEvent.VC_SLASH, KeyEvent.VK_SLASH);
-        jnativeToAwt.put(NativeKeyEvent.VC_SEMICOLON, KeyEvent.VK_SEMICOLON);
-        jnativeToAwt.put(NativeKeyEvent.VC_QUOTE, KeyEvent.VK_QUOTE);
-        jnativeToAwt.put(NativeKeyEvent.VC_OPEN_BRACKET, KeyEvent.VK_OPEN_BRACKET);
-        jnativeToAwt.put(NativeKeyEvent.VC_CLOSE_BRACKET, KeyEvent.VK_CLOSE_BRACKET);
-        jnativeToAwt.put(NativeKeyEvent.VC_BACK_SLASH, KeyEvent.VK_BACK_SLASH);
-        jnativeToAwt.put(NativeKeyEvent.VC_MINUS, KeyEvent.VK_MINUS);
-        jnativeToAwt.put(NativeKeyEvent.VC_EQUALS, KeyEvent.VK_EQUALS);
-        jnativeToAwt.put(NativeKeyEvent.VC_BACKQUOTE, KeyEvent.VK_BACK_QUOTE);
+    private static int nativeCode(String field) {
+        try {
+            return NativeKeyEvent.class.getField(field).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
+    }
 
-        // Navigation
-        jnativeToAwt.put(NativeKeyEvent.VC_UP, KeyEvent.VK_UP);
-        jnativeToAwt.put(NativeKeyEvent.VC_DOWN, KeyEvent.VK_DOWN);
-        jnativeToAwt.put(NativeKeyEvent.VC_LEFT, KeyEvent.VK_LEFT);
-        jnativeToAwt.put(NativeKeyEvent.VC_RIGHT, KeyEvent.VK_RIGHT);
-        jnativeToAwt.put(NativeKeyEvent.VC_HOME, KeyEvent.VK_HOME);
-        jnativeToAwt.put(NativeKeyEvent.VC_END, KeyEvent.VK_END);
-        jnativeToAwt.put(NativeKeyEvent.VC_PAGE_UP, KeyEvent.VK_PAGE_UP);
-        jnativeToAwt.put(NativeKeyEvent.VC_PAGE_DOWN, KeyEvent.VK_PAGE_DOWN);
-        jnativeToAwt.put(NativeKeyEvent.VC_INSERT, KeyEvent.VK_INSERT);
-        jnativeToAwt.put(NativeKeyEvent.VC_DELETE, KeyEvent.VK_DELETE);
-        jnativeToAwt.put(NativeKeyEvent.VC_ESCAPE, KeyEvent.VK_ESCAPE);
+    // maps VC_<nativeName> to VK_<awtName> if both exist
+    private static void map(String nativeName, String awtName) {
+        int jn = nativeCode("VC_" + nativeName);
+        try {
+            jnativeToAwt[jn] = KeyEvent.class.getField("VK_" + awtName).getInt(null);
+        } catch (ReflectiveOperationException | ArrayIndexOutOfBoundsException ignored) {
+        }
     }
 
+    /**
+     * Returns the AWT key code for a JNativeHook key code.
+     * @param nativeCode a JNativeHook {@code VC_*} code
+     * @return the AWT {@code VK_*} code, or {@link #UNMAPPED} if AWT has no such key
+     */
+    public static int toAwt(int nativeCode) {
+        return nativeCode >= 0 && nativeCode < jnativeToAwt.length ? jnativeToAwt[nativeCode] : UNMAPPED;
+    }
 
     /**
      * Translates recorded JNativeHook key events into AWT-compatible key events.
-     * This method creates a mapping between {@link NativeKeyEvent} key codes and
-     * {@link KeyEvent} constants, then converts each loaded event into an
-     * {@link AWTReplayEvent}. Unsupported or unmapped keys are logged to the console.
+     * Each {@link NativeKeyEvent} key code is looked up in the mapping to {@link KeyEvent} constants
+     * and the result is a timeline with the same timestamps and opcodes but AWT codes.
+     * Unsupported or unmapped keys are logged and skipped.
+     * @param loadedJNativeHookEvents key events as loaded by {@link Loader}
+     * @return the translated timeline
      */
-    private void JNativeToAWT(LinkedHashMap<Long, String> loadedJNativeHookEvents) {
-        for (Long key : loadedJNativeHookEvents.keySet()) {
-            String[] parts = loadedJNativeHookEvents.get(key).split("_");
-            try {
-                int code = Integer.parseInt(parts[1]);
-                Integer awtCode = jnativeToAwt.get(code);
-                if (awtCode == null) {
-                    logger.warn("Unmapped key code encountered: {}", code);
-                    continue; // skip unknown keys
-                }
-
-                AWTReplayEvent event = new AWTReplayEvent(parts[0], awtCode);
-                awtEvents.put(key, event);
-            } catch (Exception e) {
-                logger.error("Failed to translate key: {}", parts.length > 1 ? parts[1] : "<unknown>", e);
+    static EventTimeline JNativeToAWT(EventTimeline loadedJNativeHookEvents) {
+        EventTimeline.Builder translated = new EventTimeline.Builder();
+        FlightEvents.Translation event = new FlightEvents.Translation();
+        event.begin();
+        for (int i = 0; i < loadedJNativeHookEvents.size(); i++) {
+            int code = loadedJNativeHookEvents.code(i);
+            int awtCode = toAwt(code);
+            if (awtCode == UNMAPPED) {
+                logger.warn("Unmapped key code encountered: {}", code);
+                continue; // skip unknown keys
             }
+            translated.add(loadedJNativeHookEvents.time(i), loadedJNativeHookEvents.sequence(i), loadedJNativeHookEvents.opcode(i), awtCode, 0, 0);
         }
+        EventTimeline result = translated.build();
+        event.kind = "key";
+        event.rawEvents = loadedJNativeHookEvents.size();
+        event.translatedEvents = result.size();
+        event.commit();
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package edu.temple.UMB;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size histogram of nanosecond durations with bounded relative error, in the style of HdrHistogram.
+ * Values are grouped by their power of two and each power of two is split into {@value #SUB_BUCKETS} linear
+ * sub-buckets, so any recorded value is reported within roughly 1.6% of its true value while the whole
+ * histogram is a single preallocated {@code long[]}. Recording never allocates.
+ * Not thread-safe: each recording thread should own its histogram, and histograms can be combined with {@link #add}.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below SUB_BUCKETS get exact buckets, every power of two above that gets SUB_BUCKETS / 2 new buckets
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * (SUB_BUCKETS / 2);
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records one value. Negative values are recorded as {@code 0}.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long v = Math.max(0L, nanos);
+        counts[indexOf(v)]++;
+        count++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Adds all values recorded in {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the largest recorded value, or {@code 0} if empty.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the smallest recorded value, or {@code 0} if empty.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or {@code 0} if empty.
+     */
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     * @param percentile between {@code 0} and {@code 100}
+     * @return the (bucket-rounded) value, never more than {@link #getMax()}
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueIn(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns a one line summary in microseconds, e.g. for the end of a replay.
+     */
+    public String summary() {
+        return String.format("n=%d mean=%dus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                count, micros(getMean()), micros(getPercentile(50)), micros(getPercentile(90)),
+                micros(getPercentile(99)), micros(getPercentile(99.9)), micros(max));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    static int indexOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        // v has (magnitude + SUB_BUCKET_BITS) significant bits; keep the top SUB_BUCKET_BITS of them
+        int magnitude = 64 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        int sub = (int) (v >>> magnitude);
+        return SUB_BUCKETS + (magnitude - 1) * (SUB_BUCKETS / 2) + (sub - SUB_BUCKETS / 2);
+    }
+
+    static long highestValueIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+        long sub = (index - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        return ((sub + 1) << magnitude) - 1;
+    }
+}
@@ -2,12 +2,15 @@ package edu.temple.UMB;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Loads recorded JNativeHook key events from a text file into an ordered map.
+ * Loads recorded JNativeHook key events from a macro file into an {@link EventTimeline}.
+ * Binary macros are detected by their magic bytes and decoded with {@link MappedLoader}; anything else is parsed as text.
  */
 public class Loader {
     private static final Logger logger = LogManager.getLogger(Loader.class);
@@ -22,14 +25,61 @@ public class Loader {
     }
 
     /**
-     * Parses the input file into a {@link LinkedHashMap} of timestamps to event strings.
-     * The returned value maps {@code <timestamp>} to {@code <ACTION>_<KEYCODE>} as read from the file.
+     * Parses the input file into an {@link EventTimeline} of key events.
+     * Codes in the returned timeline are JNativeHook key codes.
      * This method assumes basic file correctness; callers should validate existence and permissions in {@link Main#argChecks(String[])}.
-     * @return ordered map of timestamps to event tokens
-     * @throws FileNotFoundException if the input file cannot be opened
+     * @return ordered key events
+     * @throws IOException if the input file cannot be opened or read
      */
-    public LinkedHashMap<Long, String> loadJNativeEventsFromFile() throws FileNotFoundException {
-        LinkedHashMap<Long, String> map = new LinkedHashMap<>();
+    public EventTimeline loadJNativeEventsFromFile() throws IOException {
+        EventTimeline.Builder keys = new EventTimeline.Builder();
+        if (MacroFormat.isBinary(inFile)) {
+            new MappedLoader(inFile).load(new MappedLoader.Visitor() {
+                @Override
+                public void key(long time, int opcode, int keyCode) {
+                    keys.key(time, opcode, keyCode);
+                }
+
+                @Override
+                public void mouse(long time, int opcode, int x, int y, int button) {}
+            });
+        } else {
+            loadTextEvents(keys);
+        }
+        releaseDanglingKeys(keys);
+        return keys.build();
+    }
+
+    /**
+     * Appends manual releases for keys that were pressed but never released, 50ms apart after the last event.
+     * @param keys key events loaded so far, modified in place
+     */
+    static void releaseDanglingKeys(EventTimeline.Builder keys) {
+        Set<Integer> pressed = new LinkedHashSet<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.opcode(i) == MacroFormat.KEY_PRESSED) {
+                pressed.add(keys.code(i));
+            } else if (keys.opcode(i) == MacroFormat.KEY_RELEASED) {
+                pressed.remove(keys.code(i));
+            }
+        }
+
+        if (!pressed.isEmpty()) {
+            System.out.println("Warning: Some keys were pressed but not released. Adding manual releases for these keys after last event.");
+            logger.warn("Some keys were pressed but not released. Adding manual releases for these keys after last event.");
+            long manualReleaseTime = keys.maxTime();
+
+            for (Integer key : pressed) {
+                long manualReleaseNewTime = manualReleaseTime + TimeUnit.MILLISECONDS.toMicros(50);
+                keys.key(manualReleaseNewTime, MacroFormat.KEY_RELEASED, key);
+                manualReleaseTime = manualReleaseNewTime;
+                logger.warn("Added manual release for key code {} at timestamp {}", key, manualReleaseNewTime);
+            }
+        }
+    }
+
+    private void loadTextEvents(EventTimeline.Builder keys) throws FileNotFoundException {
         logger.debug("Loading JNativeHook key events from file: {}", inFile.getAbsolutePath());
         int lineCount = 0;
         // Ensure the Scanner is always closed to release the file handle on Windows
@@ -44,41 +94,16 @@ public class Loader {
                     // finished keyEvents. our job here is done
                     break;
                 }
-                // parse line and add to map
+                // parse line and add to timeline
                 String[] parts = line.split(" ");
-                map.put(Long.parseLong(parts[0]), parts[1] + "_" + parts[2]);
-            }
-        }
-        logger.info("Loaded {} events from file {} ({} lines read)", map.size(), inFile.getAbsolutePath(), lineCount);
-        
-
-        HashMap<String, Long> pressed = new HashMap<>();
-
-        for (Map.Entry<Long, String> entry : map.entrySet()) {
-            String[] parts = entry.getValue().split("_");
-            String type = parts[0];
-            String keyCode = parts[1];
-
-            if (type.equals("PRESSED")) {
-                pressed.put(keyCode, entry.getKey());
-            } else if (type.equals("RELEASED")) {
-                pressed.remove(keyCode);
-            }
-        }
-
-        if (!pressed.isEmpty()) {
-            System.out.println("Warning: Some keys were pressed but not released. Adding manual releases for these keys after last event.");
-            logger.warn("Some keys were pressed but not released. Adding manual releases for these keys after last event.");
-            long manualReleaseTime = map.keySet().stream().max(Long::compare).get();
-
-            for (String key : pressed.keySet()) {
-                long manualReleaseNewTime = manualReleaseTime + 50;
-                map.put(manualReleaseNewTime, "RELEASED_" + key);
-                manualReleaseTime = manualReleaseNewTime;
-                logger.warn("Added manual release for key code {} at timestamp {}", key, manualReleaseNewTime);
+                int opcode = MacroFormat.opcodeOf(parts[1]);
+                if (!MacroFormat.isKeyOpcode(opcode)) {
+                    logger.warn("Skipping unknown key event on line {}: {}", lineCount, line);
+                    continue;
+                }
+                keys.key(MacroFormat.parseMillis(parts[0]), opcode, Integer.parseInt(parts[2]));
             }
         }
-        return map;
+        logger.info("Loaded {} events from file {} ({} lines read)", keys.size(), inFile.getAbsolutePath(), lineCount);
     }
-
 }
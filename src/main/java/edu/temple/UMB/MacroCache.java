@@ -0,0 +1,257 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of loaded macros, so replaying the same macro again in a long-lived process skips reading and parsing it.
+ * Entries are keyed by the canonical path and validated against the file's modification time, size and file key
+ * on every lookup, so an edited or replaced macro is reloaded. The cache is bounded by an estimated memory budget
+ * and evicts the least recently used macros first; a macro larger than the whole budget is loaded but not kept.
+ * Cached timelines are immutable and can be shared between replayers.
+ */
+public class MacroCache {
+    private static final Logger logger = LogManager.getLogger(MacroCache.class);
+    /**
+     * Budget of the shared cache unless changed with {@link #setBudgetBytes(long)}.
+     */
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    // time, sequence, opcode, code, x and y of one event
+    private static final long BYTES_PER_EVENT = 8 + 5 * 4;
+    private static final long BYTES_PER_ENTRY = 256;
+    private static final MacroCache SHARED = new MacroCache(DEFAULT_BUDGET_BYTES);
+
+    /**
+     * Key and mouse events of one macro, as loaded from disk. Events are translated to AWT codes
+     * if they came from a {@link CompiledMacro}, and raw JNativeHook events otherwise.
+     */
+    public static class Macro {
+        private final EventTimeline keys;
+        private final EventTimeline mice;
+        private final boolean translated;
+
+        Macro(EventTimeline keys, EventTimeline mice, boolean translated) {
+            this.keys = keys;
+            this.mice = mice;
+            this.translated = translated;
+        }
+
+        /** Returns the key events, including manual releases for keys that were never released. */
+        public EventTimeline getKeys() { return keys; }
+
+        /** Returns the mouse events. */
+        public EventTimeline getMice() { return mice; }
+
+        /** Returns whether the codes are already AWT key codes and button masks. */
+        public boolean isTranslated() { return translated; }
+
+        /** Returns roughly how many bytes of heap the loaded events take. */
+        public long estimatedBytes() {
+            return BYTES_PER_ENTRY + (keys.size() + (long) mice.size()) * BYTES_PER_EVENT;
+        }
+    }
+
+    /**
+     * Identifies one version of a file by its modification time, size and file key (e.g. device and inode),
+     * so a macro that was replaced is told apart even if its size and timestamp did not change.
+     * Also written into {@link CompiledMacro} sidecars, which is why the file key is kept as a string.
+     */
+    static final class Stamp {
+        final long modifiedNanos;
+        final long size;
+        final String fileKey;
+
+        Stamp(long modifiedNanos, long size, String fileKey) {
+            this.modifiedNanos = modifiedNanos;
+            this.size = size;
+            this.fileKey = fileKey;
+        }
+
+        static Stamp of(BasicFileAttributes attrs) {
+            return new Stamp(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.size(), String.valueOf(attrs.fileKey()));
+        }
+
+        static Stamp of(Path path) throws IOException {
+            return of(Files.readAttributes(path, BasicFileAttributes.class));
+        }
+
+        boolean matches(Stamp other) {
+            return modifiedNanos == other.modifiedNanos && size == other.size && fileKey.equals(other.fileKey);
+        }
+    }
+
+    private static class Entry {
+        final Stamp stamp;
+        final Macro macro;
+
+        Entry(Stamp stamp, Macro macro) {
+            this.stamp = stamp;
+            this.macro = macro;
+        }
+    }
+
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     * @param budgetBytes estimated memory the cached macros may use; {@code 0} disables caching
+     */
+    public MacroCache(long budgetBytes) {
+        this.budgetBytes = Math.max(0L, budgetBytes);
+    }
+
+    /**
+     * Returns the cache shared by all replayers of this process.
+     */
+    public static MacroCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the macro at {@code file}, from the cache if the file did not change since it was cached.
+     * @param file a text or binary macro
+     * @return the loaded macro
+     * @throws IOException if the file cannot be read
+     */
+    public Macro get(File file) throws IOException {
+        Path path = file.toPath().toRealPath();
+        String key = path.toString();
+        Stamp stamp = Stamp.of(path);
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.stamp.matches(stamp)) {
+                hits++;
+                logger.debug("Macro cache hit for {}", key);
+                return e.macro;
+            }
+            misses++;
+        }
+        // loading happens outside the lock; two threads missing on the same file both load it, which is harmless
+        Macro macro = loadCompiledOrRaw(path.toFile());
+        put(key, new Entry(stamp, macro));
+        return macro;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            usedBytes -= old.macro.estimatedBytes();
+        }
+        long bytes = entry.macro.estimatedBytes();
+        if (bytes > budgetBytes) {
+            logger.info("Not caching {}, its estimated {} bytes exceed the budget", key, bytes);
+            return;
+        }
+        entries.put(key, entry);
+        usedBytes += bytes;
+        evictToBudget();
+    }
+
+    private void evictToBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            usedBytes -= eldest.getValue().macro.estimatedBytes();
+            it.remove();
+            evictions++;
+            logger.debug("Evicted {} from the macro cache", eldest.getKey());
+        }
+    }
+
+    /**
+     * Changes the memory budget, evicting least recently used macros if the cache is now over it.
+     * @param budgetBytes estimated memory the cached macros may use; {@code 0} disables caching
+     */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = Math.max(0L, budgetBytes);
+        evictToBudget();
+    }
+
+    /**
+     * Removes every cached macro. Statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /** Returns the number of cached macros. */
+    public synchronized int size() { return entries.size(); }
+
+    /** Returns the estimated memory used by the cached macros in bytes. */
+    public synchronized long getUsedBytes() { return usedBytes; }
+
+    /** Returns how many lookups were served from the cache. */
+    public synchronized long getHits() { return hits; }
+
+    /** Returns how many lookups had to load the file. */
+    public synchronized long getMisses() { return misses; }
+
+    /** Returns how many macros were evicted to stay within the budget. */
+    public synchronized long getEvictions() { return evictions; }
+
+    /**
+     * Loads a macro from its up-to-date {@link CompiledMacro} sidecar if there is one, and from the macro itself otherwise.
+     * @param file a text or binary macro
+     * @return the loaded macro
+     * @throws IOException if the file cannot be read
+     */
+    static Macro loadCompiledOrRaw(File file) throws IOException {
+        Macro compiled = CompiledMacro.loadIfFresh(file);
+        return compiled != null ? compiled : load(file);
+    }
+
+    /**
+     * Loads both key and mouse events of a macro in one pass over the mapped file, bypassing any cache and sidecar.
+     * Events keep their file order across the two timelines through shared sequence numbers.
+     * @param file a text or binary macro
+     * @return the loaded macro
+     * @throws IOException if the file cannot be read
+     */
+    public static Macro load(File file) throws IOException {
+        FlightEvents.MacroLoad event = new FlightEvents.MacroLoad();
+        event.begin();
+        EventTimeline.Builder keys = new EventTimeline.Builder();
+        EventTimeline.Builder mice = new EventTimeline.Builder();
+        new MappedLoader(file).load(new MappedLoader.Visitor() {
+            int sequence = 0;
+
+            @Override
+            public void key(long time, int opcode, int keyCode) {
+                keys.add(time, sequence++, opcode, keyCode, 0, 0);
+            }
+
+            @Override
+            public void mouse(long time, int opcode, int x, int y, int button) {
+                mice.add(time, sequence++, opcode, button, x, y);
+            }
+        });
+        Loader.releaseDanglingKeys(keys);
+        Macro macro = new Macro(keys.build(), mice.build(), false);
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.phase = "parse";
+            event.fileSize = file.length();
+            event.keyEvents = macro.getKeys().size();
+            event.mouseEvents = macro.getMice().size();
+            event.commit();
+        }
+        return macro;
+    }
+}
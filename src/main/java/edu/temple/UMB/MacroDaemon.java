@@ -0,0 +1,399 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resident process that replays and records macros on request, so a trigger does not pay for JVM startup,
+ * logging setup, {@code Robot} creation or parsing. Macros are preloaded into the {@link MacroCache} and
+ * replayed through one long-lived {@link InputSink}. Every preloaded macro also keeps a warmed {@link Replayer}
+ * with its scheduler threads already running, which single replays reuse the way {@link HotkeyTrigger} does.
+ * <p>
+ * Clients connect to a Unix domain socket and send one command per line; every command gets a single line reply
+ * starting with {@code OK} or {@code ERROR}:
+ * <ul>
+ *     <li>{@code replay <macro> [count]} replays a macro from the macros folder and replies once it finished</li>
+ *     <li>{@code preload <macro>} loads a macro into the cache and warms a replayer for it</li>
+ *     <li>{@code record <macro>} records a new macro until the stop key is pressed or a {@code stop} command,
+ *     replacing the macro only once the recording was saved</li>
+ *     <li>{@code stop} stops the replay or recording that is currently running</li>
+ *     <li>{@code status} reports counters and the trigger latency histogram</li>
+ *     <li>{@code shutdown} stops the daemon</li>
+ * </ul>
+ * Only one macro replays, records or warms up at a time; other replay, preload and record commands wait for it.
+ * The trigger latency is the time from reading a {@code replay} command to the reference point its events are scheduled from.
+ */
+public class MacroDaemon {
+    private static final Logger logger = LogManager.getLogger(MacroDaemon.class);
+
+    private final Path socketPath;
+    private final File macroDir;
+    private final InputSink sink;
+    private boolean merged = false;
+    private ReplayTiming timing = ReplayTiming.REALTIME;
+    private long spinMicros = 0L;
+    private ReplayScheduler.CatchUp catchUp = ReplayScheduler.CatchUp.ALL;
+    private String stopKey = "ESCAPE";
+
+    // serializes replays and recordings, the screen only has one mouse
+    private final ReentrantLock busy = new ReentrantLock();
+    private volatile Replayer current;
+    private volatile Recorder recording;
+    // one replayer per macro path, only touched while holding busy
+    private final Map<String, Warm> warmed = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private ServerSocketChannel server;
+
+    private final LatencyHistogram triggerLatency = new LatencyHistogram();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private static class Warm {
+        final MacroCache.Stamp stamp;
+        final Replayer replayer;
+
+        Warm(MacroCache.Stamp stamp, Replayer replayer) {
+            this.stamp = stamp;
+            this.replayer = replayer;
+        }
+    }
+
+    /**
+     * Creates a daemon; nothing is opened until {@link #serve()}.
+     * @param socketPath path of the Unix domain socket to listen on; a stale socket file is replaced
+     * @param macroDir folder macro names in commands are resolved against
+     * @param sink receives the input of every replay
+     */
+    public MacroDaemon(Path socketPath, File macroDir, InputSink sink) {
+        this.socketPath = socketPath;
+        this.macroDir = macroDir;
+        this.sink = sink;
+    }
+
+    /** Sets whether macros replay as one merged timeline, see {@link MergedReplayer}. */
+    public void setMerged(boolean merged) { this.merged = merged; }
+
+    /** Sets the speed factor and idle-gap cap of every replay. */
+    public void setTiming(ReplayTiming timing) { this.timing = timing; }
+
+    /** Sets the spin window of every replay, see {@link Replayer#setSpinMicros(long)}. */
+    public void setSpinMicros(long spinMicros) { this.spinMicros = spinMicros; }
+
+    /** Sets the catch-up policy of every replay, see {@link Replayer#setCatchUp(ReplayScheduler.CatchUp)}. */
+    public void setCatchUp(ReplayScheduler.CatchUp catchUp) { this.catchUp = catchUp; }
+
+    /** Sets the key that ends a {@code record} command. */
+    public void setStopKey(String stopKey) { this.stopKey = stopKey; }
+
+    /**
+     * Loads every macro in the macros folder into the cache and warms a replayer for it. Files that fail to load are skipped.
+     * @return the number of macros loaded
+     */
+    public int preloadAll() {
+        File[] files = macroDir.listFiles(f -> f.isFile() && !CompiledMacro.isSidecar(f));
+        int loaded = 0;
+        if (files == null) {
+            return 0;
+        }
+        for (File f : files) {
+            busy.lock();
+            try {
+                warm(f);
+                loaded++;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not preload {}", f.getAbsolutePath(), e);
+            } finally {
+                busy.unlock();
+            }
+        }
+        logger.info("Preloaded {} macros", loaded);
+        return loaded;
+    }
+
+    /**
+     * Binds the socket, so clients can connect from now on. Called by {@link #serve()} if needed.
+     * @throws IOException if the socket cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        if (server != null) {
+            return;
+        }
+        Files.deleteIfExists(socketPath);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        logger.info("Daemon listening on {}", socketPath.toAbsolutePath());
+    }
+
+    /**
+     * Listens on the socket and serves clients until a {@code shutdown} command or {@link #close()}.
+     * Each client is served on its own thread.
+     * @throws IOException if the socket cannot be opened
+     */
+    public void serve() throws IOException {
+        open();
+        try {
+            while (running) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                Thread t = new Thread(() -> serveClient(client), "daemon-client");
+                t.setDaemon(true);
+                t.start();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Stops accepting clients, stops a running replay, ends the threads of every warmed replayer and removes the socket file.
+     */
+    public void close() {
+        running = false;
+        Replayer r = current;
+        if (r != null) {
+            r.stop();
+        }
+        warmed.values().removeIf(w -> {
+            w.replayer.close();
+            return true;
+        });
+        try {
+            if (server != null) {
+                server.close();
+            }
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            logger.warn("Failed to close daemon socket {}", socketPath, e);
+        }
+    }
+
+    private void serveClient(SocketChannel client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(Channels.newOutputStream(client), true, StandardCharsets.UTF_8)) {
+            String line;
+            while (running && (line = in.readLine()) != null) {
+                long receivedNano = System.nanoTime();
+                if (line.isBlank()) {
+                    continue;
+                }
+                out.println(handle(line.trim(), receivedNano));
+            }
+        } catch (IOException e) {
+            logger.debug("Daemon client disconnected", e);
+        }
+    }
+
+    /**
+     * Executes one command and returns its reply line.
+     * @param command the command line without its line terminator
+     * @param receivedNano when the command was read, from {@link System#nanoTime()}
+     * @return the reply, starting with {@code OK} or {@code ERROR}
+     */
+    String handle(String command, long receivedNano) {
+        String[] parts = command.split("\\s+");
+        logger.info("Daemon command: {}", command);
+        try {
+            return switch (parts[0]) {
+                case "replay" -> {
+                    if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[2].matches("[1-9]\\d*"))) {
+                        yield "ERROR usage: replay <macro> [count]";
+                    }
+                    yield replay(resolve(parts[1]), parts.length == 3 ? Integer.parseInt(parts[2]) : 1, receivedNano);
+                }
+                case "preload" -> {
+                    if (parts.length != 2) {
+                        yield "ERROR usage: preload <macro>";
+                    }
+                    yield preload(resolve(parts[1]));
+                }
+                case "record" -> {
+                    if (parts.length != 2) {
+                        yield "ERROR usage: record <macro>";
+                    }
+                    yield record(resolve(parts[1]));
+                }
+                case "stop" -> {
+                    Recorder rec = recording;
+                    if (rec != null) {
+                        rec.stop();
+                        yield "OK stopped recording";
+                    }
+                    Replayer r = current;
+                    if (r == null) {
+                        yield "OK nothing to stop";
+                    }
+                    // a stopped replayer cannot replay again, replay() drops it from the warmed ones
+                    r.stop();
+                    yield "OK stopped";
+                }
+                case "status" -> status();
+                case "shutdown" -> {
+                    close();
+                    yield "OK shutting down";
+                }
+                default -> "ERROR unknown command: " + parts[0];
+            };
+        } catch (IOException | IllegalArgumentException e) {
+            failures.incrementAndGet();
+            logger.warn("Daemon command failed: {}", command, e);
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    private String replay(File macro, int count, long receivedNano) throws IOException {
+        if (!macro.isFile()) {
+            throw new IOException("macro not found: " + macro.getName());
+        }
+        busy.lock();
+        Replayer replayer = null;
+        boolean oneOff = count != 1;
+        try {
+            // warmed replayers replay once, other counts get a replayer of their own that is closed afterwards
+            replayer = oneOff ? newReplayer(macro, count) : warm(macro);
+            current = replayer;
+            replayer.replay();
+            long latency = replayer.getReplayStartNano() - receivedNano;
+            synchronized (triggerLatency) {
+                triggerLatency.record(latency);
+            }
+            replays.incrementAndGet();
+            return "OK replayed " + macro.getName() + " (" + replayer.getEventCount() + " events, started "
+                    + TimeUnit.NANOSECONDS.toMicros(latency) + " us after the command)";
+        } finally {
+            current = null;
+            if (replayer != null && (oneOff || replayer.isStopped())) {
+                Replayer done = replayer;
+                warmed.values().removeIf(w -> w.replayer == done);
+                done.close();
+            }
+            busy.unlock();
+        }
+    }
+
+    private String preload(File macro) throws IOException {
+        busy.lock();
+        try {
+            Replayer replayer = warm(macro);
+            return "OK loaded " + replayer.getEventCount() + " events";
+        } finally {
+            busy.unlock();
+        }
+    }
+
+    // returns the warmed replayer of a macro, replacing it if the file changed since; callers hold busy
+    private Replayer warm(File macro) throws IOException {
+        String key = key(macro);
+        MacroCache.Stamp stamp = MacroCache.Stamp.of(macro.toPath());
+        Warm w = warmed.get(key);
+        if (w != null && w.stamp.matches(stamp) && !w.replayer.isStopped()) {
+            return w.replayer;
+        }
+        if (w != null) {
+            warmed.remove(key);
+            w.replayer.close();
+        }
+        Replayer replayer = newReplayer(macro, 1);
+        warmed.put(key, new Warm(stamp, replayer));
+        return replayer;
+    }
+
+    private Replayer newReplayer(File macro, int count) {
+        Replayer replayer = new Replayer(macro.getAbsolutePath(), count, merged, sink, timing);
+        replayer.setSpinMicros(spinMicros);
+        replayer.setCatchUp(catchUp);
+        return replayer;
+    }
+
+    private static String key(File macro) {
+        return macro.getAbsolutePath();
+    }
+
+    private String record(File macro) {
+        busy.lock();
+        Path tmp = null;
+        try {
+            // record next to the macro and only replace it once the recording was saved
+            Path target = macro.getAbsoluteFile().toPath();
+            tmp = Files.createTempFile(target.getParent(), macro.getName(), ".tmp");
+            Recorder recorder = new Recorder(tmp.toFile(), stopKey);
+            recorder.setEchoMode(ConsoleEcho.Mode.OFF);
+            recording = recorder;
+            boolean saved = recorder.start();
+            if (!saved) {
+                failures.incrementAndGet();
+                return "ERROR could not record " + macro.getName();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return "OK saved " + macro.getName();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not replace " + macro.getName(), e);
+        } finally {
+            recording = null;
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}", tmp, e);
+            }
+            busy.unlock();
+        }
+    }
+
+    private String status() {
+        MacroCache cache = MacroCache.shared();
+        String latency;
+        synchronized (triggerLatency) {
+            latency = triggerLatency.summary();
+        }
+        return "OK replays=" + replays.get() + " failures=" + failures.get() + " busy=" + busy.isLocked()
+                + " cached=" + cache.size() + " cacheHits=" + cache.getHits() + " cacheMisses=" + cache.getMisses()
+                + " trigger " + latency;
+    }
+
+    /**
+     * Returns the trigger latency of every replay so far.
+     */
+    public LatencyHistogram getTriggerLatency() {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (triggerLatency) {
+            copy.add(triggerLatency);
+        }
+        return copy;
+    }
+
+    // macro names are looked up in the macros folder and may not point outside of it
+    private File resolve(String name) throws IOException {
+        File file = new File(macroDir, name);
+        if (!file.getCanonicalFile().toPath().startsWith(macroDir.getCanonicalFile().toPath())) {
+            throw new IllegalArgumentException("macro must be inside " + macroDir.getName() + ": " + name);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package edu.temple.UMB;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Constants and helpers shared by the macro file formats.
+ * A macro is either the original text format ({@code START KEY EVENTS} ... {@code EOF}) or the compact binary format.
+ * The binary format starts with the magic bytes {@code UMBB} and a version byte, followed by one record per event:
+ * an opcode byte, the zigzag varint encoded difference to the previous record's timestamp, and a fixed-width payload
+ * (an unsigned 16 bit key code for key opcodes, or signed 16 bit x, signed 16 bit y and an unsigned 8 bit button for mouse opcodes).
+ * The stream ends with an {@link #END} opcode.
+ * <p>
+ * Timestamps are microseconds since recording started. The text format writes them as decimal milliseconds
+ * ({@code 756.125}); whole milliseconds are written without a fraction, so older integer-millisecond text macros
+ * read back unchanged. Binary version 2 stores microsecond deltas, version 1 (milliseconds) is still read.
+ */
+public final class MacroFormat {
+    /**
+     * Magic bytes at the start of every binary macro.
+     */
+    static final byte[] MAGIC = {'U', 'M', 'B', 'B'};
+    /**
+     * Current binary format version written by {@link BinaryWriter}.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Last binary format version that stored millisecond instead of microsecond deltas.
+     */
+    public static final int VERSION_MILLIS = 1;
+
+    // opcodes. these are written to disk so never renumber them
+    public static final int END = 0;
+    public static final int KEY_PRESSED = 1;
+    public static final int KEY_RELEASED = 2;
+    public static final int MOUSE_PRESSED = 3;
+    public static final int MOUSE_RELEASED = 4;
+    public static final int MOUSE_MOVED = 5;
+    public static final int MOUSE_DRAGGED = 6;
+
+    private MacroFormat() {}
+
+    /**
+     * Maps an event context string as used by {@link KeyEvent} and {@link MouseEvent} to its opcode.
+     * @param context {@code PRESSED}, {@code RELEASED} or one of the {@code MOUSE_*} contexts
+     * @return the opcode, or {@code -1} if the context is unknown
+     */
+    public static int opcodeOf(String context) {
+        return switch (context) {
+            case "PRESSED" -> KEY_PRESSED;
+            case "RELEASED" -> KEY_RELEASED;
+            case "MOUSE_PRESSED" -> MOUSE_PRESSED;
+            case "MOUSE_RELEASED" -> MOUSE_RELEASED;
+            case "MOUSE_MOVED" -> MOUSE_MOVED;
+            case "MOUSE_DRAGGED" -> MOUSE_DRAGGED;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Maps an opcode back to the context string used in the text format.
+     * @param opcode one of the opcode constants
+     * @return the context string
+     * @throws IllegalArgumentException if the opcode is unknown
+     */
+    public static String contextOf(int opcode) {
+        return switch (opcode) {
+            case KEY_PRESSED -> "PRESSED";
+            case KEY_RELEASED -> "RELEASED";
+            case MOUSE_PRESSED -> "MOUSE_PRESSED";
+            case MOUSE_RELEASED -> "MOUSE_RELEASED";
+            case MOUSE_MOVED -> "MOUSE_MOVED";
+            case MOUSE_DRAGGED -> "MOUSE_DRAGGED";
+            default -> throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        };
+    }
+
+    /**
+     * Formats a microsecond timestamp as decimal milliseconds for the text format, e.g. {@code 756.125} or {@code 756}.
+     * @param micros timestamp in microseconds
+     * @return milliseconds, with a three digit fraction only when it is not zero
+     */
+    public static String formatMillis(long micros) {
+        long abs = Math.abs(micros);
+        String sign = micros < 0 ? "-" : "";
+        long fraction = abs % 1000;
+        if (fraction == 0) {
+            return sign + abs / 1000;
+        }
+        return sign + abs / 1000 + "." + (fraction < 10 ? "00" : fraction < 100 ? "0" : "") + fraction;
+    }
+
+    /**
+     * Parses decimal milliseconds as written by {@link #formatMillis(long)}. Digits past the third decimal are ignored.
+     * @param text e.g. {@code 756}, {@code 756.125} or {@code -3.5}
+     * @return the timestamp in microseconds
+     * @throws NumberFormatException if the text is not a decimal number
+     */
+    public static long parseMillis(String text) {
+        int dot = text.indexOf('.');
+        if (dot < 0) {
+            return Long.parseLong(text) * 1000;
+        }
+        String whole = text.substring(0, dot);
+        String fraction = text.substring(dot + 1);
+        if (fraction.isEmpty() || !fraction.chars().allMatch(Character::isDigit)) {
+            throw new NumberFormatException("Invalid milliseconds: " + text);
+        }
+        fraction = (fraction + "00").substring(0, 3);
+        boolean negative = whole.startsWith("-");
+        long micros = Math.abs(whole.equals("-") || whole.isEmpty() ? 0 : Long.parseLong(whole)) * 1000 + Integer.parseInt(fraction);
+        return negative ? -micros : micros;
+    }
+
+    /**
+     * Returns whether the opcode describes a key event.
+     */
+    public static boolean isKeyOpcode(int opcode) {
+        return opcode == KEY_PRESSED || opcode == KEY_RELEASED;
+    }
+
+    /**
+     * Returns whether the opcode describes a mouse event.
+     */
+    public static boolean isMouseOpcode(int opcode) {
+        return opcode >= MOUSE_PRESSED && opcode <= MOUSE_DRAGGED;
+    }
+
+    /**
+     * Detects whether the given file is a binary macro by checking its magic bytes.
+     * Text macros (and empty files) return {@code false}.
+     * @param file the macro file
+     * @return {@code true} if the file starts with {@link #MAGIC}
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinary(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+    }
+}
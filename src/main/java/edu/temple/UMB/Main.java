@@ -5,8 +5,14 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -26,6 +32,26 @@ public class Main {
 
     public static String stopKey = "ESCAPE";
     public static boolean listMacrosFlag = false;
+    public static boolean binaryFlag = false;
+    public static boolean streamFlag = false;
+    public static ConsoleEcho.Mode echoMode = ConsoleEcho.Mode.FULL;
+    public static boolean mergedFlag = false;
+    public static long spinMicros = 0L;
+    public static ReplayScheduler.CatchUp catchUp = ReplayScheduler.CatchUp.ALL;
+    public static double simplifyPixels = 0;
+    public static double replaySpeed = 1.0;
+    public static long maxGapMillis = -1L;
+    // -1 keeps MacroCache.DEFAULT_BUDGET_BYTES
+    public static long cacheMegabytes = -1L;
+    public static String compact_file_str = null;
+    public static String batch_str = null;
+    public static boolean dryRunFlag = false;
+    public static String daemon_socket_str = null;
+    public static String hotkeys_file_str = null;
+    public static String compile_file_str = null;
+    private static final String DEFAULT_SOCKET_NAME = "umb.sock";
+    // used by -compact when no -simplify tolerance is given
+    private static final double DEFAULT_COMPACT_PIXELS = 1.0;
     private static final String MACRO_FOLDER_NAME = "macros";
     public static Integer repeatCount = null;
     private static final Scanner SC = new Scanner(System.in);
@@ -35,6 +61,7 @@ public class Main {
      */
     public static void main(String[] args) throws Exception {
         logger.info("Starting UMB.");
+        UMBMetrics.register();
         //check if macro dir exists
         File macroDir = new File(MACRO_FOLDER_NAME);
         if (!macroDir.exists()){
@@ -57,6 +84,22 @@ public class Main {
                 "(-output <out_path> | -input <in_path>) " +
                 "[-stopkey <stopkey>] " +
                 "[-repeat [count]] " +
+                "[-binary] " +
+                "[-stream] " +
+                "[-echo full|summary|off] " +
+                "[-merged] " +
+                "[-spin <micros>] " +
+                "[-catchup all|coalesce] " +
+                "[-speed <factor>|max] " +
+                "[-maxgap <millis>] " +
+                "[-cachemb <megabytes>] " +
+                "[-batch <dir|glob>] " +
+                "[-dryrun] " +
+                "[-daemon [socket_path]] " +
+                "[-hotkeys <config_path>] " +
+                "[-simplify <pixels>] " +
+                "[-compact <in_path>] " +
+                "[-compile <macro_path>] " +
                 "[-l]"
             );
             throw new IllegalArgumentException(argsRes);
@@ -73,6 +116,109 @@ public class Main {
             exit(0);
         }
 
+        if (compile_file_str != null) {
+            File macro = resolveMacro(macroDir, compile_file_str);
+            if (!macro.isFile()) {
+                logger.fatal("File not found: {}", compile_file_str);
+                System.out.println("[ERROR] Macro file not found: " + macro.getAbsolutePath());
+                exit(1);
+            }
+            File sidecar = CompiledMacro.compile(macro);
+            System.out.println("[INFO] Compiled macro " + macro.getName() + " into " + sidecar.getAbsolutePath());
+            SC.close();
+            exit(0);
+        }
+
+        if (compact_file_str != null) {
+            File inFile = resolveMacro(macroDir, compact_file_str);
+            File outFile = resolveMacro(macroDir, out_file_str);
+            if (!inFile.exists()) {
+                logger.fatal("File not found: {}", compact_file_str);
+                System.out.println("[ERROR] Macro file not found: " + inFile.getAbsolutePath());
+                exit(1);
+            }
+            if (outFile.exists() && !outFile.getCanonicalFile().equals(inFile.getCanonicalFile()) && !confirmOverwrite(outFile)) {
+                exit(0);
+            }
+            double pixels = simplifyPixels > 0 ? simplifyPixels : DEFAULT_COMPACT_PIXELS;
+            logger.info("Compacting {} into {} with a tolerance of {} px", inFile.getAbsolutePath(), outFile.getAbsolutePath(), pixels);
+            String reduction = PathSimplifier.compactFile(inFile, outFile, pixels, binaryFlag);
+            System.out.println("[INFO] Compacted macro " + inFile.getName() + " into " + outFile.getName() + ": " + reduction);
+            SC.close();
+            exit(0);
+        }
+
+        if (cacheMegabytes >= 0) {
+            MacroCache.shared().setBudgetBytes(cacheMegabytes * 1024 * 1024);
+            logger.info("Macro cache budget set to {} MB", cacheMegabytes);
+        }
+
+        ReplayTiming timing = new ReplayTiming(replaySpeed, maxGapMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toMicros(maxGapMillis));
+        if (!timing.isRealtime()) {
+            System.out.println("[INFO] Replay timing: " + timing);
+        }
+
+        if (daemon_socket_str != null) {
+            InputSink sink = dryRunFlag ? new CountingSink() : RobotSink.forAllScreens();
+            MacroDaemon daemon = new MacroDaemon(Path.of(daemon_socket_str), macroDir, sink);
+            daemon.setMerged(mergedFlag);
+            daemon.setTiming(timing);
+            daemon.setSpinMicros(spinMicros);
+            daemon.setCatchUp(catchUp);
+            daemon.setStopKey(stopKey);
+            int preloaded = daemon.preloadAll();
+            Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+            System.out.println("[INFO] Daemon preloaded " + preloaded + " macros and is listening on " + Path.of(daemon_socket_str).toAbsolutePath());
+            daemon.serve();
+            System.out.println("[INFO] Daemon stopped.");
+            SC.close();
+            exit(0);
+        }
+
+        if (hotkeys_file_str != null) {
+            List<HotkeyTrigger.Binding> bindings = HotkeyTrigger.parse(new File(hotkeys_file_str));
+            InputSink sink = dryRunFlag ? new CountingSink() : RobotSink.forAllScreens();
+            HotkeyTrigger hotkeys = new HotkeyTrigger(bindings, macroDir, stopKey, macro -> {
+                Replayer r = new Replayer(macro.getAbsolutePath(), 1, mergedFlag, sink, timing);
+                r.setSpinMicros(spinMicros);
+                r.setCatchUp(catchUp);
+                return r;
+            });
+            hotkeys.start();
+            System.out.println("[INFO] " + bindings.size() + " hotkeys active. Press your specified stopkey to exit (default is ESC).");
+            hotkeys.awaitStop();
+            System.out.println("[INFO] Hotkey trigger latency: " + hotkeys.getTriggerLatency().summary());
+            SC.close();
+            exit(0);
+        }
+
+        if (batch_str != null) {
+            List<File> macros = resolveBatch(macroDir, batch_str);
+            if (macros.isEmpty()) {
+                logger.fatal("No macros match: {}", batch_str);
+                System.out.println("[ERROR] No macros match: " + batch_str);
+                exit(1);
+            }
+            int rc = (repeatCount == null ? 1 : repeatCount);
+            // the screen can only be driven by one macro at a time, dry runs get a sink each and run side by side
+            InputSink screen = dryRunFlag ? null : RobotSink.forAllScreens();
+            Supplier<InputSink> sinks = dryRunFlag ? CountingSink::new : () -> screen;
+            BatchReplayer batch = new BatchReplayer(macros, rc, mergedFlag, timing, sinks, Runtime.getRuntime().availableProcessors());
+            batch.setSpinMicros(spinMicros);
+            batch.setCatchUp(catchUp);
+            System.out.println("[INFO] Preparing " + macros.size() + " macros...");
+            batch.prepare();
+            // one hook for the whole batch, the macros themselves replay without installing any
+            System.out.println("Starting batch replay. Press CTRL+C to exit early.");
+            Runtime.getRuntime().addShutdownHook(new Thread(batch::stop));
+            batch.run(dryRunFlag);
+            String report = batch.report();
+            System.out.print(report);
+            logger.info("Batch replay finished:\n{}", report);
+            SC.close();
+            exit(0);
+        }
+
         // call either the capture or replayer classes
         if (in_file_str != null) {
             File inFile;
@@ -102,35 +248,31 @@ public class Main {
             int rc = (repeatCount == null ? 1 : repeatCount);
 
             // Normal repeat via Replayer handling it internally
-            new Replayer(inFile.getAbsolutePath(), rc).start();
+            CountingSink dryRun = dryRunFlag ? new CountingSink() : null;
+            Replayer replayer = new Replayer(inFile.getAbsolutePath(), rc, mergedFlag, dryRunFlag ? dryRun : RobotSink.forAllScreens(), timing);
+            replayer.setSpinMicros(spinMicros);
+            replayer.setCatchUp(catchUp);
+            replayer.start();
+            if (dryRun != null) {
+                System.out.println("[INFO] Dry run dispatched " + dryRun.getTotal() + " actions.");
+            }
             exit(0);
 
         } else if (out_file_str != null) {
-            File outFile;
-            if (out_file_str.contains("macros")) {
-                outFile = new File(out_file_str);
-            } else {
-                outFile = new File(macroDir, out_file_str);
-            }
+            File outFile = resolveMacro(macroDir, out_file_str);
 
             //ask if user wants to overwrite
-            if (outFile.exists()){
-                logger.info("File exists: {}", outFile.getAbsolutePath());
-                System.out.println("[WARNING] File already exists: " + outFile.getName());
-                System.out.print("Overwrite? (y/n): ");
-                String response = SC.next().trim();
-                if (!response.equalsIgnoreCase("y")) {
-                    logger.fatal("User disallowed overwriting of: {}", outFile.getAbsolutePath());
-                    System.out.println("Recording cancelled.");
-                    SC.close();
-                    exit(0);
-                }
-                logger.info("User approved overwriting of: {}", outFile.getAbsolutePath());
+            if (outFile.exists() && !confirmOverwrite(outFile)){
+                System.out.println("Recording cancelled.");
+                SC.close();
+                exit(0);
             }
             new FileWriter(outFile, false).close();
             logger.info("Recording to file: {}", outFile.getAbsolutePath());
             System.out.println("[INFO] Recording macro: " + outFile.getName());
-            Recorder recorder = new Recorder(outFile, stopKey);
+            Recorder recorder = new Recorder(outFile, stopKey, binaryFlag, streamFlag);
+            recorder.setEchoMode(echoMode);
+            recorder.setSimplifyEpsilon(simplifyPixels);
             recorder.start();
         } else {
             System.out.println("How the hell did you end up here?");
@@ -143,6 +285,45 @@ public class Main {
         exit(0);
     }
 
+    // paths mentioning the macros folder are used as is, anything else is looked up inside it
+    private static File resolveMacro(File macroDir, String path) {
+        if (path.contains("macros")) {
+            return new File(path);
+        }
+        return new File(macroDir, path);
+    }
+
+    // a directory inside the macros folder means all of its files, anything else is a glob over the macro file names
+    private static List<File> resolveBatch(File macroDir, String pattern) {
+        File dir = resolveMacro(macroDir, pattern);
+        File[] files;
+        if (dir.isDirectory()) {
+            files = dir.listFiles(f -> f.isFile() && !CompiledMacro.isSidecar(f));
+        } else {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            files = macroDir.listFiles(f -> f.isFile() && !CompiledMacro.isSidecar(f) && matcher.matches(f.toPath().getFileName()));
+        }
+        if (files == null) {
+            return List.of();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    // asks before replacing an existing macro
+    private static boolean confirmOverwrite(File outFile) {
+        logger.info("File exists: {}", outFile.getAbsolutePath());
+        System.out.println("[WARNING] File already exists: " + outFile.getName());
+        System.out.print("Overwrite? (y/n): ");
+        String response = SC.next().trim();
+        if (!response.equalsIgnoreCase("y")) {
+            logger.fatal("User disallowed overwriting of: {}", outFile.getAbsolutePath());
+            return false;
+        }
+        logger.info("User approved overwriting of: {}", outFile.getAbsolutePath());
+        return true;
+    }
+
     private static String[] interactiveMode(File macroDir) {
         ArrayList<String> new_args = new ArrayList<>();
         // it will start by asking whether the user wants to record or replay
@@ -259,9 +440,9 @@ private static Boolean yesOrNoPrompt(String prompt) {
 
 
 
-    //list macros
+    //list macros, compiled sidecars are not macros of their own
     private static File[] listMacros(File macroDir){
-        File[] files = macroDir.listFiles();
+        File[] files = macroDir.listFiles(f -> !CompiledMacro.isSidecar(f));
         System.out.println("====== Saved Macros ======");
         if (files == null || files.length == 0) {
             System.out.println("No macros recorded yet.");
@@ -306,6 +487,22 @@ private static Boolean yesOrNoPrompt(String prompt) {
      * - Each option must be followed by a filename.
      * - {@code -stopkey <name>} optionally sets the stop key for recording.
      * - {@code -l} lists available macros and cannot be combined with input or output.
+     * - {@code -binary} saves the recording in the compact binary format and only applies to output.
+     * - {@code -stream} writes the recording to disk while recording (always binary) and only applies to output.
+     * - {@code -echo full|summary|off} sets how recorded input is echoed to the terminal and only applies to output.
+     * - {@code -merged} replays key and mouse events from one thread in recorded order and only applies to input.
+     * - {@code -spin <micros>} busy-spins for the last microseconds before each event for better timing and only applies to input.
+     * - {@code -catchup all|coalesce} sets whether overdue mouse moves are all replayed or skipped in favour of the latest due one; only applies to input.
+     * - {@code -speed <factor>|max} replays faster (or slower) by the given factor, {@code max} as fast as possible; only applies to input.
+     * - {@code -maxgap <millis>} shortens every pause between events to at most the given length; only applies to input.
+     * - {@code -cachemb <megabytes>} sets how much memory loaded macros may keep cached ({@code 0} disables the cache); cannot be combined with output.
+     * - {@code -batch <dir|glob>} replays every macro in a directory, or every macro whose name matches the glob, and prints a timing report; cannot be combined with input or output.
+     * - {@code -dryrun} replays without touching the screen, only counting the actions; with {@code -batch} the macros then run in parallel.
+     * - {@code -daemon [socket]} stays resident and replays or records macros on commands sent to a Unix domain socket ({@code umb.sock} by default); cannot be combined with input, output or batch.
+     * - {@code -hotkeys <file>} replays macros when the key chords bound in the config file are pressed, until the stop key; cannot be combined with input, output, batch or daemon.
+     * - {@code -simplify <pixels>} drops mouse moves that stay within the given distance of the saved path; only applies to output and not to {@code -stream}.
+     * - {@code -compile <file>} translates a macro ahead of time into a sidecar that later replays load instead; cannot be combined with any other mode.
+     * - {@code -compact <file>} rewrites an existing macro with a simplified mouse path into the {@code -output} file instead of recording.
      * @param args the arguments passed to {@link #main(String[])}
      * @return {@code null} if valid, otherwise an error string suitable for an exception message
      */
@@ -373,16 +570,225 @@ private static Boolean yesOrNoPrompt(String prompt) {
                         repeatCount = -1;   // use -1 as "infinite"
                     }
                 }
+                case "-binary" -> {
+                    // binary only affects how a recording is saved, replay detects the format on its own
+                    if (in_file_str != null) {
+                        logger.fatal("-binary cannot be used when replaying!");
+                        return "ERROR: -binary can only be used with -output!";
+                    }
+                    binaryFlag = true;
+                }
+                case "-stream" -> {
+                    if (in_file_str != null) {
+                        logger.fatal("-stream cannot be used when replaying!");
+                        return "ERROR: -stream can only be used with -output!";
+                    }
+                    streamFlag = true;
+                }
+                case "-echo" -> {
+                    if (in_file_str != null) {
+                        logger.fatal("-echo cannot be used when replaying!");
+                        return "ERROR: -echo can only be used with -output!";
+                    } else if (i + 1 < args.length && ConsoleEcho.Mode.parse(args[i + 1]) != null) {
+                        echoMode = ConsoleEcho.Mode.parse(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No valid echo mode provided!");
+                        return "ERROR: Argument -echo requires one of full, summary or off!";
+                    }
+                }
+                case "-merged" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-merged cannot be used when recording!");
+                        return "ERROR: -merged can only be used with -input!";
+                    }
+                    mergedFlag = true;
+                }
+                case "-spin" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-spin cannot be used when recording!");
+                        return "ERROR: -spin can only be used with -input!";
+                    } else if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        spinMicros = Long.parseLong(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No spin threshold provided!");
+                        return "ERROR: Argument -spin requires a number of microseconds!";
+                    }
+                }
+                case "-catchup" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-catchup cannot be used when recording!");
+                        return "ERROR: -catchup can only be used with -input!";
+                    } else if (i + 1 < args.length && ReplayScheduler.CatchUp.parse(args[i + 1]) != null) {
+                        catchUp = ReplayScheduler.CatchUp.parse(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No valid catch-up policy provided!");
+                        return "ERROR: Argument -catchup requires one of all or coalesce!";
+                    }
+                }
+                case "-speed" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-speed cannot be used when recording!");
+                        return "ERROR: -speed can only be used with -input!";
+                    } else if (i + 1 < args.length && args[i + 1].equalsIgnoreCase("max")) {
+                        replaySpeed = Double.POSITIVE_INFINITY;
+                        i++;
+                    } else if (i + 1 < args.length && args[i + 1].matches("\\d+(\\.\\d+)?") && Double.parseDouble(args[i + 1]) > 0) {
+                        replaySpeed = Double.parseDouble(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No valid replay speed provided!");
+                        return "ERROR: Argument -speed requires a positive factor or max!";
+                    }
+                }
+                case "-maxgap" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-maxgap cannot be used when recording!");
+                        return "ERROR: -maxgap can only be used with -input!";
+                    } else if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        maxGapMillis = Long.parseLong(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No maximum gap provided!");
+                        return "ERROR: Argument -maxgap requires a number of milliseconds!";
+                    }
+                }
+                case "-cachemb" -> {
+                    if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        cacheMegabytes = Long.parseLong(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No cache budget provided!");
+                        return "ERROR: Argument -cachemb requires a number of megabytes!";
+                    }
+                }
+                case "-batch" -> {
+                    if (out_file_str != null || in_file_str != null) {
+                        logger.fatal("-batch used with input or output!");
+                        return "ERROR: -batch cannot be used with -input or -output!";
+                    } else if (i + 1 < args.length) {
+                        batch_str = args[i + 1];
+                        i++;
+                    } else {
+                        logger.fatal("No batch directory or glob provided!");
+                        return "ERROR: Argument -batch requires an argument!";
+                    }
+                }
+                case "-dryrun" -> {
+                    if (out_file_str != null) {
+                        logger.fatal("-dryrun cannot be used when recording!");
+                        return "ERROR: -dryrun can only be used with -input or -batch!";
+                    }
+                    dryRunFlag = true;
+                }
+                case "-daemon" -> {
+                    if (out_file_str != null || in_file_str != null || batch_str != null) {
+                        logger.fatal("-daemon used with input, output or batch!");
+                        return "ERROR: -daemon cannot be used with -input, -output or -batch!";
+                    }
+                    // the socket path is optional
+                    if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                        daemon_socket_str = args[i + 1];
+                        i++;
+                    } else {
+                        daemon_socket_str = DEFAULT_SOCKET_NAME;
+                    }
+                }
+                case "-hotkeys" -> {
+                    if (i + 1 < args.length) {
+                        hotkeys_file_str = args[i + 1];
+                        i++;
+                    } else {
+                        logger.fatal("No hotkey config provided!");
+                        return "ERROR: Argument -hotkeys requires an argument!";
+                    }
+                }
+                case "-simplify" -> {
+                    if (in_file_str != null) {
+                        logger.fatal("-simplify cannot be used when replaying!");
+                        return "ERROR: -simplify can only be used with -output!";
+                    } else if (i + 1 < args.length && args[i + 1].matches("\\d+(\\.\\d+)?")) {
+                        simplifyPixels = Double.parseDouble(args[i + 1]);
+                        i++;
+                    } else {
+                        logger.fatal("No simplify tolerance provided!");
+                        return "ERROR: Argument -simplify requires a number of pixels!";
+                    }
+                }
+                case "-compile" -> {
+                    if (i + 1 < args.length) {
+                        compile_file_str = args[i + 1];
+                        i++;
+                    } else {
+                        logger.fatal("No file to compile provided!");
+                        return "ERROR: Argument -compile requires an argument!";
+                    }
+                }
+                case "-compact" -> {
+                    if (in_file_str != null) {
+                        logger.fatal("-compact used with input!");
+                        return "ERROR: -compact can only be used with -output!";
+                    } else if (i + 1 < args.length) {
+                        compact_file_str = args[i + 1];
+                        i++;
+                    } else {
+                        logger.fatal("No file to compact provided!");
+                        return "ERROR: Argument -compact requires an argument!";
+                    }
+                }
                 default -> {
                     logger.fatal("Unknown argument: " + args[i]);
                     return "ERROR: Unknown argument: " + args[i];
                 }
             }
         }
+        if (compile_file_str != null && (out_file_str != null || in_file_str != null || batch_str != null || daemon_socket_str != null || hotkeys_file_str != null || listMacrosFlag)) {
+            logger.fatal("-compile used with another mode!");
+            return "ERROR: -compile cannot be used with -input, -output, -batch, -daemon, -hotkeys or -l!";
+        }
+        if (cacheMegabytes >= 0 && out_file_str != null) {
+            logger.fatal("-cachemb cannot be used when recording!");
+            return "ERROR: -cachemb can only be used with -input, -batch, -daemon or -hotkeys!";
+        }
+        if (compact_file_str != null && in_file_str != null) {
+            logger.fatal("-compact used with input!");
+            return "ERROR: -compact can only be used with -output!";
+        }
+        if (compact_file_str != null && out_file_str == null) {
+            logger.fatal("-compact used without output!");
+            return "ERROR: -compact requires -output!";
+        }
+        if (daemon_socket_str != null && (out_file_str != null || in_file_str != null || batch_str != null)) {
+            logger.fatal("-daemon used with input, output or batch!");
+            return "ERROR: -daemon cannot be used with -input, -output or -batch!";
+        }
+        if (hotkeys_file_str != null && (out_file_str != null || in_file_str != null || batch_str != null || daemon_socket_str != null)) {
+            logger.fatal("-hotkeys used with input, output, batch or daemon!");
+            return "ERROR: -hotkeys cannot be used with -input, -output, -batch or -daemon!";
+        }
+        if (batch_str != null && (out_file_str != null || in_file_str != null)) {
+            logger.fatal("-batch used with input or output!");
+            return "ERROR: -batch cannot be used with -input or -output!";
+        }
+        if (dryRunFlag && out_file_str != null) {
+            logger.fatal("-dryrun cannot be used when recording!");
+            return "ERROR: -dryrun can only be used with -input or -batch!";
+        }
+        if (batch_str != null && repeatCount != null && repeatCount == -1) {
+            logger.fatal("-batch used with infinite repeat!");
+            return "ERROR: -batch needs a repeat count!";
+        }
         // sanity check but included for future cases
-        if (!listMacrosFlag && out_file_str == null && in_file_str == null) {
+        if (!listMacrosFlag && compile_file_str == null && batch_str == null && daemon_socket_str == null && hotkeys_file_str == null && out_file_str == null && in_file_str == null) {
             return "ERROR: Either -input or -output must be specified!";
         }
+        // streamed events are on disk before the path could be simplified
+        if (streamFlag && (simplifyPixels > 0 || compact_file_str != null)) {
+            logger.fatal("-stream used with -simplify or -compact!");
+            return "ERROR: -stream cannot be used with -simplify or -compact!";
+        }
 
         return null;
     }
@@ -0,0 +1,297 @@
+package edu.temple.UMB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Loads a whole macro (key and mouse events) in a single pass over a memory-mapped view of the file.
+ * Both the text and the binary format are supported. Events are parsed straight from the mapped bytes
+ * and handed to a {@link Visitor} as primitives, so no per-line {@code String}s are created.
+ */
+public class MappedLoader {
+    private static final Logger logger = LogManager.getLogger(MappedLoader.class);
+
+    /**
+     * Receives events in file order as they are scanned.
+     */
+    public interface Visitor {
+        /**
+         * Called for each key event.
+         * @param time timestamp of the event in microseconds
+         * @param opcode {@link MacroFormat#KEY_PRESSED} or {@link MacroFormat#KEY_RELEASED}
+         * @param keyCode JNativeHook key code
+         */
+        void key(long time, int opcode, int keyCode);
+
+        /**
+         * Called for each mouse event.
+         * @param time timestamp of the event in microseconds
+         * @param opcode one of the {@code MOUSE_*} opcodes in {@link MacroFormat}
+         * @param x recorded x coordinate
+         * @param y recorded y coordinate
+         * @param button JNativeHook button
+         */
+        void mouse(long time, int opcode, int x, int y, int button);
+    }
+
+    // section markers of the text format, compared byte by byte against the mapped file
+    private static final byte[] START_KEY = bytes("START KEY EVENTS");
+    private static final byte[] END_KEY = bytes("END KEY EVENTS");
+    private static final byte[] START_MOUSE = bytes("START MOUSE EVENTS");
+    private static final byte[] END_MOUSE = bytes("END MOUSE EVENTS");
+    private static final byte[] EOF = bytes("EOF");
+    // contexts indexed by opcode
+    private static final byte[][] CONTEXTS = new byte[MacroFormat.MOUSE_DRAGGED + 1][];
+
+    static {
+        for (int op = MacroFormat.KEY_PRESSED; op <= MacroFormat.MOUSE_DRAGGED; op++) {
+            CONTEXTS[op] = bytes(MacroFormat.contextOf(op));
+        }
+    }
+
+    private final File inFile;
+
+    /**
+     * Creates a loader for the given macro file.
+     * @param inFile text or binary macro
+     */
+    public MappedLoader(File inFile) {
+        this.inFile = inFile;
+    }
+
+    /**
+     * Maps the file and passes every event to {@code visitor} in file order.
+     * @param visitor receiver of the parsed events
+     * @return the number of events visited
+     * @throws IOException if the file cannot be mapped or is malformed
+     */
+    public int load(Visitor visitor) throws IOException {
+        logger.debug("Mapping macro file: {}", inFile.getAbsolutePath());
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Macro file is too large to map: " + inFile.getAbsolutePath());
+            }
+            // the mapping stays valid after the channel is closed
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int count = isBinary(buf) ? scanBinary(buf, visitor) : scanText(buf, visitor);
+        logger.info("Loaded {} events from {} ({} bytes mapped)", count, inFile.getAbsolutePath(), buf.capacity());
+        return count;
+    }
+
+    private static boolean isBinary(ByteBuffer buf) {
+        if (buf.limit() < MacroFormat.MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MacroFormat.MAGIC.length; i++) {
+            if (buf.get(i) != MacroFormat.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int scanBinary(ByteBuffer buf, Visitor visitor) throws IOException {
+        buf.position(MacroFormat.MAGIC.length);
+        int version = buf.get() & 0xFF;
+        if (version > MacroFormat.VERSION) {
+            throw new IOException("Unsupported binary macro version " + version);
+        }
+        // old macros store millisecond deltas
+        long scale = version <= MacroFormat.VERSION_MILLIS ? 1000 : 1;
+        int count = 0;
+        long time = 0;
+        try {
+            while (buf.hasRemaining()) {
+                int opcode = buf.get() & 0xFF;
+                if (opcode == MacroFormat.END) {
+                    break;
+                }
+                time += readVarLong(buf) * scale;
+                if (MacroFormat.isKeyOpcode(opcode)) {
+                    int code = buf.getShort() & 0xFFFF;
+                    visitor.key(time, opcode, code);
+                } else if (MacroFormat.isMouseOpcode(opcode)) {
+                    int x = buf.getShort();
+                    int y = buf.getShort();
+                    int button = buf.get() & 0xFF;
+                    visitor.mouse(time, opcode, x, y, button);
+                } else {
+                    throw new IOException("Unknown opcode " + opcode + " in " + inFile.getAbsolutePath());
+                }
+                count++;
+            }
+        } catch (BufferUnderflowException ex) {
+            // a truncated last record is dropped, everything before it is still usable
+            logger.warn("Binary macro {} ends mid-record after {} records", inFile.getAbsolutePath(), count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a zigzag encoded varint as written by {@link BinaryWriter}.
+     */
+    static long readVarLong(ByteBuffer buf) {
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buf.get() & 0xFF;
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int scanText(ByteBuffer buf, Visitor visitor) throws IOException {
+        // 0 = outside a section, 1 = key section, 2 = mouse section
+        int section = 0;
+        int count = 0;
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int lineStart = pos;
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            pos = lineEnd + 1;
+            // tolerate windows line endings
+            if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                continue;
+            }
+            byte first = buf.get(lineStart);
+            if (first != '-' && (first < '0' || first > '9')) {
+                if (matches(buf, lineStart, lineEnd, START_KEY)) {
+                    section = 1;
+                } else if (matches(buf, lineStart, lineEnd, START_MOUSE)) {
+                    section = 2;
+                } else if (matches(buf, lineStart, lineEnd, END_KEY) || matches(buf, lineStart, lineEnd, END_MOUSE)) {
+                    section = 0;
+                } else if (matches(buf, lineStart, lineEnd, EOF)) {
+                    break;
+                } else {
+                    throw malformed(buf, lineStart, lineEnd);
+                }
+                continue;
+            }
+            if (section == 0) {
+                throw malformed(buf, lineStart, lineEnd);
+            }
+            int p = lineStart;
+            long time = parseMillis(buf, p, lineEnd);
+            p = skipToken(buf, p, lineEnd);
+            int ctxStart = p;
+            p = skipToken(buf, p, lineEnd);
+            int opcode = opcodeAt(buf, ctxStart, p - 1);
+            if (section == 1 && MacroFormat.isKeyOpcode(opcode)) {
+                visitor.key(time, opcode, (int) parseLong(buf, p, lineEnd));
+            } else if (section == 2 && MacroFormat.isMouseOpcode(opcode)) {
+                int x = (int) parseLong(buf, p, lineEnd);
+                int comma = p;
+                while (comma < lineEnd && buf.get(comma) != ',') {
+                    comma++;
+                }
+                int y = (int) parseLong(buf, comma + 1, lineEnd);
+                p = skipToken(buf, p, lineEnd);
+                int button = (int) parseLong(buf, p, lineEnd);
+                visitor.mouse(time, opcode, x, y, button);
+            } else {
+                throw malformed(buf, lineStart, lineEnd);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // returns the index just past the next space, or end if there is none
+    private static int skipToken(ByteBuffer buf, int p, int end) {
+        while (p < end && buf.get(p) != ' ') {
+            p++;
+        }
+        return Math.min(p + 1, end);
+    }
+
+    // parses a (possibly negative) decimal number starting at p and ending at the first non digit
+    private static long parseLong(ByteBuffer buf, int p, int end) {
+        boolean negative = p < end && buf.get(p) == '-';
+        if (negative) {
+            p++;
+        }
+        long v = 0;
+        while (p < end) {
+            byte b = buf.get(p);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            v = v * 10 + (b - '0');
+            p++;
+        }
+        return negative ? -v : v;
+    }
+
+    // parses decimal milliseconds like 756 or 756.125 starting at p into microseconds, see MacroFormat#parseMillis
+    private static long parseMillis(ByteBuffer buf, int p, int end) {
+        boolean negative = p < end && buf.get(p) == '-';
+        long micros = Math.abs(parseLong(buf, p, end)) * 1000;
+        while (p < end && buf.get(p) != '.' && buf.get(p) != ' ') {
+            p++;
+        }
+        if (p < end && buf.get(p) == '.') {
+            int scale = 100;
+            for (p++; p < end && scale > 0; p++, scale /= 10) {
+                byte b = buf.get(p);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                micros += (b - '0') * scale;
+            }
+        }
+        return negative ? -micros : micros;
+    }
+
+    private static int opcodeAt(ByteBuffer buf, int start, int end) {
+        for (int op = MacroFormat.KEY_PRESSED; op < CONTEXTS.length; op++) {
+            if (matches(buf, start, end, CONTEXTS[op])) {
+                return op;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buf, int start, int end, byte[] token) {
+        if (end - start != token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (buf.get(start + i) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException malformed(ByteBuffer buf, int start, int end) {
+        // only build a string for the error message
+        byte[] line = new byte[end - start];
+        buf.get(start, line);
+        return new IOException("Malformed line in " + inFile.getAbsolutePath() + ": " + new String(line, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
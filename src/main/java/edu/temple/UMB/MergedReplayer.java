@@ -0,0 +1,144 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays key and mouse events as one merged timeline from a single dispatch thread.
+ * Both streams are translated like in {@link KeyReplayer} and {@link MouseReplayer}, then merged by timestamp
+ * (and sequence number on ties), so the recorded interleaving of key and mouse events, such as Shift being
+ * held during a click, is reproduced exactly.
+ */
+public final class MergedReplayer {
+    private static final Logger logger = LogManager.getLogger(MergedReplayer.class);
+    // translated key and mouse events in one ordered timeline
+    final EventTimeline awtEvents;
+    // single thread that dispatches the events in order
+    public final ReplayScheduler scheduler;
+    // pointer positions resolved by the sink once, so a move is only an array read
+    private final DevicePoints points;
+    private final InputSink sink;
+    // track keys currently pressed
+    private final Set<Integer> keysDown = ConcurrentHashMap.newKeySet();
+    // track mouse buttons currently pressed
+    private final Set<Integer> buttonsDown = ConcurrentHashMap.newKeySet();
+    long maxDelay = 0L;
+
+    /**
+     * Creates a merged replayer from raw JNativeHook key and mouse events that replays through a {@link RobotSink}.
+     * @param loadedJNativeHookEvents key events as loaded by {@link Loader}
+     * @param loadedJNativeHookMouseEvents mouse events as loaded by {@link MouseLoader}
+     * @throws RuntimeException when Robot cannot be initialized
+     */
+    public MergedReplayer(EventTimeline loadedJNativeHookEvents, EventTimeline loadedJNativeHookMouseEvents) throws RuntimeException {
+        this(loadedJNativeHookEvents, loadedJNativeHookMouseEvents, RobotSink.forAllScreens());
+    }
+
+    /**
+     * Creates a merged replayer from raw JNativeHook key and mouse events.
+     * @param loadedJNativeHookEvents key events as loaded by {@link Loader}
+     * @param loadedJNativeHookMouseEvents mouse events as loaded by {@link MouseLoader}
+     * @param sink receives every key and mouse action
+     */
+    public MergedReplayer(EventTimeline loadedJNativeHookEvents, EventTimeline loadedJNativeHookMouseEvents, InputSink sink) {
+        this(sink, KeyReplayer.JNativeToAWT(loadedJNativeHookEvents), MouseReplayer.JNativeToAWT(loadedJNativeHookMouseEvents));
+    }
+
+    /**
+     * Creates a merged replayer for events that are already translated, e.g. from a {@link CompiledMacro}.
+     * @param awtKeyEvents key events with AWT key codes
+     * @param awtMouseEvents mouse events with AWT button masks
+     * @param sink receives every key and mouse action
+     * @return the new replayer
+     */
+    static MergedReplayer fromTranslated(EventTimeline awtKeyEvents, EventTimeline awtMouseEvents, InputSink sink) {
+        return new MergedReplayer(sink, awtKeyEvents, awtMouseEvents);
+    }
+
+    private MergedReplayer(InputSink sink, EventTimeline awtKeyEvents, EventTimeline awtMouseEvents) {
+        this.sink = sink;
+        awtEvents = EventTimeline.merge(awtKeyEvents, awtMouseEvents);
+        points = sink.resolve(awtEvents);
+        logger.info("Merged into {} AWT events", awtEvents.size());
+
+        maxDelay = TimeUnit.MICROSECONDS.toMillis(Math.max(0L, awtEvents.lastTime()));
+        scheduler = new ReplayScheduler("merged-replay", awtEvents, this::executeEvent, () -> {
+            logger.info("Merged replay finished!");
+            releaseAllHeld();
+        }, this::releaseAllHeld);
+    }
+
+    /**
+     * Begins playback of the merged timeline relative to the instant this method is called.
+     */
+    public void start() {
+        start(System.nanoTime());
+    }
+
+    /**
+     * Begins playback relative to the given reference point. Can be called again once the previous playback finished.
+     * @param startNano reference point from {@link System#nanoTime()}
+     */
+    public void start(long startNano) {
+        scheduler.start(startNano);
+    }
+
+    private void executeEvent(int i) {
+        int code = awtEvents.code(i);
+        int screen = points.screen(i);
+        int x = points.x(i);
+        int y = points.y(i);
+        switch (awtEvents.opcode(i)) {
+            case MacroFormat.KEY_PRESSED -> {
+                keysDown.add(code);
+                sink.keyPress(code);
+            }
+            case MacroFormat.KEY_RELEASED -> {
+                keysDown.remove(code);
+                sink.keyRelease(code);
+            }
+            case MacroFormat.MOUSE_MOVED, MacroFormat.MOUSE_DRAGGED -> sink.mouseMoveResolved(screen, x, y);
+            case MacroFormat.MOUSE_PRESSED -> {
+                sink.mouseMoveResolved(screen, x, y);
+                buttonsDown.add(code);
+                sink.mousePress(code);
+            }
+            case MacroFormat.MOUSE_RELEASED -> {
+                sink.mouseMoveResolved(screen, x, y);
+                buttonsDown.remove(code);
+                sink.mouseRelease(code);
+            }
+        }
+    }
+
+    /**
+     * Releases any keys and mouse buttons that are still in the pressed state.
+     */
+    public void releaseAllHeld() {
+        for (Integer key : keysDown) {
+            try {
+                logger.warn("Key {} is still being held! Trying to release...", key);
+                sink.keyRelease(key);
+            } catch (Exception ignored) {}
+        }
+        keysDown.clear();
+        for (Integer button : buttonsDown) {
+            try {
+                logger.warn("Mouse button {} is still being held! Trying to release...", button);
+                sink.mouseRelease(button);
+            } catch (Exception ignored) {}
+        }
+        buttonsDown.clear();
+    }
+
+    /**
+     * Returns the delay of the last event in milliseconds from start.
+     */
+    public Long getMaxDelay() {
+        return maxDelay;
+    }
+}
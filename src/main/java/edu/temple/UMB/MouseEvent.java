@@ -3,36 +3,61 @@ package edu.temple.UMB;
 import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
 
 /**
- * Recorded mouse event with its {@link NativeMouseEvent} and context.
+ * Recorded mouse event with its coordinates, button and context.
  * The {@code context} describes the action such as {@code MOUSE PRESSED}, {@code MOUSE RELEASED}, {@code MOUSE MOVED}, or {@code MOUSE DRAGGED}.
+ * Only the coordinates and button are kept from the {@link NativeMouseEvent}, so recorded events stay small.
  */
 public class MouseEvent extends Event {
-    private final NativeMouseEvent event;
+    private final int x;
+    private final int y;
+    private final int button;
     String context;
 
     /**
      * Creates a recorded mouse event.
-     * @param delta milliseconds since the first recorded event
+     * @param delta microseconds since the first recorded event
      * @param event the underlying {@link NativeMouseEvent}
      * @param context a short description of the mouse action
      */
     public MouseEvent(long delta,  NativeMouseEvent event, String context) {
+        this(delta, event.getX(), event.getY(), event.getButton(), context);
+    }
+
+    /**
+     * Creates a recorded mouse event from its coordinates and button.
+     * @param delta microseconds since the first recorded event
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param button the JNativeHook button
+     * @param context a short description of the mouse action
+     */
+    public MouseEvent(long delta, int x, int y, int button, String context) {
         super(delta);
-        this.event = event;
+        this.x = x;
+        this.y = y;
+        this.button = button;
         this.context = context;
-
     }
 
     /**
-     * Returns the underlying {@link NativeMouseEvent}.
-     * @return the native mouse event
+     * Returns the x coordinate of the event.
+     */
+    public int getX() {return x;}
+
+    /**
+     * Returns the y coordinate of the event.
+     */
+    public int getY() {return y;}
+
+    /**
+     * Returns the JNativeHook button of the event.
      */
-    public NativeMouseEvent getNativeMouseEvent() {return event;}
+    public int getButton() {return button;}
 
     /**
      * Serializes this event for file output.
-     * @return a line of the form {@code <delta> <context> <x>,<y> <button>}
+     * @return a line of the form {@code <delta> <context> <x>,<y> <button>}, with the delta in decimal milliseconds
      */
     @Override
-    public String toString() { return getDelta() + " " + context + " " + event.getX() + "," + event.getY() + " " + event.getButton();}
+    public String toString() { return MacroFormat.formatMillis(getDeltaMicros()) + " " + context + " " + x + "," + y + " " + button;}
 }
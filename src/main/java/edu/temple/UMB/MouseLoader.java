@@ -1,21 +1,47 @@
 package edu.temple.UMB;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Loads recorded JNativeHook mouse events from a macro file into an {@link EventTimeline}.
+ * Binary macros are detected by their magic bytes and decoded with {@link MappedLoader}; anything else is parsed as text.
+ */
 public class MouseLoader {
     private static final Logger logger = LogManager.getLogger(MouseLoader.class);
     private File inFile;
 
+    /**
+     * Creates a loader for the given input file.
+     * @param inFile file containing recorded events
+     */
     public MouseLoader(File inFile) {
         this.inFile = inFile;
     }
 
-    public LinkedHashMap<Long, String> loadJNativeEventsFromFile() throws FileNotFoundException {
-        LinkedHashMap<Long, String> map = new LinkedHashMap<>();
+    /**
+     * Parses the input file into an {@link EventTimeline} of mouse events.
+     * Codes in the returned timeline are JNativeHook buttons.
+     * @return ordered mouse events
+     * @throws IOException if the input file cannot be opened or read
+     */
+    public EventTimeline loadJNativeEventsFromFile() throws IOException {
+        EventTimeline.Builder mice = new EventTimeline.Builder();
+        if (MacroFormat.isBinary(inFile)) {
+            new MappedLoader(inFile).load(new MappedLoader.Visitor() {
+                @Override
+                public void key(long time, int opcode, int keyCode) {}
+
+                @Override
+                public void mouse(long time, int opcode, int x, int y, int button) {
+                    mice.mouse(time, opcode, x, y, button);
+                }
+            });
+            return mice.build();
+        }
         logger.debug("Loading JNativeHook mouse events from file: {}", inFile.getAbsolutePath());
         int lineCount = 0;
         // Ensure the Scanner is always closed to release the file handle on Windows
@@ -32,12 +58,19 @@ public class MouseLoader {
                     // finished mouse events. our job here is done
                     break;
                 }
-                // parse line and add to map
+                // parse line and add to timeline
                 String[] parts = line.split(" ");
-                map.put(Long.parseLong(parts[0]), parts[1] + "-" + parts[2] + "-" + parts[3]);
+                int opcode = MacroFormat.opcodeOf(parts[1]);
+                if (!MacroFormat.isMouseOpcode(opcode)) {
+                    logger.warn("Skipping unknown mouse event on line {}: {}", lineCount, line);
+                    continue;
+                }
+                String[] xy = parts[2].split(",", 2);
+                mice.mouse(MacroFormat.parseMillis(parts[0]), opcode,
+                        Integer.parseInt(xy[0]), Integer.parseInt(xy[1]), Integer.parseInt(parts[3]));
             }
         }
-        logger.info("Loaded {} mouse events from file {} ({} lines read)", map.size(), inFile.getAbsolutePath(), lineCount);
-        return map;
+        logger.info("Loaded {} mouse events from file {} ({} lines read)", mice.size(), inFile.getAbsolutePath(), lineCount);
+        return mice.build();
     }
 }
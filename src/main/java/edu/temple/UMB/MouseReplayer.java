@@ -3,86 +3,79 @@ package edu.temple.UMB;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.awt.*;
 import java.awt.event.MouseEvent;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.LockSupport;
 
 import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
 
 /**
- * Replays translated mouse events using AWT Robot.
+ * Replays translated mouse events through an {@link InputSink}, normally a {@link RobotSink}.
  * Events are scheduled relative to the time start is called. The class translates
  * JNativeHook mouse records into AWT friendly events, schedules them on a single
- * thread, and drives the system cursor and buttons via Robot.
+ * thread, and drives the cursor and buttons via the sink.
  */
-public class MouseReplayer {
+public final class MouseReplayer {
     private static final Logger logger = LogManager.getLogger(MouseReplayer.class);
-    private static final Map<Integer, Integer> jnativeToAwtMouse = new HashMap<>();
-    // ordered mapping of timestamps to AWTReplayEvents
-    LinkedHashMap<Long, AWTReplayMouseEvent> awtMouseEvents = new LinkedHashMap<>();
-    public final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
-    private final CountDownLatch startLatch = new CountDownLatch(1);
-    private volatile long startNano;
-    // system time when replay was started
-    // the (lazy instantiation) of the Robot class to be used for actual replay
-    private final Robot robot;
-    double scaleFactor = Toolkit.getDefaultToolkit().getScreenResolution() / 96.0;
+    // AWT button mask by JNativeHook button, -1 for buttons AWT cannot press
+    private static final int[] jnativeToAwtMouse = {-1, -1, -1, -1};
+    // translated events, codes are AWT button masks
+    final EventTimeline awtMouseEvents;
+    // single thread that dispatches the events in order
+    public final ReplayScheduler scheduler;
+    // pointer positions resolved by the sink once, so a move is only an array read
+    private final DevicePoints points;
+    // where the mouse actions go, normally a robot
+    private final InputSink sink;
+    // track buttons currently pressed
+    private final Set<Integer> buttonsDown = ConcurrentHashMap.newKeySet();
     long maxDelay = 0L;
 
     /**
-         * Creates a mouse replayer from raw JNativeHook mouse events.
+         * Creates a mouse replayer from raw JNativeHook mouse events that replays through a {@link RobotSink}.
          * Translates the input into AWT events, initializes a Robot, and schedules
          * execution of each event relative to the time start is called.
-         * @param loadedJNativeHookEvents timestamp to raw event mapping as loaded by MouseLoader
+         * @param loadedJNativeHookEvents raw mouse events as loaded by MouseLoader
          * @throws RuntimeException when Robot cannot be initialized
          */
-        public MouseReplayer(LinkedHashMap<Long, String> loadedJNativeHookEvents) throws RuntimeException {
+        public MouseReplayer(EventTimeline loadedJNativeHookEvents) throws RuntimeException {
+        this(loadedJNativeHookEvents, RobotSink.forAllScreens());
+    }
+
+    /**
+     * Creates a mouse replayer from raw JNativeHook mouse events.
+     * @param loadedJNativeHookEvents raw mouse events as loaded by MouseLoader
+     * @param sink receives the pointer moves and button presses and releases
+     */
+    public MouseReplayer(EventTimeline loadedJNativeHookEvents, InputSink sink) {
         // translate those events to AWT events
-        JNativeToAWT(loadedJNativeHookEvents);
+        this(sink, JNativeToAWT(loadedJNativeHookEvents));
+    }
 
-        // debug print
-        logger.info("Translated to {} AWT events", awtMouseEvents.size());
-        for (Long key : awtMouseEvents.keySet()) {
-            logger.debug("{} {} {}", key, awtMouseEvents.get(key).context, awtMouseEvents.get(key).button);
-        }
+    /**
+     * Creates a mouse replayer for events whose codes already are AWT button masks, e.g. from a {@link CompiledMacro}.
+     * @param awtMouseEvents translated mouse events
+     * @param sink receives the pointer moves and button presses and releases
+     * @return the new replayer
+     */
+    static MouseReplayer fromTranslated(EventTimeline awtMouseEvents, InputSink sink) {
+        return new MouseReplayer(sink, awtMouseEvents);
+    }
 
-        // initialize robot so now so we have minimal overhead later
-        try {
-            GraphicsDevice defaultScreen = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
-            robot = new Robot(defaultScreen);
-            logger.info("Mouse replay started with {} events", awtMouseEvents.size());
-        } catch (AWTException e) {
-            logger.fatal("Failed to initialize Robot for mouse replay", e);
-            throw new RuntimeException(e);
-        }
+    private MouseReplayer(InputSink sink, EventTimeline awtMouseEvents) {
+        this.sink = sink;
+        this.awtMouseEvents = awtMouseEvents;
+        this.points = sink.resolve(awtMouseEvents);
 
-        // schedule events now, on start just release latch
-        for (Long key : awtMouseEvents.keySet()) {
-            long delay = key;
-            if (delay < 0) delay = 0;
-            maxDelay = Math.max(delay, maxDelay);
-            exec.submit(() -> {
-                try {
-                    startLatch.await();
-                    long target = startNano + TimeUnit.MILLISECONDS.toNanos(key);
-                    long now;
-                    while ((now = System.nanoTime()) < target) {
-                        LockSupport.parkNanos(target - now);
-                    }
-                    executeEvent(awtMouseEvents.get(key));
-                } catch (InterruptedException ignored) {
-                }
-            });
-        }
-        exec.submit(() -> logger.info("Mouse replay finished!"), maxDelay + 50);
-        exec.submit(exec::shutdown, maxDelay + 150);
+        logger.info("Translated to {} AWT events", awtMouseEvents.size());
+
+        // the scheduler thread waits until start, then walks the timeline in order
+        maxDelay = TimeUnit.MICROSECONDS.toMillis(Math.max(0L, awtMouseEvents.lastTime()));
+        scheduler = new ReplayScheduler("mouse-replay", awtMouseEvents, this::executeEvent, () -> {
+            logger.info("Mouse replay finished!");
+            releaseAllHeld();
+        }, this::releaseAllHeld);
     }
 
     /**
@@ -90,31 +83,55 @@ public class MouseReplayer {
      * The schedule is evaluated relative to the instant this method is called.
      */
     public void start() {
-        startNano = System.nanoTime(); // reference point for event delays
-        startLatch.countDown(); // release latch
+        start(System.nanoTime());
+    }
+
+    /**
+     * Begins playback relative to the given reference point, so several replayers can share one start time.
+     * @param startNano reference point from {@link System#nanoTime()}
+     */
+    public void start(long startNano) {
+        scheduler.start(startNano);
     }
 
 /**
      * Executes a single translated mouse event.
-     * Moves the cursor when needed and presses or releases buttons according to the event context.
-     * @param event the mouse event to execute
+     * Moves the cursor when needed and presses or releases buttons according to the event opcode.
+     * @param i index of the event in {@code awtMouseEvents}
      */
-    private void executeEvent(AWTReplayMouseEvent event) {
-        logger.debug("Executing {} with code {}", event.context, event.button);
-        switch (event.context) {
-            case "MOUSE_MOVED", "MOUSE_DRAGGED" ->
-                    robot.mouseMove((int) (event.x / scaleFactor), (int) (event.y / scaleFactor));
-            case "MOUSE_PRESSED" -> {
-                robot.mouseMove((int) (event.x / scaleFactor), (int) (event.y / scaleFactor));
-                robot.mousePress(event.button);
+    private void executeEvent(int i) {
+        int screen = points.screen(i);
+        int x = points.x(i);
+        int y = points.y(i);
+        int button = awtMouseEvents.code(i);
+        switch (awtMouseEvents.opcode(i)) {
+            case MacroFormat.MOUSE_MOVED, MacroFormat.MOUSE_DRAGGED -> sink.mouseMoveResolved(screen, x, y);
+            case MacroFormat.MOUSE_PRESSED -> {
+                sink.mouseMoveResolved(screen, x, y);
+                buttonsDown.add(button);
+                sink.mousePress(button);
             }
-            case "MOUSE_RELEASED" -> {
-                robot.mouseMove((int) (event.x / scaleFactor), (int) (event.y / scaleFactor));
-                robot.mouseRelease(event.button);
+            case MacroFormat.MOUSE_RELEASED -> {
+                sink.mouseMoveResolved(screen, x, y);
+                buttonsDown.remove(button);
+                sink.mouseRelease(button);
             }
         }
     }
 
+    /**
+     * Releases any mouse buttons that are still in the pressed state, e.g. after a stop during a drag.
+     */
+    public void releaseAllHeld() {
+        for (Integer button : buttonsDown) {
+            try {
+                logger.warn("Mouse button {} is still being held! Trying to release...", button);
+                sink.mouseRelease(button);
+            } catch (Exception ignored) {}
+        }
+        buttonsDown.clear();
+    }
+
     /**
      * Returns the maximum scheduled delay among mouse events.
      * This indicates approximately how long playback will take from start
@@ -126,38 +143,39 @@ public class MouseReplayer {
     }
 
     static{
-        jnativeToAwtMouse.put(NativeMouseEvent.NOBUTTON, MouseEvent.NOBUTTON);
-        jnativeToAwtMouse.put(NativeMouseEvent.BUTTON1, MouseEvent.BUTTON1_MASK);
-        jnativeToAwtMouse.put(NativeMouseEvent.BUTTON2, MouseEvent.BUTTON3_MASK);
-        jnativeToAwtMouse.put(NativeMouseEvent.BUTTON3, MouseEvent.BUTTON2_MASK);
+        jnativeToAwtMouse[NativeMouseEvent.NOBUTTON] = MouseEvent.NOBUTTON;
+        jnativeToAwtMouse[NativeMouseEvent.BUTTON1] = MouseEvent.BUTTON1_MASK;
+        jnativeToAwtMouse[NativeMouseEvent.BUTTON2] = MouseEvent.BUTTON3_MASK;
+        jnativeToAwtMouse[NativeMouseEvent.BUTTON3] = MouseEvent.BUTTON2_MASK;
     }
 
 /**
      * Translates recorded JNativeHook mouse events into AWT-compatible events.
-     * Each input entry is parsed into context, coordinates, and button value,
-     * then converted into an {@link AWTReplayMouseEvent} for scheduling.
+     * Each JNativeHook button is mapped to its AWT button mask; timestamps, opcodes and coordinates are kept.
      * Unmapped codes are skipped with a warning.
-     * @param loadedJNativeHookMouseEvents timestamp to raw event mapping as loaded by MouseLoader
+     * @param loadedJNativeHookMouseEvents raw mouse events as loaded by MouseLoader
+     * @return the translated timeline
      */
-    private void JNativeToAWT(LinkedHashMap<Long, String> loadedJNativeHookMouseEvents) {
-        for (Long key : loadedJNativeHookMouseEvents.keySet()) {
-            String[] parts = loadedJNativeHookMouseEvents.get(key).split("-");
-            try {
-                int code = Integer.parseInt(parts[2]);
-                Integer awtCode = jnativeToAwtMouse.get(code);
-                if (awtCode == null) {
-                    logger.warn("Unmapped key code encountered: {}", code);
-                    continue; // skip unknown keys
-                }
-                int x = Integer.parseInt(parts[1].split(",", 2)[0]);
-                int y = Integer.parseInt(parts[1].split(",", 2)[1]);
-
-                AWTReplayMouseEvent event = new AWTReplayMouseEvent(parts[0], x, y, awtCode);
-                awtMouseEvents.put(key, event);
-            } catch (Exception e) {
-                logger.error("Failed to translate key: {}", parts.length > 1 ? parts[2] : "<unknown>", e);
+    static EventTimeline JNativeToAWT(EventTimeline loadedJNativeHookMouseEvents) {
+        EventTimeline.Builder translated = new EventTimeline.Builder();
+        FlightEvents.Translation event = new FlightEvents.Translation();
+        event.begin();
+        for (int i = 0; i < loadedJNativeHookMouseEvents.size(); i++) {
+            int code = loadedJNativeHookMouseEvents.code(i);
+            int awtCode = code >= 0 && code < jnativeToAwtMouse.length ? jnativeToAwtMouse[code] : -1;
+            if (awtCode == -1) {
+                logger.warn("Unmapped key code encountered: {}", code);
+                continue; // skip unknown keys
             }
+            translated.add(loadedJNativeHookMouseEvents.time(i), loadedJNativeHookMouseEvents.sequence(i), loadedJNativeHookMouseEvents.opcode(i),
+                    awtCode, loadedJNativeHookMouseEvents.x(i), loadedJNativeHookMouseEvents.y(i));
         }
+        EventTimeline result = translated.build();
+        event.kind = "mouse";
+        event.rawEvents = loadedJNativeHookMouseEvents.size();
+        event.translatedEvents = result.size();
+        event.commit();
+        return result;
     }
 }
 
@@ -0,0 +1,242 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removes redundant mouse moves from a recorded path with the Ramer-Douglas-Peucker algorithm.
+ * Each run of consecutive {@link MacroFormat#MOUSE_MOVED} (or {@link MacroFormat#MOUSE_DRAGGED}) events is reduced to the
+ * points needed to stay within a pixel error bound of the recorded path. The first and last move of every run and all
+ * button events are always kept, so clicks happen exactly where they were recorded.
+ * <p>
+ * Replay jumps from one kept point to the next, so dropping points along a slow straight movement would turn the glide
+ * into a pause followed by a jump. To bound that, a point is also kept whenever the previously kept point is more than
+ * {@link #DEFAULT_MAX_GAP_MICROS} older.
+ * Kept events keep their timestamps.
+ */
+public final class PathSimplifier {
+    private static final Logger logger = LogManager.getLogger(PathSimplifier.class);
+    /**
+     * Longest time in microseconds between two kept points of a run.
+     */
+    public static final long DEFAULT_MAX_GAP_MICROS = 50_000L;
+
+    private PathSimplifier() {}
+
+    /**
+     * Simplifies recorded mouse events, e.g. between {@link InputEventRecorder#getMouseEvents()} and the writer.
+     * @param events mouse events in recorded order
+     * @param epsilon largest allowed distance in pixels between a dropped point and the simplified path
+     * @return the kept events, in order
+     */
+    public static List<MouseEvent> simplify(List<MouseEvent> events, double epsilon) {
+        int n = events.size();
+        long[] times = new long[n];
+        int[] opcodes = new int[n];
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            MouseEvent e = events.get(i);
+            times[i] = e.getDeltaMicros();
+            opcodes[i] = MacroFormat.opcodeOf(e.context);
+            xs[i] = e.getX();
+            ys[i] = e.getY();
+        }
+        boolean[] keep = keepMask(times, opcodes, xs, ys, epsilon, DEFAULT_MAX_GAP_MICROS);
+        List<MouseEvent> kept = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept.add(events.get(i));
+            }
+        }
+        logger.info("Simplified mouse path: {}", describeReduction(n, kept.size()));
+        return kept;
+    }
+
+    /**
+     * Simplifies a mouse timeline. Key events, if any, are always kept.
+     * @param timeline events ordered by time
+     * @param epsilon largest allowed distance in pixels between a dropped point and the simplified path
+     * @return a timeline with the kept events
+     */
+    public static EventTimeline simplify(EventTimeline timeline, double epsilon) {
+        int n = timeline.size();
+        long[] times = new long[n];
+        int[] opcodes = new int[n];
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = timeline.time(i);
+            opcodes[i] = timeline.opcode(i);
+            xs[i] = timeline.x(i);
+            ys[i] = timeline.y(i);
+        }
+        boolean[] keep = keepMask(times, opcodes, xs, ys, epsilon, DEFAULT_MAX_GAP_MICROS);
+        EventTimeline.Builder kept = new EventTimeline.Builder();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept.add(timeline.time(i), timeline.sequence(i), timeline.opcode(i), timeline.code(i), timeline.x(i), timeline.y(i));
+            }
+        }
+        logger.info("Simplified mouse path: {}", describeReduction(n, kept.size()));
+        return kept.build();
+    }
+
+    /**
+     * Rewrites an existing macro with a simplified mouse path. Key events are copied unchanged.
+     * @param in macro to read, text or binary
+     * @param out destination, replaced if it exists
+     * @param epsilon largest allowed distance in pixels between a dropped point and the simplified path
+     * @param binary whether to write the binary format instead of text
+     * @return a description of the reduction, see {@link #describeReduction(int, int)}
+     * @throws IOException if reading or writing fails
+     */
+    public static String compactFile(File in, File out, double epsilon, boolean binary) throws IOException {
+        EventTimeline.Builder keys = new EventTimeline.Builder();
+        EventTimeline.Builder mice = new EventTimeline.Builder();
+        new MappedLoader(in).load(new MappedLoader.Visitor() {
+            // shared between both timelines so events keep their file order across key and mouse
+            int sequence = 0;
+
+            @Override
+            public void key(long time, int opcode, int keyCode) {
+                keys.add(time, sequence++, opcode, keyCode, 0, 0);
+            }
+
+            @Override
+            public void mouse(long time, int opcode, int x, int y, int button) {
+                mice.add(time, sequence++, opcode, button, x, y);
+            }
+        });
+        EventTimeline mouseTimeline = mice.build();
+        EventTimeline simplified = simplify(mouseTimeline, epsilon);
+        EventTimeline merged = EventTimeline.merge(keys.build(), simplified);
+
+        // recreate the events in merged order so their sequence numbers keep the interleaving
+        List<KeyEvent> keyEvents = new ArrayList<>();
+        List<MouseEvent> mouseEvents = new ArrayList<>();
+        for (int i = 0; i < merged.size(); i++) {
+            String context = MacroFormat.contextOf(merged.opcode(i));
+            if (MacroFormat.isKeyOpcode(merged.opcode(i))) {
+                keyEvents.add(new KeyEvent(merged.time(i), merged.code(i), context));
+            } else {
+                mouseEvents.add(new MouseEvent(merged.time(i), merged.x(i), merged.y(i), merged.code(i), context));
+            }
+        }
+        // write next to the destination and move it into place, so a failed write leaves the old macro intact and
+        // compacting a macro onto itself never appends to the original
+        Path target = out.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            if (binary) {
+                new BinaryWriter().writeToFile(tmp.toFile(), keyEvents, mouseEvents);
+            } else {
+                new Writer(Writer.Type.KEY).writeToFile(tmp.toFile(), keyEvents);
+                new Writer(Writer.Type.MOUSE).writeToFile(tmp.toFile(), mouseEvents);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return describeReduction(mouseTimeline.size(), simplified.size());
+    }
+
+    /**
+     * Describes how many mouse events were removed, e.g. {@code 12000 -> 800 mouse events (93.3% fewer)}.
+     */
+    public static String describeReduction(int before, int after) {
+        double percent = before == 0 ? 0 : 100.0 * (before - after) / before;
+        return String.format("%d -> %d mouse events (%.1f%% fewer)", before, after, percent);
+    }
+
+    // marks which events to keep; runs of equal move opcodes are simplified independently
+    static boolean[] keepMask(long[] times, int[] opcodes, int[] xs, int[] ys, double epsilon, long maxGapMicros) {
+        int n = opcodes.length;
+        boolean[] keep = new boolean[n];
+        int i = 0;
+        while (i < n) {
+            if (!isMove(opcodes[i])) {
+                keep[i++] = true;
+                continue;
+            }
+            int start = i;
+            while (i + 1 < n && opcodes[i + 1] == opcodes[start]) {
+                i++;
+            }
+            simplifyRun(xs, ys, start, i, epsilon * epsilon, keep);
+            limitGaps(times, start, i, maxGapMicros, keep);
+            i++;
+        }
+        return keep;
+    }
+
+    private static boolean isMove(int opcode) {
+        return opcode == MacroFormat.MOUSE_MOVED || opcode == MacroFormat.MOUSE_DRAGGED;
+    }
+
+    // iterative so runs of millions of points cannot overflow the stack
+    private static void simplifyRun(int[] xs, int[] ys, int first, int last, double epsilonSq, boolean[] keep) {
+        keep[first] = true;
+        keep[last] = true;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double maxSq = -1;
+            int index = -1;
+            for (int k = start + 1; k < end; k++) {
+                double d = distanceSq(xs[k], ys[k], xs[start], ys[start], xs[end], ys[end]);
+                if (d > maxSq) {
+                    maxSq = d;
+                    index = k;
+                }
+            }
+            if (index != -1 && maxSq > epsilonSq) {
+                keep[index] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = start;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = end;
+            }
+        }
+    }
+
+    private static void limitGaps(long[] times, int first, int last, long maxGapMicros, boolean[] keep) {
+        long lastKept = times[first];
+        for (int k = first + 1; k <= last; k++) {
+            if (!keep[k] && times[k] - lastKept > maxGapMicros) {
+                keep[k] = true;
+            }
+            if (keep[k]) {
+                lastKept = times[k];
+            }
+        }
+    }
+
+    // squared distance from (px, py) to the segment (ax, ay)-(bx, by)
+    private static double distanceSq(int px, int py, int ax, int ay, int bx, int by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        double cx = ax + t * dx - px;
+        double cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -1,31 +1,99 @@
 package edu.temple.UMB;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * High-level controller that records keyboard and mouse input and writes it to a file.
+ * By default events are collected in memory and written once the stop key is pressed; in streaming mode they are
+ * appended to a binary macro by a {@link StreamingWriter} while recording.
  */
 public class Recorder {
     private static final Logger logger = LogManager.getLogger(Recorder.class);
     private final File outPath;
     private final InputEventRecorder inputEventRecorder;
+    private final boolean binary;
+    // only set in streaming mode
+    private final StreamingWriter stream;
+    // 0 keeps every mouse move
+    private double simplifyEpsilon = 0;
 
     /**
-     * Creates a recorder that writes to {@code outPath} and stops on the given key.
+     * Creates a recorder that writes to {@code outPath} in the text format and stops on the given key.
      * @param outPath destination file
      * @param stopKey key name such as {@code ESCAPE}
      */
     public Recorder(File outPath, String stopKey) {
+        this(outPath, stopKey, false);
+    }
+
+    /**
+     * Creates a recorder that writes to {@code outPath} and stops on the given key.
+     * @param outPath destination file
+     * @param stopKey key name such as {@code ESCAPE}
+     * @param binary whether to save in the compact binary format instead of text
+     */
+    public Recorder(File outPath, String stopKey, boolean binary) {
+        this(outPath, stopKey, binary, false);
+    }
+
+    /**
+     * Creates a recorder that writes to {@code outPath} and stops on the given key.
+     * @param outPath destination file
+     * @param stopKey key name such as {@code ESCAPE}
+     * @param binary whether to save in the compact binary format instead of text
+     * @param streaming whether to write events to disk while recording; always uses the binary format
+     */
+    public Recorder(File outPath, String stopKey, boolean binary, boolean streaming) {
         this.outPath = outPath;
-        this.inputEventRecorder = new InputEventRecorder(stopKey);
+        this.binary = binary || streaming;
+        this.stream = streaming ? openStream(outPath) : null;
+        this.inputEventRecorder = new InputEventRecorder(stopKey, stream);
+    }
+
+    private static StreamingWriter openStream(File outPath) {
+        try {
+            return new StreamingWriter(outPath);
+        } catch (IOException e) {
+            logger.fatal("Failed to open {} for streaming", outPath.getAbsolutePath(), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sets how recorded input is echoed to the terminal while recording.
+     * @param mode echo mode, {@link ConsoleEcho.Mode#FULL} by default
+     */
+    public void setEchoMode(ConsoleEcho.Mode mode) {
+        inputEventRecorder.setEchoMode(mode);
+    }
+
+    /**
+     * Simplifies the recorded mouse path with {@link PathSimplifier} before it is saved.
+     * Has no effect in streaming mode, where events are already on disk when recording stops.
+     * @param epsilon largest allowed path error in pixels; {@code 0} (the default) keeps every move
+     */
+    public void setSimplifyEpsilon(double epsilon) {
+        this.simplifyEpsilon = epsilon;
+    }
+
+    /**
+     * Ends the recording from another thread as if the stop key was pressed; {@link #start()} then saves the events.
+     */
+    public void stop() {
+        inputEventRecorder.stopRecording();
     }
 
     /**
      * Starts recording until the stop key is pressed, then writes events to {@code outPath}.
+     * Errors are logged rather than thrown.
+     * @return {@code true} if the events were saved, {@code false} if recording or writing failed
      */
-    public void start() {
+    public boolean start() {
         try {
             System.out.println("Recording started. Press your specified stopkey to stop (default is ESC)...");
             logger.info("Recording started. Waiting for stop key...");
@@ -35,20 +103,37 @@ public class Recorder {
             while (inputEventRecorder.isRecording()) {
                 Thread.sleep(200);
             }
+            inputEventRecorder.finishRecording();
 
             System.out.println("Recording stopped, saving file...");
             logger.info("Recording stopped. Saving to file: {}", outPath.getAbsolutePath());
 
-            Writer keyWriter = new Writer(Writer.Type.KEY);
-            keyWriter.writeToFile(outPath, inputEventRecorder.getKeyEvents());
-            Writer mouseWriter = new Writer(Writer.Type.MOUSE);
-            mouseWriter.writeToFile(outPath, inputEventRecorder.getMouseEvents());
+            List<MouseEvent> mouseEvents = inputEventRecorder.getMouseEvents();
+            if (stream == null && simplifyEpsilon > 0) {
+                int before = mouseEvents.size();
+                mouseEvents = PathSimplifier.simplify(mouseEvents, simplifyEpsilon);
+                System.out.println("Simplified mouse path: " + PathSimplifier.describeReduction(before, mouseEvents.size()));
+            }
+
+            if (stream != null) {
+                stream.close();
+            } else if (binary) {
+                new BinaryWriter().writeToFile(outPath, inputEventRecorder.getKeyEvents(), mouseEvents);
+            } else {
+                Writer keyWriter = new Writer(Writer.Type.KEY);
+                keyWriter.writeToFile(outPath, inputEventRecorder.getKeyEvents());
+                Writer mouseWriter = new Writer(Writer.Type.MOUSE);
+                mouseWriter.writeToFile(outPath, mouseEvents);
+            }
 
             System.out.println("Saved recorded events to: " + outPath.getAbsolutePath());
             logger.info("Saved recorded events to: {}", outPath.getAbsolutePath());
+            return true;
 
-        } catch (Exception e) {
+        } catch (Exception | LinkageError e) {
+            // a LinkageError means the native hook library could not be loaded
             logger.error("Error during recording or writing to file {}", outPath.getAbsolutePath(), e);
+            return false;
         }
     }
 }
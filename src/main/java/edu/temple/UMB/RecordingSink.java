@@ -0,0 +1,50 @@
+package edu.temple.UMB;
+
+/**
+ * {@link InputSink} that performs no input and captures every action with the {@link System#nanoTime()} it arrived at.
+ * Actions are stored as {@link MacroFormat} opcodes in an {@link EventTimeline}: key presses and releases as
+ * {@link MacroFormat#KEY_PRESSED}/{@link MacroFormat#KEY_RELEASED}, pointer moves as {@link MacroFormat#MOUSE_MOVED}
+ * and button presses and releases as {@link MacroFormat#MOUSE_PRESSED}/{@link MacroFormat#MOUSE_RELEASED}
+ * (without coordinates, since the replayers move the pointer first).
+ * Comparing the captured timeline with the replayed one gives both ordering and timing accuracy.
+ */
+public class RecordingSink implements InputSink {
+    private final EventTimeline.Builder actions = new EventTimeline.Builder();
+
+    @Override
+    public void keyPress(int keyCode) {
+        capture(MacroFormat.KEY_PRESSED, keyCode, 0, 0);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        capture(MacroFormat.KEY_RELEASED, keyCode, 0, 0);
+    }
+
+    @Override
+    public void mouseMove(int x, int y) {
+        capture(MacroFormat.MOUSE_MOVED, 0, x, y);
+    }
+
+    @Override
+    public void mousePress(int buttons) {
+        capture(MacroFormat.MOUSE_PRESSED, buttons, 0, 0);
+    }
+
+    @Override
+    public void mouseRelease(int buttons) {
+        capture(MacroFormat.MOUSE_RELEASED, buttons, 0, 0);
+    }
+
+    // the clock is read inside the lock so captured times never go backwards between threads
+    private synchronized void capture(int opcode, int code, int x, int y) {
+        actions.add(System.nanoTime(), opcode, code, x, y);
+    }
+
+    /**
+     * Returns the actions captured so far in arrival order; times are {@link System#nanoTime()} values.
+     */
+    public synchronized EventTimeline getActions() {
+        return actions.build();
+    }
+}
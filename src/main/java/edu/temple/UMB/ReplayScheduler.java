@@ -0,0 +1,297 @@
+package edu.temple.UMB;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Dispatches the events of an {@link EventTimeline} at their timestamps from a single dedicated thread.
+ * Instead of queueing one task per event, the thread walks the (already sorted) timeline with a cursor and
+ * parks until the next event is due, so scheduling a macro allocates nothing per event.
+ * The thread is created up front and waits until {@link #start(long)} provides the reference time.
+ * After an iteration it goes back to waiting, so the same scheduler (and thread) can replay the timeline
+ * any number of times by resetting its cursor; {@link #shutdownNow()} ends the thread for good. The interrupt is checked
+ * before every event, so a shutdown also ends catch-up bursts and timelines whose events are all due at once, and the
+ * shutdown callback runs on the dispatch thread after its last event, so nothing is dispatched after it.
+ * <p>
+ * Waiting uses {@link LockSupport#parkNanos} by default, which is subject to OS timer slack. With a spin threshold
+ * (see {@link #setSpinThresholdNanos(long)}) the thread parks only until that long before the deadline and then
+ * busy-spins with {@link Thread#onSpinWait()}, trading CPU for sub-millisecond accuracy.
+ * How late each event was dispatched is recorded in a {@link LatencyHistogram}, and as a
+ * {@link FlightEvents.Dispatch} event while a flight recording is running. Whether one is running is checked once per
+ * iteration, so without a recording no event objects are created; a recording started mid-iteration is picked up by
+ * the next one.
+ * <p>
+ * When the thread falls behind (a GC pause, a slow sink), every late event is normally still dispatched in a burst.
+ * With {@link CatchUp#COALESCE} a pointer move is skipped if the event right after it is also a move and already due,
+ * so the pointer jumps to the latest due position; key events and button presses and releases are never skipped.
+ */
+public class ReplayScheduler {
+    private static final Logger logger = LogManager.getLogger(ReplayScheduler.class);
+
+    /**
+     * Executes the event at a given index of the scheduled timeline.
+     */
+    public interface Dispatcher {
+        /**
+         * Called on the scheduler thread once event {@code i} is due.
+         * @param i index into the scheduled timeline
+         */
+        void dispatch(int i);
+    }
+
+    /**
+     * What to do with events that are already overdue when the dispatch thread gets to them.
+     */
+    public enum CatchUp {
+        /** dispatch every event, however late */
+        ALL,
+        /** skip pointer moves that a later, already due move supersedes */
+        COALESCE;
+
+        /**
+         * Parses a policy name case-insensitively.
+         * @return the policy, or {@code null} if the name is unknown
+         */
+        public static CatchUp parse(String name) {
+            for (CatchUp c : values()) {
+                if (c.name().equalsIgnoreCase(name)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final EventTimeline timeline;
+    private final Dispatcher dispatcher;
+    private final Runnable onFinish;
+    private final Runnable onShutdown;
+    private final Semaphore startSignal = new Semaphore(0);
+    // replaced for every iteration so callers can wait for the one they started
+    private volatile CountDownLatch doneLatch = new CountDownLatch(1);
+    // whether the latest iteration was cut short by shutdownNow, written before its latch counts down
+    private volatile boolean interrupted;
+    private final Thread thread;
+    private volatile long startNano;
+    private volatile long spinThresholdNanos = 0L;
+    private volatile CatchUp catchUp = CatchUp.ALL;
+    // only written by the dispatch thread, published with ordered stores so metrics can read them while dispatching
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    // only touched by the dispatch thread, which copies it into published at the end of every iteration
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    // guarded by itself, so other threads can read it while an iteration is running
+    private final LatencyHistogram published = new LatencyHistogram();
+
+    /**
+     * Creates the scheduler and its (waiting) dispatch thread.
+     * @param name name of the dispatch thread
+     * @param timeline events to dispatch, ordered by time; timestamps are microseconds from start
+     * @param dispatcher called for each event when it is due
+     * @param onFinish called on the dispatch thread after the last event of every iteration, unless interrupted
+     */
+    public ReplayScheduler(String name, EventTimeline timeline, Dispatcher dispatcher, Runnable onFinish) {
+        this(name, timeline, dispatcher, onFinish, () -> {});
+    }
+
+    /**
+     * Creates the scheduler and its (waiting) dispatch thread.
+     * @param name name of the dispatch thread
+     * @param timeline events to dispatch, ordered by time; timestamps are microseconds from start
+     * @param dispatcher called for each event when it is due
+     * @param onFinish called on the dispatch thread after the last event of every iteration, unless interrupted
+     * @param onShutdown called on the dispatch thread once it ends after {@link #shutdownNow()}, e.g. to release held keys
+     */
+    public ReplayScheduler(String name, EventTimeline timeline, Dispatcher dispatcher, Runnable onFinish, Runnable onShutdown) {
+        this.timeline = timeline;
+        this.dispatcher = dispatcher;
+        this.onFinish = onFinish;
+        this.onShutdown = onShutdown;
+        this.thread = new Thread(this::run, name);
+        // an idle scheduler must never keep the JVM alive
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts one iteration over the timeline. Event timestamps are measured from {@code startNano}.
+     * Should only be called once the previous iteration has finished.
+     * @param startNano reference point from {@link System#nanoTime()}
+     */
+    public void start(long startNano) {
+        this.startNano = startNano;
+        interrupted = false;
+        doneLatch = new CountDownLatch(1);
+        startSignal.release();
+    }
+
+    /**
+     * Waits for the last event (and the finish callback) of the current iteration to be dispatched.
+     * @return {@code true} if dispatching finished within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return doneLatch.await(timeout, unit);
+    }
+
+    /**
+     * Returns whether the latest iteration was cut short by {@link #shutdownNow()} instead of dispatching every event.
+     * Only meaningful once {@link #awaitTermination(long, TimeUnit)} returned {@code true}.
+     */
+    public boolean wasInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Sets how long before each deadline the dispatch thread stops parking and starts spinning.
+     * {@code 0} (the default) never spins.
+     * @param spinThresholdNanos spin window in nanoseconds
+     */
+    public void setSpinThresholdNanos(long spinThresholdNanos) {
+        this.spinThresholdNanos = Math.max(0L, spinThresholdNanos);
+    }
+
+    /**
+     * Sets how overdue events are handled, {@link CatchUp#ALL} by default.
+     * @param catchUp the catch-up policy
+     */
+    public void setCatchUp(CatchUp catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * Returns how many pointer moves were skipped by {@link CatchUp#COALESCE}, across all iterations so far.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns how many events were dispatched, across all iterations so far.
+     */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * Returns how late each event was dispatched, across all iterations that have ended so far.
+     * Safe to call while an iteration is running; the events of that iteration are not included yet.
+     * @return a new histogram
+     */
+    public LatencyHistogram getLateness() {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (published) {
+            copy.add(published);
+        }
+        return copy;
+    }
+
+    /**
+     * Stops dispatching as soon as possible and ends the dispatch thread. Events not yet dispatched are dropped.
+     * Does not wait, see {@link #awaitShutdown(long, TimeUnit)}.
+     */
+    public void shutdownNow() {
+        thread.interrupt();
+    }
+
+    /**
+     * Waits for the dispatch thread to end after {@link #shutdownNow()}, including its shutdown callback.
+     * @return {@code true} if the thread ended within the timeout; {@code false} if called from the dispatch thread itself
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitShutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.currentThread() == thread) {
+            return false;
+        }
+        unit.timedJoin(thread, timeout);
+        return !thread.isAlive();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                try {
+                    startSignal.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                CountDownLatch done = doneLatch;
+                try {
+                    runOnce();
+                    onFinish.run();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    logger.info("{} interrupted, remaining events dropped", thread.getName());
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("{} failed while dispatching", thread.getName(), e);
+                } finally {
+                    synchronized (published) {
+                        published.reset();
+                        published.add(lateness);
+                    }
+                    done.countDown();
+                }
+            }
+        } finally {
+            onShutdown.run();
+        }
+    }
+
+    private void runOnce() throws InterruptedException {
+        int n = timeline.size();
+        long spin = spinThresholdNanos;
+        boolean coalesce = catchUp == CatchUp.COALESCE;
+        boolean record = FlightEvents.dispatchEnabled();
+        for (int i = 0; i < n; i++) {
+            long target = startNano + TimeUnit.MICROSECONDS.toNanos(timeline.time(i));
+            long now;
+            while ((now = System.nanoTime()) < target) {
+                long remaining = target - now;
+                if (remaining > spin) {
+                    LockSupport.parkNanos(remaining - spin);
+                } else {
+                    Thread.onSpinWait();
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            // overdue events skip the wait above, so check here too or a catch-up burst would outlive a shutdown
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (coalesce && i + 1 < n && isMove(i) && isMove(i + 1)
+                    && now >= startNano + TimeUnit.MICROSECONDS.toNanos(timeline.time(i + 1))) {
+                coalesced.lazySet(coalesced.get() + 1);
+                continue;
+            }
+            lateness.record(now - target);
+            FlightEvents.Dispatch event = null;
+            if (record) {
+                event = new FlightEvents.Dispatch();
+                event.begin();
+            }
+            dispatcher.dispatch(i);
+            if (event != null && event.shouldCommit()) {
+                event.index = i;
+                event.opcode = timeline.opcode(i);
+                event.code = timeline.code(i);
+                event.target = target - startNano;
+                event.lateness = now - target;
+                event.commit();
+            }
+            dispatched.lazySet(dispatched.get() + 1);
+        }
+    }
+
+    private boolean isMove(int i) {
+        int opcode = timeline.opcode(i);
+        return opcode == MacroFormat.MOUSE_MOVED || opcode == MacroFormat.MOUSE_DRAGGED;
+    }
+}
@@ -0,0 +1,102 @@
+package edu.temple.UMB;
+
+import java.util.Arrays;
+
+/**
+ * Describes how recorded timestamps are mapped to replay time: a speed factor and an optional cap on idle gaps.
+ * The mapping is computed over the union of all timelines of a macro, so key and mouse events are shifted by exactly
+ * the same amount and keep their recorded interleaving. Every gap between consecutive event times (including the
+ * delay before the first event) is first capped at {@link #getMaxGapMicros()} and then divided by {@link #getSpeed()}.
+ * An infinite speed replays every event as fast as possible, still in recorded order.
+ */
+public final class ReplayTiming {
+    /**
+     * Replays at exactly the recorded deltas.
+     */
+    public static final ReplayTiming REALTIME = new ReplayTiming(1.0, Long.MAX_VALUE);
+
+    private final double speed;
+    private final long maxGapMicros;
+
+    /**
+     * @param speed replay speed factor, e.g. {@code 2.0} for twice as fast; {@link Double#POSITIVE_INFINITY} for as fast as possible
+     * @param maxGapMicros longest pause kept between two events in recorded microseconds, {@link Long#MAX_VALUE} to keep all pauses
+     * @throws IllegalArgumentException if {@code speed} is not positive or {@code maxGapMicros} is negative
+     */
+    public ReplayTiming(double speed, long maxGapMicros) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive: " + speed);
+        }
+        if (maxGapMicros < 0) {
+            throw new IllegalArgumentException("Maximum gap must not be negative: " + maxGapMicros);
+        }
+        this.speed = speed;
+        this.maxGapMicros = maxGapMicros;
+    }
+
+    /**
+     * Returns the speed factor.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Returns the longest kept pause in microseconds.
+     */
+    public long getMaxGapMicros() {
+        return maxGapMicros;
+    }
+
+    /**
+     * Returns whether this timing leaves timestamps unchanged.
+     */
+    public boolean isRealtime() {
+        return speed == 1.0 && maxGapMicros == Long.MAX_VALUE;
+    }
+
+    /**
+     * Retimes all given timelines with one shared mapping.
+     * @param timelines the timelines of one macro, e.g. its key and mouse timeline
+     * @return the retimed timelines in the same order; the inputs themselves if this timing is {@link #REALTIME}
+     */
+    public EventTimeline[] apply(EventTimeline... timelines) {
+        if (isRealtime()) {
+            return timelines;
+        }
+        EventTimeline union = EventTimeline.merge(timelines);
+        long[] recorded = new long[union.size()];
+        long[] mapped = new long[union.size()];
+        long previous = 0;
+        double replayTime = 0;
+        for (int i = 0; i < union.size(); i++) {
+            recorded[i] = union.time(i);
+            // the first event is measured from the start of the recording, so a long wait before it is capped too
+            replayTime += Math.min(Math.max(0L, recorded[i] - previous), maxGapMicros) / speed;
+            mapped[i] = Double.isInfinite(speed) ? 0L : Math.round(replayTime);
+            previous = Math.max(previous, recorded[i]);
+        }
+
+        EventTimeline[] retimed = new EventTimeline[timelines.length];
+        for (int k = 0; k < timelines.length; k++) {
+            EventTimeline t = timelines[k];
+            EventTimeline.Builder builder = new EventTimeline.Builder();
+            for (int i = 0; i < t.size(); i++) {
+                // equal recorded times map to equal replay times, so any match will do
+                long time = mapped[Arrays.binarySearch(recorded, t.time(i))];
+                builder.add(time, t.sequence(i), t.opcode(i), t.code(i), t.x(i), t.y(i));
+            }
+            retimed[k] = builder.build();
+        }
+        return retimed;
+    }
+
+    @Override
+    public String toString() {
+        String s = Double.isInfinite(speed) ? "max speed" : speed + "x";
+        if (maxGapMicros != Long.MAX_VALUE) {
+            s += ", idle gaps capped at " + MacroFormat.formatMillis(maxGapMicros) + " ms";
+        }
+        return s;
+    }
+}
@@ -1,10 +1,6 @@
 package edu.temple.UMB;
 
 import java.io.File;
-import java.util.LinkedHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
@@ -13,21 +9,41 @@ import org.apache.logging.log4j.Logger;
 /**
  * Loads, translates, and replays recorded input events.
  * This class coordinates both keyboard and mouse replayers. Events are loaded from
- * a file using dedicated loader classes, translated into AWT-friendly representations,
+ * a file in a single pass by {@link MappedLoader} (through the process-wide {@link MacroCache}), translated
+ * (unless an up-to-date {@link CompiledMacro} sidecar provides them already translated) into AWT-friendly representations,
  * and then scheduled for playback. The same input can be replayed multiple times
  * according to the configured repeat count.
+ * In merged mode a single {@link MergedReplayer} dispatches key and mouse events from one thread
+ * in their exact recorded order instead of running a key and a mouse replayer side by side.
+ * All input goes to one {@link InputSink}, which is a {@link RobotSink} unless another sink is given.
  */
-public class Replayer {
+public class Replayer implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger(Replayer.class);
-    private LinkedHashMap<Long, String> loadedJNativeHookEvents = new LinkedHashMap<>();
-    private LinkedHashMap<Long, String> loadedJNativeHookMouseEvents = new LinkedHashMap<>();
+    private EventTimeline loadedJNativeHookEvents = EventTimeline.EMPTY;
+    private EventTimeline loadedJNativeHookMouseEvents = EventTimeline.EMPTY;
+    // true when the loaded events came from a compiled sidecar and already carry AWT codes
+    private boolean translated = false;
+    private long loadedBytes = 0L;
+    // events without an AWT equivalent, skipped by translation
+    private int droppedCount = 0;
 
     private final int repeatCount;
+    private final boolean merged;
 
-    Loader kl;
-    MouseLoader ml;
     KeyReplayer kr;
     MouseReplayer mr;
+    MergedReplayer mgr;
+
+    // iteration bookkeeping used to report the gap between the end of one iteration and the start of the next
+    private volatile int iterations = 0;
+    private long lastIterationEndNano;
+    private long totalGapNano = 0L;
+    private long maxGapNano = 0L;
+    // reference point of the first iteration of the latest replay() call
+    private long replayStartNano;
+    private boolean replayStarting;
+    // set by stop(), ends the remaining iterations
+    private volatile boolean stopped = false;
 
     /**
      * Constructs a new replayer from the given file path.
@@ -38,113 +54,350 @@ public class Replayer {
      * @param repeatCount number of times to replay the macro; use -1 for infinite
      */
     public Replayer(String inPath, int repeatCount){
+        this(inPath, repeatCount, false);
+    }
+
+    /**
+     * Constructs a new replayer from the given file path.
+     *
+     * @param inPath path to the input file containing recorded JNativeHook events
+     * @param repeatCount number of times to replay the macro; use -1 for infinite
+     * @param merged whether to replay key and mouse events as one merged timeline from a single thread
+     */
+    public Replayer(String inPath, int repeatCount, boolean merged){
+        this(inPath, repeatCount, merged, RobotSink.forAllScreens());
+    }
+
+    /**
+     * Constructs a new replayer from the given file path that sends its input to the given sink.
+     * With a {@link CountingSink} or {@link RecordingSink} replay needs no display.
+     *
+     * @param inPath path to the input file containing recorded JNativeHook events
+     * @param repeatCount number of times to replay the macro; use -1 for infinite
+     * @param merged whether to replay key and mouse events as one merged timeline from a single thread
+     * @param sink receives every replayed key and mouse action
+     */
+    public Replayer(String inPath, int repeatCount, boolean merged, InputSink sink){
+        this(inPath, repeatCount, merged, sink, ReplayTiming.REALTIME);
+    }
+
+    /**
+     * Constructs a new replayer from the given file path that sends its input to the given sink and replays
+     * with the given speed factor and idle-gap cap. Key and mouse events are retimed with one shared mapping,
+     * so their interleaving is kept.
+     *
+     * @param inPath path to the input file containing recorded JNativeHook events
+     * @param repeatCount number of times to replay the macro; use -1 for infinite
+     * @param merged whether to replay key and mouse events as one merged timeline from a single thread
+     * @param sink receives every replayed key and mouse action
+     * @param timing how recorded timestamps map to replay time
+     */
+    public Replayer(String inPath, int repeatCount, boolean merged, InputSink sink, ReplayTiming timing){
         File inFile = new File(inPath);
         this.repeatCount = repeatCount;
+        this.merged = merged;
 
         logger.info("Initializing Replayer with file: {}", inFile.getAbsolutePath());
         logger.info("Repeat count set to: {}", repeatCount);
 
-        kl = new Loader(inFile);
-
-        // load events from file
+        // load both key and mouse events in one pass over the mapped file, or reuse them if this process loaded the unchanged file before
         try {
-            loadedJNativeHookEvents = kl.loadJNativeEventsFromFile();
-            logger.info("Loaded {} raw key events from file {}", loadedJNativeHookEvents.size(), inFile.getAbsolutePath());
-            for (Long key : loadedJNativeHookEvents.keySet()) {
-                logger.debug("{} - {}", key, loadedJNativeHookEvents.get(key));
-            }
+            MacroCache.Macro macro = MacroCache.shared().get(inFile);
+            loadedJNativeHookEvents = macro.getKeys();
+            loadedJNativeHookMouseEvents = macro.getMice();
+            translated = macro.isTranslated();
+            loadedBytes = macro.estimatedBytes();
+            logger.info("Loaded {} raw key events and {} raw mouse events from file {}", loadedJNativeHookEvents.size(), loadedJNativeHookMouseEvents.size(), inFile.getAbsolutePath());
         } catch (Exception ex) {
-            logger.error("Failed to load key events from file {}", inFile.getAbsolutePath(), ex);
+            logger.error("Failed to load events from file {}", inFile.getAbsolutePath(), ex);
         }
 
-        ml = new MouseLoader(inFile);
+        if (!timing.isRealtime()) {
+            long before = Math.max(loadedJNativeHookEvents.lastTime(), loadedJNativeHookMouseEvents.lastTime());
+            EventTimeline[] retimed = timing.apply(loadedJNativeHookEvents, loadedJNativeHookMouseEvents);
+            loadedJNativeHookEvents = retimed[0];
+            loadedJNativeHookMouseEvents = retimed[1];
+            long after = Math.max(loadedJNativeHookEvents.lastTime(), loadedJNativeHookMouseEvents.lastTime());
+            logger.info("Replay timing {}: {} ms recorded, {} ms per iteration", timing, MacroFormat.formatMillis(before), MacroFormat.formatMillis(after));
+        }
 
-        try {
-            loadedJNativeHookMouseEvents = ml.loadJNativeEventsFromFile();
-            logger.info("Loaded {} raw mouse events from file {}", loadedJNativeHookMouseEvents.size(), inFile.getAbsolutePath());
-            for (Long key : loadedJNativeHookMouseEvents.keySet()) {
-                logger.debug("{} - {}", key, loadedJNativeHookMouseEvents.get(key));
-            }
-        } catch (Exception ex) {
-            logger.error("Failed to load mouse events from file {}", inFile.getAbsolutePath(), ex);
+        if (merged) {
+            logger.info("Merged replay mode.");
+            mgr = translated
+                    ? MergedReplayer.fromTranslated(loadedJNativeHookEvents, loadedJNativeHookMouseEvents, sink)
+                    : new MergedReplayer(loadedJNativeHookEvents, loadedJNativeHookMouseEvents, sink);
+        } else if (translated) {
+            kr = KeyReplayer.fromTranslated(loadedJNativeHookEvents, sink);
+            mr = MouseReplayer.fromTranslated(loadedJNativeHookMouseEvents, sink);
+        } else {
+            kr = new KeyReplayer(loadedJNativeHookEvents, sink);
+            mr = new MouseReplayer(loadedJNativeHookMouseEvents, sink);
         }
+        int replayed = merged ? mgr.awtEvents.size() : kr.awtEvents.size() + mr.awtMouseEvents.size();
+        droppedCount = loadedJNativeHookEvents.size() + loadedJNativeHookMouseEvents.size() - replayed;
+    }
+
+    /**
+     * Makes the dispatch threads park only until {@code spinMicros} before each event and busy-spin for the rest,
+     * which improves timing accuracy at the cost of CPU. {@code 0} (the default) only parks.
+     * @param spinMicros spin window in microseconds
+     */
+    public void setSpinMicros(long spinMicros) {
+        for (ReplayScheduler scheduler : schedulers()) {
+            scheduler.setSpinThresholdNanos(TimeUnit.MICROSECONDS.toNanos(spinMicros));
+        }
+        logger.info("Spin threshold set to {} us.", spinMicros);
+    }
+
+    /**
+     * Sets how the dispatch threads catch up after falling behind, see {@link ReplayScheduler.CatchUp}.
+     * @param catchUp the catch-up policy
+     */
+    public void setCatchUp(ReplayScheduler.CatchUp catchUp) {
+        for (ReplayScheduler scheduler : schedulers()) {
+            scheduler.setCatchUp(catchUp);
+        }
+        logger.info("Catch-up policy set to {}.", catchUp);
+    }
+
+    /**
+     * Returns how many stale pointer moves were skipped while catching up, across all iterations so far.
+     */
+    public long getCoalescedCount() {
+        long total = 0;
+        for (ReplayScheduler scheduler : schedulers()) {
+            total += scheduler.getCoalescedCount();
+        }
+        return total;
+    }
+
+    /**
+     * Returns how late events were dispatched across all iterations and dispatch threads so far.
+     * @return a new histogram combining the lateness of every scheduler
+     */
+    public LatencyHistogram getLateness() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (ReplayScheduler scheduler : schedulers()) {
+            total.add(scheduler.getLateness());
+        }
+        return total;
+    }
 
-        kr = new KeyReplayer(loadedJNativeHookEvents);
-        mr = new MouseReplayer(loadedJNativeHookMouseEvents);
+    /**
+     * Returns the number of loaded key and mouse events, i.e. the events replayed per iteration.
+     */
+    public int getEventCount() {
+        return loadedJNativeHookEvents.size() + loadedJNativeHookMouseEvents.size();
+    }
+
+    /**
+     * Returns how many events were dispatched, across all iterations so far.
+     */
+    public long getDispatchedCount() {
+        long total = 0;
+        for (ReplayScheduler scheduler : schedulers()) {
+            total += scheduler.getDispatchedCount();
+        }
+        return total;
     }
 
     /**
-     * Starts the replay of loaded events and waits briefly for completion.
-     * Shuts down the mouse and keyboard replayers execs after scheduling and awaits termination for up to one second.
+     * Returns how many loaded events are never replayed because they have no AWT equivalent.
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns how many iterations have completed so far.
+     */
+    public int getIterationsCompleted() {
+        return iterations;
+    }
+
+    /**
+     * Returns roughly how many bytes of heap the loaded macro takes, see {@link MacroCache}.
+     */
+    public long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    private ReplayScheduler[] schedulers() {
+        if (merged) {
+            return new ReplayScheduler[]{mgr.scheduler};
+        }
+        return new ReplayScheduler[]{kr.scheduler, mr.scheduler};
+    }
+
+    /**
+     * Starts the replay of loaded events and waits for every iteration to complete.
+     * The replayers built in the constructor are reused for every iteration: events are translated once,
+     * and each iteration only resets the schedulers' cursors and restarts them.
      */
     public void start() {
         System.out.println("Starting Replayer. Press CTRL+C to exit Replayer early.");
 
-        // add a shutdown hook to capture ctrl c and empty event queue (ensuring kr was actually initialized)
+        // add a shutdown hook to capture ctrl c and empty event queue
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutting down Replayer early.");
-            if (this.kr != null){
-                this.kr.exec.shutdownNow();
-                this.kr.releaseAllHeld();
-                this.mr.exec.shutdownNow();
-                // TODO: mouse replay release held?
-            }
+            stop();
         }));
 
+        replay();
+    }
 
-        if (repeatCount ==-1){
-            logger.info("Infinite replay mode.");
-            while (true){
-                playOnce();
+    /**
+     * Replays every iteration like {@link #start()}, but without installing a shutdown hook,
+     * for callers such as {@link MacroDaemon} that replay many macros in one process and stop them with {@link #stop()}.
+     * Can be called again once it returned, unless the replayer was stopped.
+     * Interrupting the calling thread ends the replay like {@link #stop()}, including infinite ones: the dispatch threads
+     * have ended when this returns, and the interrupted iteration does not count as completed.
+     */
+    public void replay() {
+        replayStarting = true;
+        UMBMetrics.shared().replayStarted(this);
+        try {
+            if (repeatCount ==-1){
+                logger.info("Infinite replay mode.");
+                while (!stopped && !Thread.currentThread().isInterrupted()){
+                    playOnce();
+                }
             }
-        }
-        else{
-            logger.info("Replaying {} times.", repeatCount);
-            for (int i = 0; i < repeatCount; i++){
-                playOnce();
+            else{
+                logger.info("Replaying {} times.", repeatCount);
+                for (int i = 0; i < repeatCount && !stopped && !Thread.currentThread().isInterrupted(); i++){
+                    playOnce();
+                }
             }
+        } finally {
+            UMBMetrics.shared().replayFinished(this);
+        }
+        if (iterations > 1) {
+            logger.info("Inter-iteration gap over {} iterations: avg {} us, max {} us",
+                    iterations, TimeUnit.NANOSECONDS.toMicros(totalGapNano / (iterations - 1)), TimeUnit.NANOSECONDS.toMicros(maxGapNano));
+        }
+        String lateness = getLateness().summary();
+        System.out.println("[INFO] Event lateness: " + lateness);
+        logger.info("Event lateness: {}", lateness);
+        long coalesced = getCoalescedCount();
+        if (coalesced > 0) {
+            System.out.println("[INFO] Coalesced " + coalesced + " stale mouse moves while catching up.");
+            logger.info("Coalesced {} stale mouse moves while catching up", coalesced);
         }
         logger.info("Replay finished.");
     }
 
-    private void playOnce() {
-        logger.info("Starting replay iteration.");
-
-        this.kr = new KeyReplayer(loadedJNativeHookEvents);
-        this.mr  = new MouseReplayer(loadedJNativeHookMouseEvents);
-
-        ExecutorService exec = Executors.newFixedThreadPool(2);
-        CountDownLatch latch = new CountDownLatch(1);
+    /**
+     * Stops the replay as soon as possible and waits for the dispatch threads to end; they release held keys and
+     * buttons after their last event. Remaining events and iterations are dropped and this replayer cannot be started again.
+     */
+    public void stop() {
+        stopped = true;
+        shutdownSchedulers();
+    }
 
-        exec.submit(() -> {
-            try {
-                latch.await();  // both wait for signal
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    // ends the dispatch threads and waits for them, so nothing is dispatched once this returns
+    private void shutdownSchedulers() {
+        // the caller may be handling its own interrupt, which would fail the wait right away
+        boolean interrupted = Thread.interrupted();
+        try {
+            for (ReplayScheduler scheduler : schedulers()) {
+                scheduler.shutdownNow();
             }
-            kr.start();
-        });
-
-        exec.submit(() -> {
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            for (ReplayScheduler scheduler : schedulers()) {
+                if (!scheduler.awaitShutdown(1, TimeUnit.SECONDS)) {
+                    logger.warn("Replay thread did not end in time.");
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            mr.start();
-        });
+        }
+    }
+
+    /**
+     * Ends the dispatch threads of this replayer once it is no longer needed. Unlike {@link #stop()} it is meant for
+     * replayers that have finished; their results, such as {@link #getLateness()}, stay readable.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        for (ReplayScheduler scheduler : schedulers()) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns whether {@link #stop()} or {@link #close()} was called, after which this replayer cannot replay again.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
 
-        // synchronize start
-        latch.countDown();
+    /**
+     * Returns the {@link System#nanoTime()} reference point that the first iteration of the latest replay measured its
+     * event timestamps from, or {@code 0} if replay has not started.
+     */
+    public long getReplayStartNano() {
+        return replayStartNano;
+    }
+
+    private void playOnce() {
+        // both replayers share one reference point, so no extra threads are needed to line up their start
+        long startNano = System.nanoTime();
+        if (replayStarting) {
+            replayStartNano = startNano;
+            replayStarting = false;
+        }
+        if (iterations > 0) {
+            long gap = startNano - lastIterationEndNano;
+            totalGapNano += gap;
+            maxGapNano = Math.max(maxGapNano, gap);
+            logger.info("Starting replay iteration {} ({} us after the previous one ended).", iterations + 1, TimeUnit.NANOSECONDS.toMicros(gap));
+        } else {
+            logger.info("Starting replay iteration 1.");
+        }
 
+        boolean completed = false;
         try {
-            this.kr.exec.awaitTermination(kr.getMaxDelay() + 100, TimeUnit.MILLISECONDS);
-            this.mr.exec.awaitTermination(mr.getMaxDelay() + 100, TimeUnit.MILLISECONDS);
-            this.kr.releaseAllHeld(); // if for some reason a key is being held make sure it doesnt stay that way
-            // TODO: mouse replay release held?
+            if (merged) {
+                mgr.start(startNano);
+                completed = awaitIteration(mgr.scheduler, mgr.getMaxDelay());
+            } else {
+                kr.start(startNano);
+                mr.start(startNano);
+                boolean keysDone = awaitIteration(kr.scheduler, kr.getMaxDelay());
+                completed = awaitIteration(mr.scheduler, mr.getMaxDelay()) && keysDone;
+            }
         } catch (InterruptedException e) {
-            logger.error("Replay interrupted", e);
+            logger.info("Replay interrupted.");
             Thread.currentThread().interrupt();
         }
+        lastIterationEndNano = System.nanoTime();
+        if (completed) {
+            iterations++;
+        } else {
+            // interrupted or stopped: the dispatch threads must not keep going once replay() returns
+            stopped = true;
+            shutdownSchedulers();
+        }
+    }
+
+    // waits for the scheduler to finish its iteration. the next iteration must not start while this one is still running,
+    // so after the expected duration has passed we warn and keep waiting instead of moving on.
+    // returns whether every event of the iteration was dispatched
+    private boolean awaitIteration(ReplayScheduler scheduler, long maxDelay) throws InterruptedException {
+        if (!scheduler.awaitTermination(maxDelay + 100, TimeUnit.MILLISECONDS)) {
+            logger.warn("Replay iteration is running late, waiting for it to finish.");
+            while (!scheduler.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (Thread.currentThread().isInterrupted() || stopped) {
+                    return false;
+                }
+            }
+        }
+        return !scheduler.wasInterrupted();
     }
 }
@@ -0,0 +1,117 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.*;
+
+/**
+ * {@link InputSink} that emits real OS input through {@link Robot}.
+ * There is one robot per screen of its {@link ScreenLayout}. Recorded coordinates are mapped to the screen they
+ * fall on once per macro by {@link #resolve(EventTimeline)}, so a replayed move only picks that screen's robot.
+ * Button presses go through the robot of the screen the pointer was last moved to, keys through the first robot.
+ */
+public class RobotSink implements InputSink {
+    private static final Logger logger = LogManager.getLogger(RobotSink.class);
+    private final Robot[] robots;
+    private final ScreenLayout layout;
+    // screen of the last move, button presses follow the pointer; volatile as one sink serves every replay thread
+    private volatile int currentScreen = 0;
+
+    /**
+     * Wraps an existing robot for a single screen.
+     * @param robot the robot used to emit input
+     * @param scaleFactor recorded coordinates are divided by this before moving the pointer
+     */
+    public RobotSink(Robot robot, double scaleFactor) {
+        this(new Robot[]{robot}, ScreenLayout.uniform(scaleFactor));
+    }
+
+    /**
+     * Wraps one robot per screen of the layout.
+     * @param robots the robot of each screen, in layout order
+     * @param layout the screens recorded coordinates are mapped onto
+     * @throws IllegalArgumentException if there is not exactly one robot per screen
+     */
+    public RobotSink(Robot[] robots, ScreenLayout layout) {
+        if (robots.length != layout.size()) {
+            throw new IllegalArgumentException("Need one robot per screen");
+        }
+        this.robots = robots.clone();
+        this.layout = layout;
+    }
+
+    /**
+     * Creates a sink for the default screen, scaled by its resolution relative to 96 DPI.
+     * @return the new sink
+     * @throws RuntimeException if the {@link Robot} cannot be created (e.g. in a headless environment)
+     */
+    public static RobotSink forDefaultScreen() throws RuntimeException {
+        try {
+            GraphicsDevice defaultScreen = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            double scaleFactor = Toolkit.getDefaultToolkit().getScreenResolution() / 96.0;
+            return new RobotSink(new Robot(defaultScreen), scaleFactor);
+        } catch (AWTException | HeadlessException e) {
+            logger.fatal("Failed to initialize Robot for replay", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a sink with one robot for every screen of the local desktop, so macros recorded across several
+     * monitors replay on the monitor they were recorded on.
+     * @return the new sink
+     * @throws RuntimeException if a {@link Robot} cannot be created (e.g. in a headless environment)
+     */
+    public static RobotSink forAllScreens() throws RuntimeException {
+        try {
+            GraphicsDevice[] screens = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+            Robot[] robots = new Robot[screens.length];
+            for (int s = 0; s < screens.length; s++) {
+                robots[s] = new Robot(screens[s]);
+            }
+            logger.info("Created robots for {} screens", screens.length);
+            return new RobotSink(robots, ScreenLayout.of(screens));
+        } catch (AWTException | HeadlessException e) {
+            logger.fatal("Failed to initialize Robot for replay", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void keyPress(int keyCode) {
+        robots[0].keyPress(keyCode);
+    }
+
+    @Override
+    public void keyRelease(int keyCode) {
+        robots[0].keyRelease(keyCode);
+    }
+
+    @Override
+    public void mouseMove(int x, int y) {
+        int screen = layout.screenAt(x, y);
+        mouseMoveResolved(screen, layout.toUserX(screen, x), layout.toUserY(screen, y));
+    }
+
+    @Override
+    public DevicePoints resolve(EventTimeline events) {
+        return layout.resolve(events);
+    }
+
+    @Override
+    public void mouseMoveResolved(int screen, int x, int y) {
+        currentScreen = screen;
+        robots[screen].mouseMove(x, y);
+    }
+
+    @Override
+    public void mousePress(int buttons) {
+        robots[currentScreen].mousePress(buttons);
+    }
+
+    @Override
+    public void mouseRelease(int buttons) {
+        robots[currentScreen].mouseRelease(buttons);
+    }
+}
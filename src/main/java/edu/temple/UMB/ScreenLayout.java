@@ -0,0 +1,195 @@
+package edu.temple.UMB;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+/**
+ * The screens of the desktop and how recorded coordinates map onto them.
+ * JNativeHook records device pixels across the whole desktop, while {@link java.awt.Robot} expects AWT's scaled
+ * user-space coordinates. Each screen keeps its device origin and its user-space origin, and its size in device pixels
+ * is its user-space size times its own scale, so a recorded point is mapped by finding the screen that contains it
+ * and scaling its offset from that screen's device origin onto its user-space origin.
+ * Points outside every screen go to the nearest one.
+ * <p>
+ * {@link #of(GraphicsDevice[])} derives each device origin by applying the screen's default transform to its
+ * user-space origin, which assumes the platform reports a screen's origin scaled by that screen's own scale.
+ * Where a platform reports unscaled device origins instead, build the layout with
+ * {@link #ScreenLayout(Rectangle[], Point[], double[], double[])}.
+ */
+public final class ScreenLayout {
+    private final int[] originX;
+    private final int[] originY;
+    private final int[] userX;
+    private final int[] userY;
+    private final long[] deviceWidth;
+    private final long[] deviceHeight;
+    private final double[] scaleX;
+    private final double[] scaleY;
+
+    /**
+     * Creates a layout from the user-space bounds and scale of every screen, for screens whose device origin
+     * is the same as their user-space origin.
+     * @param userBounds bounds of each screen as reported by {@link GraphicsConfiguration#getBounds()}
+     * @param scaleX horizontal scale of each screen
+     * @param scaleY vertical scale of each screen
+     * @throws IllegalArgumentException if the arrays differ in length, are empty or a scale is not positive
+     */
+    public ScreenLayout(Rectangle[] userBounds, double[] scaleX, double[] scaleY) {
+        this(userBounds, origins(userBounds), scaleX, scaleY);
+    }
+
+    /**
+     * Creates a layout from the user-space bounds, device origin and scale of every screen.
+     * @param userBounds bounds of each screen as reported by {@link GraphicsConfiguration#getBounds()}
+     * @param deviceOrigins top left corner of each screen in device pixels, as recorded by JNativeHook
+     * @param scaleX horizontal scale of each screen
+     * @param scaleY vertical scale of each screen
+     * @throws IllegalArgumentException if the arrays differ in length, are empty or a scale is not positive
+     */
+    public ScreenLayout(Rectangle[] userBounds, Point[] deviceOrigins, double[] scaleX, double[] scaleY) {
+        if (userBounds.length == 0 || userBounds.length != deviceOrigins.length
+                || userBounds.length != scaleX.length || userBounds.length != scaleY.length) {
+            throw new IllegalArgumentException("Need one bounds, origin and scale per screen");
+        }
+        int n = userBounds.length;
+        originX = new int[n];
+        originY = new int[n];
+        userX = new int[n];
+        userY = new int[n];
+        deviceWidth = new long[n];
+        deviceHeight = new long[n];
+        this.scaleX = scaleX.clone();
+        this.scaleY = scaleY.clone();
+        for (int s = 0; s < n; s++) {
+            if (!(scaleX[s] > 0) || !(scaleY[s] > 0)) {
+                throw new IllegalArgumentException("Screen scale must be positive");
+            }
+            originX[s] = deviceOrigins[s].x;
+            originY[s] = deviceOrigins[s].y;
+            userX[s] = userBounds[s].x;
+            userY[s] = userBounds[s].y;
+            deviceWidth[s] = (long) Math.ceil(userBounds[s].width * scaleX[s]);
+            deviceHeight[s] = (long) Math.ceil(userBounds[s].height * scaleY[s]);
+        }
+    }
+
+    private static Point[] origins(Rectangle[] bounds) {
+        Point[] origins = new Point[bounds.length];
+        for (int s = 0; s < bounds.length; s++) {
+            origins[s] = bounds[s].getLocation();
+        }
+        return origins;
+    }
+
+    /**
+     * Creates a layout of a single unbounded screen at the origin that divides every coordinate by {@code scale}.
+     * @param scale recorded coordinates are divided by this
+     * @return the layout
+     */
+    public static ScreenLayout uniform(double scale) {
+        return new ScreenLayout(new Rectangle[]{new Rectangle(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE)},
+                new double[]{scale}, new double[]{scale});
+    }
+
+    /**
+     * Reads the layout of the given screens, deriving device origins from their default transforms.
+     * @param devices the screens, the index of each becomes its screen index
+     * @return the layout
+     */
+    public static ScreenLayout of(GraphicsDevice[] devices) {
+        Rectangle[] bounds = new Rectangle[devices.length];
+        Point[] origins = new Point[devices.length];
+        double[] sx = new double[devices.length];
+        double[] sy = new double[devices.length];
+        for (int s = 0; s < devices.length; s++) {
+            GraphicsConfiguration gc = devices[s].getDefaultConfiguration();
+            AffineTransform transform = gc.getDefaultTransform();
+            bounds[s] = gc.getBounds();
+            Point2D origin = transform.transform(new Point2D.Double(bounds[s].x, bounds[s].y), null);
+            origins[s] = new Point((int) Math.round(origin.getX()), (int) Math.round(origin.getY()));
+            sx[s] = transform.getScaleX();
+            sy[s] = transform.getScaleY();
+        }
+        return new ScreenLayout(bounds, origins, sx, sy);
+    }
+
+    /**
+     * Reads the layout of every screen of the local desktop.
+     * @return the layout, screen indexes follow {@link GraphicsEnvironment#getScreenDevices()}
+     * @throws HeadlessException if there is no display
+     */
+    public static ScreenLayout ofLocalScreens() throws HeadlessException {
+        return of(GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices());
+    }
+
+    /**
+     * Returns the number of screens.
+     */
+    public int size() {
+        return originX.length;
+    }
+
+    /**
+     * Returns the screen containing a recorded point, or the nearest screen if none does.
+     * @param x recorded x coordinate
+     * @param y recorded y coordinate
+     * @return the screen index
+     */
+    public int screenAt(int x, int y) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int s = 0; s < originX.length; s++) {
+            // squared distance from the point to the screen's device rectangle, 0 when inside
+            long dx = Math.max(0L, Math.max(originX[s] - (long) x, x - (originX[s] + deviceWidth[s] - 1)));
+            long dy = Math.max(0L, Math.max(originY[s] - (long) y, y - (originY[s] + deviceHeight[s] - 1)));
+            long distance = dx * dx + dy * dy;
+            if (distance == 0) {
+                return s;
+            }
+            if (distance < bestDistance) {
+                best = s;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Maps a recorded x coordinate to user space on the given screen.
+     */
+    public int toUserX(int screen, int x) {
+        return userX[screen] + (int) ((x - originX[screen]) / scaleX[screen]);
+    }
+
+    /**
+     * Maps a recorded y coordinate to user space on the given screen.
+     */
+    public int toUserY(int screen, int y) {
+        return userY[screen] + (int) ((y - originY[screen]) / scaleY[screen]);
+    }
+
+    /**
+     * Resolves the screen and user-space coordinates of every event once, ahead of replay.
+     * @param events events with recorded coordinates
+     * @return the resolved points, one per event
+     */
+    public DevicePoints resolve(EventTimeline events) {
+        int n = events.size();
+        int[] screens = new int[n];
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            int s = screenAt(events.x(i), events.y(i));
+            screens[i] = s;
+            xs[i] = toUserX(s, events.x(i));
+            ys[i] = toUserY(s, events.y(i));
+        }
+        return new DevicePoints(screens, xs, ys);
+    }
+}
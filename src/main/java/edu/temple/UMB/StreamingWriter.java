@@ -0,0 +1,149 @@
+package edu.temple.UMB;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes recorded events to a binary macro while recording is still running.
+ * Events are handed over through a bounded queue to a background thread that appends them to the file
+ * in the {@link BinaryWriter} format and flushes at a fixed interval, so the recorder's memory stays constant
+ * no matter how long the session is. If the process dies, everything up to the last flush is on disk and
+ * {@link MappedLoader} reads the file without its {@link MacroFormat#END} marker, dropping at most a partial last record.
+ * <p>
+ * Events are written in the order they are submitted, which is the order they were recorded in.
+ */
+public class StreamingWriter {
+    private static final Logger logger = LogManager.getLogger(StreamingWriter.class);
+    /**
+     * Default number of events that can wait for the writer thread.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * Default time between flushes to the OS in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 250L;
+    // marks the end of the stream for the writer thread
+    private static final Event CLOSE = new Event(0);
+
+    private final File path;
+    private final BlockingQueue<Event> queue;
+    private final long flushIntervalMs;
+    private final DataOutputStream out;
+    private final Thread thread;
+    private volatile IOException failure;
+    private long written = 0;
+
+    /**
+     * Creates a streaming writer with the default capacity and flush interval and starts its writer thread.
+     * @param path destination file, replaced if it exists
+     * @throws IOException if the file cannot be created
+     */
+    public StreamingWriter(File path) throws IOException {
+        this(path, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Creates a streaming writer and starts its writer thread. The binary header is written immediately.
+     * @param path destination file, replaced if it exists
+     * @param capacity how many events can be queued before {@link #submit(Event)} blocks
+     * @param flushIntervalMs longest time a written event may stay buffered in memory
+     * @throws IOException if the file cannot be created
+     */
+    public StreamingWriter(File path, int capacity, long flushIntervalMs) throws IOException {
+        this.path = path;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.flushIntervalMs = flushIntervalMs;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, false)));
+        BinaryWriter.writeHeader(out);
+        out.flush();
+        this.thread = new Thread(this::run, "macro-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        logger.info("Streaming recorded events to {}", path.getAbsolutePath());
+    }
+
+    /**
+     * Queues a recorded {@link KeyEvent} or {@link MouseEvent} for writing.
+     * Blocks if the queue is full, which only happens when the disk cannot keep up.
+     * @param e the event to write
+     */
+    public void submit(Event e) {
+        try {
+            queue.put(e);
+        } catch (InterruptedException ex) {
+            logger.warn("Interrupted while queueing an event, event dropped");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns how many events are queued and not written yet.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Writes all queued events, the end marker and closes the file.
+     * @return the number of events written
+     * @throws IOException if writing failed at any point
+     * @throws InterruptedException if interrupted while waiting for the writer thread
+     */
+    public long close() throws IOException, InterruptedException {
+        queue.put(CLOSE);
+        thread.join();
+        if (failure != null) {
+            throw failure;
+        }
+        logger.info("Streamed {} events to {}", written, path.getAbsolutePath());
+        return written;
+    }
+
+    private void run() {
+        long last = 0;
+        long lastFlush = System.currentTimeMillis();
+        try (out) {
+            while (true) {
+                Event e = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (e == CLOSE) {
+                    out.writeByte(MacroFormat.END);
+                    break;
+                }
+                if (e instanceof KeyEvent k) {
+                    BinaryWriter.writeKeyRecord(out, MacroFormat.opcodeOf(k.context), k.getDeltaMicros() - last, k.getKeyCode());
+                    last = k.getDeltaMicros();
+                    written++;
+                } else if (e instanceof MouseEvent m) {
+                    BinaryWriter.writeMouseRecord(out, MacroFormat.opcodeOf(m.context), m.getDeltaMicros() - last, m.getX(), m.getY(), m.getButton());
+                    last = m.getDeltaMicros();
+                    written++;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastFlush >= flushIntervalMs) {
+                    out.flush();
+                    lastFlush = now;
+                }
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to stream events to {}", path.getAbsolutePath(), ex);
+            failure = ex;
+            // keep draining so the recorder never blocks on a dead writer
+            drainUntilClosed();
+        } catch (InterruptedException ex) {
+            logger.warn("Writer thread interrupted, {} events written", written);
+        }
+    }
+
+    private void drainUntilClosed() {
+        try {
+            while (queue.take() != CLOSE) {
+                // discard
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package edu.temple.UMB;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide runtime metrics of recording and replay, readable in process through {@link #snapshot()}
+ * and from outside (jconsole, a local scraper) through JMX once {@link #register()} was called.
+ * {@link InputEventRecorder} and {@link Replayer} report when they start and finish; their live counters are read
+ * on demand, so nothing is added to the capture or dispatch path.
+ * Counters cover every recording and replay of the process so far. Lateness percentiles cover the running replays,
+ * or the last finished one when none is running; for running replays they include the iterations that have ended,
+ * whose histograms the dispatch threads publish at the end of every iteration.
+ */
+public final class UMBMetrics implements UMBMetricsMBean {
+    private static final Logger logger = LogManager.getLogger(UMBMetrics.class);
+    /**
+     * Name the MBean is registered under.
+     */
+    public static final String OBJECT_NAME = "edu.temple.UMB:type=Metrics";
+    private static final UMBMetrics SHARED = new UMBMetrics();
+
+    private final Set<InputEventRecorder> recorders = ConcurrentHashMap.newKeySet();
+    private final Set<Replayer> replayers = ConcurrentHashMap.newKeySet();
+    // totals of finished recordings and replays, guarded by this
+    private long finishedCaptured;
+    private long finishedCaptureDropped;
+    private long finishedDispatched;
+    private long finishedCoalesced;
+    private long finishedReplayDropped;
+    private long finishedIterations;
+    private LatencyHistogram lastLateness = new LatencyHistogram();
+    // counters of each replayer already added to the totals; hotkeys and tests replay the same replayer repeatedly
+    private final Map<Replayer, long[]> folded = new WeakHashMap<>();
+    private boolean registered;
+
+    UMBMetrics() {}
+
+    /**
+     * Returns the metrics of this process.
+     */
+    public static UMBMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers the shared metrics with the platform MBean server. Calling it again does nothing.
+     * Failures are logged, metrics are never worth failing a replay over.
+     */
+    public static void register() {
+        synchronized (SHARED) {
+            if (SHARED.registered) {
+                return;
+            }
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(SHARED, new ObjectName(OBJECT_NAME));
+                SHARED.registered = true;
+                logger.info("Registered metrics MBean {}", OBJECT_NAME);
+            } catch (JMException e) {
+                logger.warn("Could not register metrics MBean", e);
+            }
+        }
+    }
+
+    void recordingStarted(InputEventRecorder recorder) {
+        recorders.add(recorder);
+    }
+
+    synchronized void recordingFinished(InputEventRecorder recorder) {
+        if (recorders.remove(recorder)) {
+            finishedCaptured += recorder.getCapturedCount();
+            finishedCaptureDropped += recorder.getDroppedCount();
+        }
+    }
+
+    void replayStarted(Replayer replayer) {
+        replayers.add(replayer);
+    }
+
+    synchronized void replayFinished(Replayer replayer) {
+        if (!replayers.remove(replayer)) {
+            return;
+        }
+        long[] counters = countersOf(replayer);
+        long[] before = folded.getOrDefault(replayer, new long[counters.length]);
+        finishedDispatched += counters[0] - before[0];
+        finishedCoalesced += counters[1] - before[1];
+        finishedIterations += counters[2] - before[2];
+        finishedReplayDropped += counters[3] - before[3];
+        folded.put(replayer, counters);
+        lastLateness = replayer.getLateness();
+    }
+
+    private static long[] countersOf(Replayer r) {
+        return new long[]{r.getDispatchedCount(), r.getCoalescedCount(), r.getIterationsCompleted(), r.getDroppedCount()};
+    }
+
+    /**
+     * Reads the current metrics.
+     * @return a consistent copy of every metric
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        long now = System.nanoTime();
+        s.capturedEvents = finishedCaptured;
+        s.captureDropped = finishedCaptureDropped;
+        for (InputEventRecorder r : recorders) {
+            long captured = r.getCapturedCount();
+            s.recording = true;
+            s.capturedEvents += captured;
+            s.captureDropped += r.getDroppedCount();
+            s.captureBufferDepth += r.getBufferedCount();
+            s.streamQueueDepth += r.getStreamQueueDepth();
+            long elapsed = now - r.getStartNano();
+            if (elapsed > 0) {
+                s.capturedPerSecond += captured * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            }
+        }
+        s.dispatchedEvents = finishedDispatched;
+        s.coalescedMoves = finishedCoalesced;
+        s.iterationsCompleted = finishedIterations;
+        s.replayDropped = finishedReplayDropped;
+        LatencyHistogram lateness = new LatencyHistogram();
+        for (Replayer r : replayers) {
+            long[] counters = countersOf(r);
+            long[] before = folded.getOrDefault(r, new long[counters.length]);
+            s.activeReplays++;
+            s.dispatchedEvents += counters[0] - before[0];
+            s.coalescedMoves += counters[1] - before[1];
+            s.iterationsCompleted += counters[2] - before[2];
+            s.replayDropped += counters[3] - before[3];
+            s.activeMacroBytes += r.getLoadedBytes();
+            lateness.add(r.getLateness());
+        }
+        if (s.activeReplays == 0) {
+            lateness = lastLateness;
+        }
+        s.latenessP50Micros = TimeUnit.NANOSECONDS.toMicros(lateness.getPercentile(50));
+        s.latenessP99Micros = TimeUnit.NANOSECONDS.toMicros(lateness.getPercentile(99));
+        s.latenessP999Micros = TimeUnit.NANOSECONDS.toMicros(lateness.getPercentile(99.9));
+        s.latenessMaxMicros = TimeUnit.NANOSECONDS.toMicros(lateness.getMax());
+        MacroCache cache = MacroCache.shared();
+        s.cachedMacros = cache.size();
+        s.cachedMacroBytes = cache.getUsedBytes();
+        return s;
+    }
+
+    @Override public boolean isRecording() { return snapshot().isRecording(); }
+    @Override public long getCapturedEvents() { return snapshot().getCapturedEvents(); }
+    @Override public double getCapturedPerSecond() { return snapshot().getCapturedPerSecond(); }
+    @Override public int getCaptureBufferDepth() { return snapshot().getCaptureBufferDepth(); }
+    @Override public int getStreamQueueDepth() { return snapshot().getStreamQueueDepth(); }
+    @Override public long getCaptureDropped() { return snapshot().getCaptureDropped(); }
+    @Override public int getActiveReplays() { return snapshot().getActiveReplays(); }
+    @Override public long getDispatchedEvents() { return snapshot().getDispatchedEvents(); }
+    @Override public long getCoalescedMoves() { return snapshot().getCoalescedMoves(); }
+    @Override public long getReplayDropped() { return snapshot().getReplayDropped(); }
+    @Override public long getIterationsCompleted() { return snapshot().getIterationsCompleted(); }
+    @Override public long getLatenessP50Micros() { return snapshot().getLatenessP50Micros(); }
+    @Override public long getLatenessP99Micros() { return snapshot().getLatenessP99Micros(); }
+    @Override public long getLatenessP999Micros() { return snapshot().getLatenessP999Micros(); }
+    @Override public long getLatenessMaxMicros() { return snapshot().getLatenessMaxMicros(); }
+    @Override public long getActiveMacroBytes() { return snapshot().getActiveMacroBytes(); }
+    @Override public int getCachedMacros() { return snapshot().getCachedMacros(); }
+    @Override public long getCachedMacroBytes() { return snapshot().getCachedMacroBytes(); }
+
+    /**
+     * Metrics at one point in time.
+     */
+    public static class Snapshot {
+        private boolean recording;
+        private long capturedEvents;
+        private double capturedPerSecond;
+        private int captureBufferDepth;
+        private int streamQueueDepth;
+        private long captureDropped;
+        private int activeReplays;
+        private long dispatchedEvents;
+        private long coalescedMoves;
+        private long replayDropped;
+        private long iterationsCompleted;
+        private long latenessP50Micros;
+        private long latenessP99Micros;
+        private long latenessP999Micros;
+        private long latenessMaxMicros;
+        private long activeMacroBytes;
+        private int cachedMacros;
+        private long cachedMacroBytes;
+
+        Snapshot() {}
+
+        /** Returns whether input is being recorded. */
+        public boolean isRecording() { return recording; }
+
+        /** Returns the number of events captured by all recordings, including the running ones. */
+        public long getCapturedEvents() { return capturedEvents; }
+
+        /** Returns the average capture rate of the running recordings in events per second, {@code 0} when not recording. */
+        public double getCapturedPerSecond() { return capturedPerSecond; }
+
+        /** Returns how many captured events wait in the recorders' ring buffers. */
+        public int getCaptureBufferDepth() { return captureBufferDepth; }
+
+        /** Returns how many captured events wait to be streamed to disk. */
+        public int getStreamQueueDepth() { return streamQueueDepth; }
+
+        /** Returns the number of events dropped because a recorder could not keep up. */
+        public long getCaptureDropped() { return captureDropped; }
+
+        /** Returns the number of replays running. */
+        public int getActiveReplays() { return activeReplays; }
+
+        /** Returns the number of events dispatched by all replays, including the running ones. */
+        public long getDispatchedEvents() { return dispatchedEvents; }
+
+        /** Returns the number of stale mouse moves skipped while catching up, see {@link ReplayScheduler.CatchUp}. */
+        public long getCoalescedMoves() { return coalescedMoves; }
+
+        /** Returns the number of loaded events that could not be replayed because they have no AWT equivalent. */
+        public long getReplayDropped() { return replayDropped; }
+
+        /** Returns the number of replay iterations completed, e.g. in {@code -repeat} mode. */
+        public long getIterationsCompleted() { return iterationsCompleted; }
+
+        /** Returns the median dispatch lateness in microseconds. */
+        public long getLatenessP50Micros() { return latenessP50Micros; }
+
+        /** Returns the 99th percentile dispatch lateness in microseconds. */
+        public long getLatenessP99Micros() { return latenessP99Micros; }
+
+        /** Returns the 99.9th percentile dispatch lateness in microseconds. */
+        public long getLatenessP999Micros() { return latenessP999Micros; }
+
+        /** Returns the largest dispatch lateness in microseconds. */
+        public long getLatenessMaxMicros() { return latenessMaxMicros; }
+
+        /** Returns the estimated heap taken by the macros of the running replays. */
+        public long getActiveMacroBytes() { return activeMacroBytes; }
+
+        /** Returns the number of macros in the shared {@link MacroCache}. */
+        public int getCachedMacros() { return cachedMacros; }
+
+        /** Returns the estimated heap taken by the shared {@link MacroCache}. */
+        public long getCachedMacroBytes() { return cachedMacroBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("recording=%b captured=%d (%.1f/s, %d buffered, %d queued, %d dropped) "
+                            + "replays=%d dispatched=%d coalesced=%d dropped=%d iterations=%d "
+                            + "lateness p50=%dus p99=%dus p99.9=%dus max=%dus macros=%d bytes cache=%d macros/%d bytes",
+                    recording, capturedEvents, capturedPerSecond, captureBufferDepth, streamQueueDepth, captureDropped,
+                    activeReplays, dispatchedEvents, coalescedMoves, replayDropped, iterationsCompleted,
+                    latenessP50Micros, latenessP99Micros, latenessP999Micros, latenessMaxMicros,
+                    activeMacroBytes, cachedMacros, cachedMacroBytes);
+        }
+    }
+}
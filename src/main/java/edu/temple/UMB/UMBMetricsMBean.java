@@ -0,0 +1,61 @@
+package edu.temple.UMB;
+
+/**
+ * JMX view of {@link UMBMetrics}, registered as {@value UMBMetrics#OBJECT_NAME}.
+ * Every attribute reads a fresh {@link UMBMetrics.Snapshot}; see there for what the values mean.
+ */
+public interface UMBMetricsMBean {
+    /** Returns whether input is being recorded. */
+    boolean isRecording();
+
+    /** Returns the number of events captured by all recordings. */
+    long getCapturedEvents();
+
+    /** Returns the average capture rate of the running recordings in events per second. */
+    double getCapturedPerSecond();
+
+    /** Returns how many captured events wait in the recorders' ring buffers. */
+    int getCaptureBufferDepth();
+
+    /** Returns how many captured events wait to be streamed to disk. */
+    int getStreamQueueDepth();
+
+    /** Returns the number of events dropped because a recorder could not keep up. */
+    long getCaptureDropped();
+
+    /** Returns the number of replays running. */
+    int getActiveReplays();
+
+    /** Returns the number of events dispatched by all replays. */
+    long getDispatchedEvents();
+
+    /** Returns the number of stale mouse moves skipped while catching up. */
+    long getCoalescedMoves();
+
+    /** Returns the number of loaded events that could not be replayed. */
+    long getReplayDropped();
+
+    /** Returns the number of replay iterations completed. */
+    long getIterationsCompleted();
+
+    /** Returns the median dispatch lateness in microseconds. */
+    long getLatenessP50Micros();
+
+    /** Returns the 99th percentile dispatch lateness in microseconds. */
+    long getLatenessP99Micros();
+
+    /** Returns the 99.9th percentile dispatch lateness in microseconds. */
+    long getLatenessP999Micros();
+
+    /** Returns the largest dispatch lateness in microseconds. */
+    long getLatenessMaxMicros();
+
+    /** Returns the estimated heap taken by the macros of the running replays. */
+    long getActiveMacroBytes();
+
+    /** Returns the number of macros in the shared {@link MacroCache}. */
+    int getCachedMacros();
+
+    /** Returns the estimated heap taken by the shared {@link MacroCache}. */
+    long getCachedMacroBytes();
+}
@@ -1,3 +1,4 @@
+import edu.temple.UMB.EventTimeline;
 import edu.temple.UMB.Loader;
 import edu.temple.UMB.Recorder;
 import edu.temple.UMB.Replayer;
@@ -5,12 +6,10 @@ import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.concurrent.*;
 
 
@@ -130,24 +129,30 @@ EOF
         // that's an important stat, but we really care about variance, or the average gap betweens two events.
         // we can actually just use our loader classes to load the out file
         Loader l =  new Loader(out);
-        LinkedHashMap<Long, String> recordedEvents;
+        EventTimeline recordedEvents;
         try {
             recordedEvents = l.loadJNativeEventsFromFile();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        ArrayList<Long> recordedTS = new ArrayList<>(recordedEvents.keySet());
+        ArrayList<Long> recordedTS = new ArrayList<>();
+        for (int i = 0; i < recordedEvents.size(); i++) {
+            recordedTS.add(TimeUnit.MICROSECONDS.toMillis(recordedEvents.time(i)));
+        }
 
         // we could just manually parse through the predetermined events string or we can have loader do it for us.
         // need to always remove the last two events of predTS as theyre for the exit escape key and wont get recorded
         l = new Loader(predeterminedEventsFile);
-        LinkedHashMap<Long, String> predEvents;
+        EventTimeline predEvents;
         try {
             predEvents = l.loadJNativeEventsFromFile();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        ArrayList<Long> predTS = new ArrayList<>(predEvents.keySet());
+        ArrayList<Long> predTS = new ArrayList<>();
+        for (int i = 0; i < predEvents.size(); i++) {
+            predTS.add(TimeUnit.MICROSECONDS.toMillis(predEvents.time(i)));
+        }
         predTS.removeLast();
         predTS.removeLast();
 
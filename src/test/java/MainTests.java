@@ -1,4 +1,6 @@
+import edu.temple.UMB.ConsoleEcho;
 import edu.temple.UMB.Main;
+import edu.temple.UMB.ReplayScheduler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -12,6 +14,23 @@ public class MainTests {
     public void setup() {
         Main.in_file_str = null;
         Main.out_file_str = null;
+        Main.binaryFlag = false;
+        Main.mergedFlag = false;
+        Main.streamFlag = false;
+        Main.echoMode = ConsoleEcho.Mode.FULL;
+        Main.spinMicros = 0L;
+        Main.cacheMegabytes = -1L;
+        Main.catchUp = ReplayScheduler.CatchUp.ALL;
+        Main.simplifyPixels = 0;
+        Main.replaySpeed = 1.0;
+        Main.maxGapMillis = -1L;
+        Main.batch_str = null;
+        Main.dryRunFlag = false;
+        Main.repeatCount = null;
+        Main.daemon_socket_str = null;
+        Main.hotkeys_file_str = null;
+        Main.compile_file_str = null;
+        Main.compact_file_str = null;
     }
     @Test
     public void testNoArgs() {
@@ -67,6 +86,207 @@ public class MainTests {
         assertNull(Main.argChecks(args));
     }
 
+    @Test
+    public void binaryWithInput() {
+        String[] args = {"-input", "infile", "-binary"};
+        assertEquals("ERROR: -binary can only be used with -output!", Main.argChecks(args));
+    }
+
+    @Test
+    public void streamWithInput() {
+        String[] args = {"-input", "infile", "-stream"};
+        assertEquals("ERROR: -stream can only be used with -output!", Main.argChecks(args));
+    }
+
+    @Test
+    public void invalidEchoMode() {
+        String[] args = {"-output", "outfile", "-echo", "loud"};
+        assertEquals("ERROR: Argument -echo requires one of full, summary or off!", Main.argChecks(args));
+    }
+
+    @Test
+    public void echoWithOutput() {
+        String[] args = {"-output", "outfile", "-echo", "summary"};
+        assertNull(Main.argChecks(args));
+        assertEquals(ConsoleEcho.Mode.SUMMARY, Main.echoMode);
+    }
+
+    @Test
+    public void mergedWithOutput() {
+        String[] args = {"-output", "outfile", "-merged"};
+        assertEquals("ERROR: -merged can only be used with -input!", Main.argChecks(args));
+    }
+
+    @Test
+    public void catchUpWithInput() {
+        String[] args = {"-input", "infile", "-catchup", "coalesce"};
+        assertNull(Main.argChecks(args));
+        assertEquals(ReplayScheduler.CatchUp.COALESCE, Main.catchUp);
+    }
+
+    @Test
+    public void catchUpWithUnknownPolicy() {
+        String[] args = {"-input", "infile", "-catchup", "sometimes"};
+        assertEquals("ERROR: Argument -catchup requires one of all or coalesce!", Main.argChecks(args));
+    }
+
+    @Test
+    public void spinWithOutput() {
+        String[] args = {"-output", "outfile", "-spin", "200"};
+        assertEquals("ERROR: -spin can only be used with -input!", Main.argChecks(args));
+    }
+
+    @Test
+    public void spinWithoutNumber() {
+        String[] args = {"-input", "infile", "-spin", "abc"};
+        assertEquals("ERROR: Argument -spin requires a number of microseconds!", Main.argChecks(args));
+    }
+
+    @Test
+    public void speedWithInput() {
+        String[] args = {"-input", "infile", "-speed", "2.5", "-maxgap", "500"};
+        assertNull(Main.argChecks(args));
+        assertEquals(2.5, Main.replaySpeed);
+        assertEquals(500L, Main.maxGapMillis);
+    }
+
+    @Test
+    public void maxSpeed() {
+        String[] args = {"-input", "infile", "-speed", "max"};
+        assertNull(Main.argChecks(args));
+        assertEquals(Double.POSITIVE_INFINITY, Main.replaySpeed);
+    }
+
+    @Test
+    public void invalidSpeed() {
+        String[] args = {"-input", "infile", "-speed", "0"};
+        assertEquals("ERROR: Argument -speed requires a positive factor or max!", Main.argChecks(args));
+    }
+
+    @Test
+    public void cacheBudgetWithDaemon() {
+        String[] args = {"-daemon", "-cachemb", "256"};
+        assertNull(Main.argChecks(args));
+        assertEquals(256L, Main.cacheMegabytes);
+    }
+
+    @Test
+    public void cacheBudgetWithOutput() {
+        String[] args = {"-cachemb", "16", "-output", "outfile"};
+        assertEquals("ERROR: -cachemb can only be used with -input, -batch, -daemon or -hotkeys!", Main.argChecks(args));
+    }
+
+    @Test
+    public void maxGapWithOutput() {
+        String[] args = {"-output", "outfile", "-maxgap", "500"};
+        assertEquals("ERROR: -maxgap can only be used with -input!", Main.argChecks(args));
+    }
+
+    @Test
+    public void batchAlone() {
+        String[] args = {"-batch", "*.txt", "-dryrun", "-repeat", "2"};
+        assertNull(Main.argChecks(args));
+        assertEquals("*.txt", Main.batch_str);
+        assertTrue(Main.dryRunFlag);
+    }
+
+    @Test
+    public void batchWithInput() {
+        String[] args = {"-batch", "regression", "-input", "infile"};
+        assertEquals("ERROR: -batch cannot be used with -input or -output!", Main.argChecks(args));
+    }
+
+    @Test
+    public void batchWithInfiniteRepeat() {
+        String[] args = {"-batch", "regression", "-repeat"};
+        assertEquals("ERROR: -batch needs a repeat count!", Main.argChecks(args));
+    }
+
+    @Test
+    public void dryRunWithOutput() {
+        String[] args = {"-dryrun", "-output", "outfile"};
+        assertEquals("ERROR: -dryrun can only be used with -input or -batch!", Main.argChecks(args));
+    }
+
+    @Test
+    public void daemonWithDefaultSocket() {
+        String[] args = {"-daemon", "-merged"};
+        assertNull(Main.argChecks(args));
+        assertEquals("umb.sock", Main.daemon_socket_str);
+        assertTrue(Main.mergedFlag);
+    }
+
+    @Test
+    public void daemonWithSocket() {
+        String[] args = {"-daemon", "/tmp/macros.sock"};
+        assertNull(Main.argChecks(args));
+        assertEquals("/tmp/macros.sock", Main.daemon_socket_str);
+    }
+
+    @Test
+    public void daemonWithInput() {
+        String[] args = {"-daemon", "-input", "infile"};
+        assertEquals("ERROR: -daemon cannot be used with -input, -output or -batch!", Main.argChecks(args));
+    }
+
+    @Test
+    public void hotkeysAlone() {
+        String[] args = {"-hotkeys", "hotkeys.txt", "-stopkey", "F12"};
+        assertNull(Main.argChecks(args));
+        assertEquals("hotkeys.txt", Main.hotkeys_file_str);
+    }
+
+    @Test
+    public void hotkeysWithDaemon() {
+        String[] args = {"-hotkeys", "hotkeys.txt", "-daemon"};
+        assertEquals("ERROR: -hotkeys cannot be used with -input, -output, -batch or -daemon!", Main.argChecks(args));
+    }
+
+    @Test
+    public void compileAlone() {
+        String[] args = {"-compile", "macro.txt"};
+        assertNull(Main.argChecks(args));
+        assertEquals("macro.txt", Main.compile_file_str);
+    }
+
+    @Test
+    public void compileWithInput() {
+        String[] args = {"-compile", "macro.txt", "-input", "infile"};
+        assertEquals("ERROR: -compile cannot be used with -input, -output, -batch, -daemon, -hotkeys or -l!", Main.argChecks(args));
+    }
+
+    @Test
+    public void simplifyWithOutput() {
+        String[] args = {"-output", "outfile", "-simplify", "1.5"};
+        assertNull(Main.argChecks(args));
+        assertEquals(1.5, Main.simplifyPixels);
+    }
+
+    @Test
+    public void simplifyWithInput() {
+        String[] args = {"-input", "infile", "-simplify", "2"};
+        assertEquals("ERROR: -simplify can only be used with -output!", Main.argChecks(args));
+    }
+
+    @Test
+    public void simplifyWithStream() {
+        String[] args = {"-output", "outfile", "-stream", "-simplify", "2"};
+        assertEquals("ERROR: -stream cannot be used with -simplify or -compact!", Main.argChecks(args));
+    }
+
+    @Test
+    public void compactRequiresOutput() {
+        String[] args = {"-compact", "infile"};
+        assertEquals("ERROR: -compact requires -output!", Main.argChecks(args));
+    }
+
+    @Test
+    public void compactWithOutput() {
+        String[] args = {"-compact", "infile", "-output", "outfile", "-simplify", "3"};
+        assertNull(Main.argChecks(args));
+        assertEquals("infile", Main.compact_file_str);
+    }
+
     @Test
     public void correctOutput() {
         String[] args = {"-output", "outfile"};
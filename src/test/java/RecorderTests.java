@@ -0,0 +1,118 @@
+import edu.temple.UMB.ConsoleEcho;
+import edu.temple.UMB.EventRing;
+import edu.temple.UMB.EventTimeline;
+import edu.temple.UMB.MacroFormat;
+import edu.temple.UMB.MappedLoader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the recording path that does not need the native hook.
+ */
+public class RecorderTests {
+    @Test
+    public void ringDrainsInOrderAndCountsDrops() {
+        EventRing ring = new EventRing(4);
+        assertEquals(4, ring.capacity());
+        assertTrue(ring.offer(1, MacroFormat.KEY_PRESSED, 30, 0, 0));
+        assertTrue(ring.offer(2, MacroFormat.MOUSE_MOVED, 0, 10, 20));
+        assertTrue(ring.offer(3, MacroFormat.MOUSE_PRESSED, 1, 10, 20));
+        assertTrue(ring.offer(4, MacroFormat.KEY_RELEASED, 30, 0, 0));
+        assertFalse(ring.offer(5, MacroFormat.KEY_PRESSED, 31, 0, 0));
+        assertEquals(1, ring.getDropped());
+        assertEquals(4, ring.getHighWater());
+
+        EventTimeline.Builder out = new EventTimeline.Builder();
+        assertEquals(4, ring.drain(out));
+        EventTimeline t = out.build();
+        assertEquals(4, t.size());
+        assertEquals(MacroFormat.KEY_PRESSED, t.opcode(0));
+        assertEquals(MacroFormat.MOUSE_MOVED, t.opcode(1));
+        assertEquals(10, t.x(1));
+        assertEquals(20, t.y(1));
+        assertEquals(1, t.code(2));
+        assertEquals(4L, t.time(3));
+
+        // slots are free again after draining
+        assertTrue(ring.offer(6, MacroFormat.KEY_PRESSED, 31, 0, 0));
+        assertEquals(1, ring.drain(new EventTimeline.Builder()));
+        assertEquals(0, ring.drain(new EventTimeline.Builder()));
+    }
+
+    @Test
+    public void ringHandsOverEverythingBetweenThreads() throws InterruptedException {
+        int n = 200_000;
+        EventRing ring = new EventRing(1024);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                while (!ring.offer(i, MacroFormat.MOUSE_MOVED, 0, i, -i)) {
+                    Thread.onSpinWait();
+                }
+            }
+        });
+        producer.start();
+
+        long[] next = {0};
+        OrderCheck check = new OrderCheck(next);
+        while (next[0] < n) {
+            ring.drain(check);
+        }
+        producer.join();
+        assertEquals(n, next[0]);
+        assertTrue(ring.getHighWater() <= 1024);
+    }
+
+    // renders one batch: events added before start are all printed when the echo is closed
+    private static String echo(ConsoleEcho.Mode mode, int moves) throws InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConsoleEcho echo = new ConsoleEcho(mode, new PrintStream(bytes, true));
+        echo.key(MacroFormat.KEY_PRESSED, 30);
+        for (int i = 0; i < moves; i++) {
+            echo.mouse(MacroFormat.MOUSE_MOVED, i, i, 0);
+        }
+        echo.start();
+        echo.close();
+        return bytes.toString();
+    }
+
+    @Test
+    public void fullEchoCapsLinesPerBatch() throws InterruptedException {
+        String out = echo(ConsoleEcho.Mode.FULL, 100);
+        String[] lines = out.split(System.lineSeparator());
+        assertEquals(ConsoleEcho.MAX_LINES_PER_BATCH + 1, lines.length);
+        assertEquals("PRESSED: A", lines[0]);
+        assertEquals("MOUSE_MOVED: 0,0 button=0", lines[1]);
+        assertEquals("... " + (101 - ConsoleEcho.MAX_LINES_PER_BATCH) + " more events", lines[lines.length - 1]);
+    }
+
+    @Test
+    public void summaryEchoPrintsCounts() throws InterruptedException {
+        assertEquals("keys: 1 pressed, 0 released | mouse: 20 moves, 0 button events, at 19,19" + System.lineSeparator(),
+                echo(ConsoleEcho.Mode.SUMMARY, 20));
+    }
+
+    @Test
+    public void offEchoPrintsNothing() throws InterruptedException {
+        assertEquals("", echo(ConsoleEcho.Mode.OFF, 20));
+    }
+
+    // checks that events arrive complete and in order
+    private record OrderCheck(long[] next) implements MappedLoader.Visitor {
+        @Override
+        public void key(long time, int opcode, int keyCode) {
+            fail("unexpected key event");
+        }
+
+        @Override
+        public void mouse(long time, int opcode, int x, int y, int button) {
+            assertEquals(next[0], time);
+            assertEquals((int) time, x);
+            assertEquals((int) -time, y);
+            next[0]++;
+        }
+    }
+}
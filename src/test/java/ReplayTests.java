@@ -0,0 +1,699 @@
+import edu.temple.UMB.BatchReplayer;
+import edu.temple.UMB.CountingSink;
+import edu.temple.UMB.DevicePoints;
+import edu.temple.UMB.EventTimeline;
+import edu.temple.UMB.HotkeyTrigger;
+import edu.temple.UMB.LatencyHistogram;
+import edu.temple.UMB.MacroDaemon;
+import edu.temple.UMB.MacroFormat;
+import edu.temple.UMB.RecordingSink;
+import edu.temple.UMB.ReplayTiming;
+import edu.temple.UMB.ReplayScheduler;
+import edu.temple.UMB.Replayer;
+import edu.temple.UMB.ScreenLayout;
+import edu.temple.UMB.UMBMetrics;
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Replays macros headlessly through counting and recording sinks.
+ */
+public class ReplayTests {
+    @TempDir
+    Path tmp;
+
+    private static long replayThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().endsWith("-replay")).count();
+    }
+
+    // dispatch threads end shortly after they are shut down
+    private static boolean awaitReplayThreads(long atMost) throws InterruptedException {
+        for (int i = 0; i < 100 && replayThreads() > atMost; i++) {
+            Thread.sleep(20);
+        }
+        return replayThreads() <= atMost;
+    }
+
+    private File macro(String contents) throws IOException {
+        Path p = tmp.resolve("macro.txt");
+        Files.writeString(p, contents);
+        return p.toFile();
+    }
+
+    @Test
+    public void mergedReplayKeepsOrderAndTiming() throws IOException {
+        // shift (42) is held while clicking; the click and the shift release share a millisecond
+        File f = macro("""
+                START KEY EVENTS
+                0 PRESSED 42
+                100 RELEASED 42
+                END KEY EVENTS
+                START MOUSE EVENTS
+                50 MOUSE_PRESSED 10,20 1
+                100 MOUSE_RELEASED 10,20 1
+                END MOUSE EVENTS
+                EOF
+                """);
+        RecordingSink sink = new RecordingSink();
+        new Replayer(f.getAbsolutePath(), 1, true, sink).start();
+
+        EventTimeline actions = sink.getActions();
+        int[] opcodes = {MacroFormat.KEY_PRESSED, MacroFormat.MOUSE_MOVED, MacroFormat.MOUSE_PRESSED,
+                MacroFormat.KEY_RELEASED, MacroFormat.MOUSE_MOVED, MacroFormat.MOUSE_RELEASED};
+        int[] codes = {KeyEvent.VK_SHIFT, 0, InputEvent.BUTTON1_MASK, KeyEvent.VK_SHIFT, 0, InputEvent.BUTTON1_MASK};
+        assertEquals(opcodes.length, actions.size());
+        for (int i = 0; i < opcodes.length; i++) {
+            assertEquals(opcodes[i], actions.opcode(i), "action " + i);
+            assertEquals(codes[i], actions.code(i), "action " + i);
+        }
+        assertEquals(10, actions.x(1));
+        assertEquals(20, actions.y(1));
+        // generous bounds, this runs on shared CI machines
+        long clickAfter = TimeUnit.NANOSECONDS.toMillis(actions.time(2) - actions.time(0));
+        long releaseAfter = TimeUnit.NANOSECONDS.toMillis(actions.time(3) - actions.time(0));
+        assertTrue(clickAfter >= 45 && clickAfter < 150, "click after " + clickAfter + "ms");
+        assertTrue(releaseAfter >= 95 && releaseAfter < 200, "release after " + releaseAfter + "ms");
+    }
+
+    @Test
+    public void countingSinkSeesEveryEventOfEveryIteration() throws IOException {
+        StringBuilder sb = new StringBuilder("START KEY EVENTS\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i / 100).append(" PRESSED 30\n").append(i / 100).append(" RELEASED 30\n");
+        }
+        sb.append("END KEY EVENTS\nSTART MOUSE EVENTS\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i / 100).append(" MOUSE_MOVED ").append(i).append(',').append(i).append(" 0\n");
+        }
+        sb.append("END MOUSE EVENTS\nEOF\n");
+        File f = macro(sb.toString());
+
+        CountingSink sink = new CountingSink();
+        Replayer replayer = new Replayer(f.getAbsolutePath(), 3, false, sink);
+        replayer.start();
+
+        assertEquals(3000, sink.getKeyPresses());
+        assertEquals(3000, sink.getKeyReleases());
+        assertEquals(3000, sink.getMouseMoves());
+        assertEquals(9000, sink.getTotal());
+        assertEquals(9000, replayer.getLateness().getCount());
+    }
+    @Test
+    public void timingAppliesOneMappingToKeyAndMouseEvents() {
+        EventTimeline keys = new EventTimeline.Builder()
+                .add(1_000L, 0, MacroFormat.KEY_PRESSED, 30, 0, 0)
+                .add(10_001_000L, 3, MacroFormat.KEY_RELEASED, 30, 0, 0)
+                .build();
+        EventTimeline mice = new EventTimeline.Builder()
+                .add(2_000L, 1, MacroFormat.MOUSE_MOVED, 0, 1, 1)
+                .add(10_001_000L, 2, MacroFormat.MOUSE_PRESSED, 1, 1, 1)
+                .build();
+
+        // 2x with pauses capped at 100ms: the 10s pause becomes 50ms
+        EventTimeline[] retimed = new ReplayTiming(2.0, 100_000L).apply(keys, mice);
+
+        assertEquals(500L, retimed[0].time(0));
+        assertEquals(1_000L, retimed[1].time(0));
+        assertEquals(51_000L, retimed[1].time(1));
+        assertEquals(51_000L, retimed[0].time(1));
+        // the tie keeps its recorded order
+        EventTimeline merged = EventTimeline.merge(retimed);
+        assertEquals(MacroFormat.MOUSE_PRESSED, merged.opcode(2));
+        assertEquals(MacroFormat.KEY_RELEASED, merged.opcode(3));
+
+        EventTimeline[] fastest = new ReplayTiming(Double.POSITIVE_INFINITY, Long.MAX_VALUE).apply(keys, mice);
+        assertEquals(0L, fastest[0].lastTime());
+        assertEquals(0L, fastest[1].lastTime());
+    }
+
+    @Test
+    public void cappedReplayFinishesEarly() throws IOException {
+        File f = macro("""
+                START KEY EVENTS
+                0 PRESSED 30
+                5000 RELEASED 30
+                END KEY EVENTS
+                START MOUSE EVENTS
+                5000 MOUSE_MOVED 1,1 0
+                END MOUSE EVENTS
+                EOF
+                """);
+        RecordingSink sink = new RecordingSink();
+        long start = System.nanoTime();
+        new Replayer(f.getAbsolutePath(), 1, false, sink, new ReplayTiming(1.0, 50_000L)).start();
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(3, sink.getActions().size());
+        assertTrue(tookMillis < 2000, "took " + tookMillis + "ms");
+    }
+
+    @Test
+    public void batchReplaysEveryMacroInParallel() throws Exception {
+        List<File> macros = new ArrayList<>();
+        for (int m = 1; m <= 4; m++) {
+            StringBuilder sb = new StringBuilder("START KEY EVENTS\n");
+            for (int i = 0; i < m * 10; i++) {
+                sb.append(i).append(" PRESSED 30\n").append(i).append(" RELEASED 30\n");
+            }
+            sb.append("END KEY EVENTS\nSTART MOUSE EVENTS\nEND MOUSE EVENTS\nEOF\n");
+            Path p = tmp.resolve("macro" + m + ".txt");
+            Files.writeString(p, sb.toString());
+            macros.add(p.toFile());
+        }
+        List<CountingSink> sinks = new ArrayList<>();
+        long threadsBefore = replayThreads();
+
+        BatchReplayer batch = new BatchReplayer(macros, 2, false, ReplayTiming.REALTIME, () -> {
+            CountingSink sink = new CountingSink();
+            sinks.add(sink);
+            return sink;
+        }, 4);
+        batch.prepare();
+        batch.run(true);
+
+        assertEquals(4, sinks.size());
+        for (int m = 0; m < 4; m++) {
+            assertEquals((m + 1) * 40L, sinks.get(m).getTotal());
+            assertEquals((m + 1) * 20, batch.getResults().get(m).getEventCount());
+            assertTrue(batch.getResults().get(m).getReplayNanos() > 0);
+        }
+        String report = batch.report();
+        assertTrue(report.contains("macro3.txt"), report);
+        assertTrue(report.contains("total (4 macros)"), report);
+        // every macro's dispatch threads end once it was replayed
+        assertTrue(awaitReplayThreads(threadsBefore), replayThreads() + " replay threads left");
+    }
+
+    @Test
+    public void daemonReplaysOnCommand() throws Exception {
+        Path macros = Files.createDirectory(tmp.resolve("macros"));
+        Files.writeString(macros.resolve("hello.txt"), """
+                START KEY EVENTS
+                0 PRESSED 30
+                10 RELEASED 30
+                END KEY EVENTS
+                START MOUSE EVENTS
+                5 MOUSE_MOVED 1,1 0
+                END MOUSE EVENTS
+                EOF
+                """);
+        Path socket = tmp.resolve("umb.sock");
+        CountingSink sink = new CountingSink();
+        long threadsBefore = replayThreads();
+        MacroDaemon daemon = new MacroDaemon(socket, macros.toFile(), sink);
+        assertEquals(1, daemon.preloadAll());
+        long threadsWarmed = replayThreads();
+        daemon.open();
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            PrintWriter out = new PrintWriter(Channels.newOutputStream(channel), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel)));
+
+            out.println("replay hello.txt 2");
+            assertTrue(in.readLine().startsWith("OK replayed hello.txt (3 events"));
+            // single replays reuse the warmed replayer, so repeated commands do not start new threads
+            for (int i = 0; i < 3; i++) {
+                out.println("replay hello.txt");
+                assertTrue(in.readLine().startsWith("OK replayed hello.txt (3 events"));
+            }
+            assertTrue(awaitReplayThreads(threadsWarmed), replayThreads() + " replay threads after " + threadsWarmed);
+            out.println("replay ../escape.txt");
+            assertTrue(in.readLine().startsWith("ERROR macro must be inside"));
+            out.println("status");
+            String status = in.readLine();
+            assertTrue(status.startsWith("OK replays=4 "), status);
+            assertTrue(status.contains("trigger n=4 "), status);
+            out.println("shutdown");
+            assertEquals("OK shutting down", in.readLine());
+        }
+        server.join(5000);
+
+        assertFalse(server.isAlive());
+        assertFalse(Files.exists(socket));
+        assertEquals(15, sink.getTotal());
+        assertEquals(4, daemon.getTriggerLatency().getCount());
+        assertTrue(awaitReplayThreads(threadsBefore), replayThreads() + " replay threads left");
+    }
+
+    @Test
+    public void daemonKeepsMacroWhenRecordingFails() throws Exception {
+        // without a display the native hook cannot be registered, so the recording fails
+        assumeTrue(GraphicsEnvironment.isHeadless());
+        Path macros = Files.createDirectory(tmp.resolve("macros"));
+        Path macro = macros.resolve("hello.txt");
+        Files.writeString(macro, "START KEY EVENTS\n0 PRESSED 30\n10 RELEASED 30\nEND KEY EVENTS\nEOF\n");
+        Path socket = tmp.resolve("umb.sock");
+        MacroDaemon daemon = new MacroDaemon(socket, macros.toFile(), new CountingSink());
+        daemon.open();
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            PrintWriter out = new PrintWriter(Channels.newOutputStream(channel), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel)));
+
+            out.println("record hello.txt");
+            assertEquals("ERROR could not record hello.txt", in.readLine());
+            out.println("stop");
+            assertEquals("OK nothing to stop", in.readLine());
+            out.println("shutdown");
+            assertEquals("OK shutting down", in.readLine());
+        }
+        server.join(5000);
+
+        assertEquals("START KEY EVENTS\n0 PRESSED 30\n10 RELEASED 30\nEND KEY EVENTS\nEOF\n", Files.readString(macro));
+        try (var files = Files.list(macros)) {
+            assertEquals(List.of(macro), files.toList());
+        }
+    }
+
+    private static NativeKeyEvent nativeKey(int id, int code) {
+        return new NativeKeyEvent(id, 0, 0, code, NativeKeyEvent.CHAR_UNDEFINED);
+    }
+
+    @Test
+    public void hotkeyConfigParsesChords() {
+        List<HotkeyTrigger.Binding> bindings = HotkeyTrigger.parse(List.of(
+                "# comment",
+                "",
+                "ctrl + shift + F1 = login.txt",
+                "F2=logout.txt"));
+        assertEquals(2, bindings.size());
+        assertEquals("ctrl + shift + F1", bindings.get(0).getChord());
+        assertEquals("logout.txt", bindings.get(1).getMacro());
+
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class, () -> HotkeyTrigger.parse(List.of("HYPER+F1 = a.txt")));
+        assertEquals("Line 1: unknown key HYPER", unknown.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> HotkeyTrigger.parse(List.of("SHIFT+CTRL+F1 = a.txt", "CTRL+SHIFT+F1 = b.txt")));
+        assertThrows(IllegalArgumentException.class, () -> HotkeyTrigger.parse(List.of("F1 login.txt")));
+    }
+
+    @Test
+    public void hotkeyChordTriggersPreloadedMacro() throws Exception {
+        Path macros = Files.createDirectory(tmp.resolve("macros"));
+        Files.writeString(macros.resolve("hello.txt"), """
+                START KEY EVENTS
+                0 PRESSED 30
+                1 RELEASED 30
+                END KEY EVENTS
+                START MOUSE EVENTS
+                END MOUSE EVENTS
+                EOF
+                """);
+        CountingSink sink = new CountingSink();
+        long threadsBefore = replayThreads();
+        HotkeyTrigger hotkeys = new HotkeyTrigger(HotkeyTrigger.parse(List.of("CTRL+F1 = hello.txt")), macros.toFile(), "ESCAPE",
+                macro -> new Replayer(macro.getAbsolutePath(), 1, true, sink));
+
+        // F1 alone does not match the chord
+        hotkeys.nativeKeyPressed(nativeKey(NativeKeyEvent.NATIVE_KEY_PRESSED, NativeKeyEvent.VC_F1));
+        hotkeys.nativeKeyReleased(nativeKey(NativeKeyEvent.NATIVE_KEY_RELEASED, NativeKeyEvent.VC_F1));
+        hotkeys.nativeKeyPressed(nativeKey(NativeKeyEvent.NATIVE_KEY_PRESSED, NativeKeyEvent.VC_CONTROL));
+        hotkeys.nativeKeyPressed(nativeKey(NativeKeyEvent.NATIVE_KEY_PRESSED, NativeKeyEvent.VC_F1));
+        hotkeys.nativeKeyReleased(nativeKey(NativeKeyEvent.NATIVE_KEY_RELEASED, NativeKeyEvent.VC_F1));
+        // the replay waits until CTRL is released, so it is not combined with the replayed keys
+        Thread.sleep(50);
+        assertEquals(0, sink.getTotal());
+        hotkeys.nativeKeyReleased(nativeKey(NativeKeyEvent.NATIVE_KEY_RELEASED, NativeKeyEvent.VC_CONTROL));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hotkeys.getTriggerLatency().getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(1, hotkeys.getTriggerLatency().getCount());
+        assertEquals(2, sink.getTotal());
+        hotkeys.nativeKeyPressed(nativeKey(NativeKeyEvent.NATIVE_KEY_PRESSED, NativeKeyEvent.VC_ESCAPE));
+        hotkeys.awaitStop();
+        assertTrue(awaitReplayThreads(threadsBefore), replayThreads() + " replay threads left");
+    }
+
+    @Test
+    public void heldMouseButtonIsReleasedAfterReplay() throws IOException {
+        // the recording ended during a drag, so the button was never released
+        File f = macro("""
+                START MOUSE EVENTS
+                0 MOUSE_PRESSED 10,20 1
+                5 MOUSE_DRAGGED 30,40 1
+                END MOUSE EVENTS
+                EOF
+                """);
+        RecordingSink sink = new RecordingSink();
+        new Replayer(f.getAbsolutePath(), 1, false, sink).replay();
+
+        EventTimeline actions = sink.getActions();
+        assertEquals(MacroFormat.MOUSE_RELEASED, actions.opcode(actions.size() - 1));
+        assertEquals(InputEvent.BUTTON1_MASK, actions.code(actions.size() - 1));
+    }
+
+    @Test
+    public void stopEndsDispatchOfOverdueEvents() throws Exception {
+        // at full speed every event is already due, so the dispatch thread never waits
+        StringBuilder contents = new StringBuilder("START KEY EVENTS\n0 PRESSED 30\n1000 RELEASED 30\nEND KEY EVENTS\nSTART MOUSE EVENTS\n");
+        for (int i = 1; i < 1000; i++) {
+            contents.append(i).append(" MOUSE_MOVED ").append(i).append(",1 0\n");
+        }
+        File f = macro(contents.append("END MOUSE EVENTS\nEOF\n").toString());
+        CountingSink sink = new CountingSink();
+        Replayer replayer = new Replayer(f.getAbsolutePath(), -1, true, sink, new ReplayTiming(Double.POSITIVE_INFINITY, Long.MAX_VALUE));
+        Thread thread = new Thread(replayer::replay);
+        thread.start();
+        Thread.sleep(100);
+        replayer.stop();
+        long total = sink.getTotal();
+        Thread.sleep(100);
+
+        assertEquals(total, sink.getTotal());
+        // held keys are released by the dispatch thread after its last event
+        assertEquals(sink.getKeyPresses(), sink.getKeyReleases());
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void interruptEndsInfiniteReplay() throws Exception {
+        File f = macro("""
+                START KEY EVENTS
+                0 PRESSED 30
+                2000 RELEASED 30
+                END KEY EVENTS
+                EOF
+                """);
+        CountingSink sink = new CountingSink();
+        Replayer replayer = new Replayer(f.getAbsolutePath(), -1, false, sink);
+        Thread thread = new Thread(replayer::replay);
+        thread.start();
+        Thread.sleep(100);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(thread.isAlive());
+        long total = sink.getTotal();
+        Thread.sleep(100);
+
+        // the dispatch threads ended with replay(), releasing the held key, and the cut iteration is not counted
+        assertEquals(total, sink.getTotal());
+        assertEquals(1, sink.getKeyPresses());
+        assertEquals(1, sink.getKeyReleases());
+        assertEquals(0, replayer.getIterationsCompleted());
+        assertTrue(replayer.isStopped());
+    }
+
+    @Test
+    public void metricsCountEveryReplay() throws Exception {
+        File f = macro("""
+                START KEY EVENTS
+                0 PRESSED 30
+                5 RELEASED 30
+                END KEY EVENTS
+                START MOUSE EVENTS
+                2 MOUSE_MOVED 10,20 0
+                END MOUSE EVENTS
+                EOF
+                """);
+        UMBMetrics.register();
+        UMBMetrics.Snapshot before = UMBMetrics.shared().snapshot();
+        Replayer replayer = new Replayer(f.getAbsolutePath(), 3, false, new CountingSink());
+        replayer.replay();
+        replayer.replay();
+        UMBMetrics.Snapshot after = UMBMetrics.shared().snapshot();
+
+        assertEquals(0, after.getActiveReplays());
+        assertEquals(18, after.getDispatchedEvents() - before.getDispatchedEvents());
+        assertEquals(6, after.getIterationsCompleted() - before.getIterationsCompleted());
+        assertTrue(after.getLatenessMaxMicros() >= after.getLatenessP50Micros());
+        Object dispatched = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(UMBMetrics.OBJECT_NAME), "DispatchedEvents");
+        assertEquals(after.getDispatchedEvents(), dispatched);
+    }
+
+    @Test
+    public void flightRecordingSeesLoadTranslationAndDispatch() throws Exception {
+        File f = macro("""
+                START KEY EVENTS
+                0 PRESSED 30
+                5 RELEASED 30
+                END KEY EVENTS
+                START MOUSE EVENTS
+                2 MOUSE_PRESSED 10,20 1
+                3 MOUSE_RELEASED 10,20 1
+                END MOUSE EVENTS
+                EOF
+                """);
+        Path dump = tmp.resolve("replay.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("edu.temple.UMB.MacroLoad");
+            recording.enable("edu.temple.UMB.Translation");
+            recording.enable("edu.temple.UMB.Dispatch");
+            recording.start();
+            new Replayer(f.getAbsolutePath(), 2, true, new CountingSink()).replay();
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        int loads = 0;
+        int translations = 0;
+        int dispatches = 0;
+        for (RecordedEvent e : RecordingFile.readAllEvents(dump)) {
+            switch (e.getEventType().getName()) {
+                case "edu.temple.UMB.MacroLoad" -> loads++;
+                case "edu.temple.UMB.Translation" -> translations++;
+                case "edu.temple.UMB.Dispatch" -> {
+                    dispatches++;
+                    assertTrue(e.getLong("lateness") >= 0);
+                }
+            }
+        }
+        assertEquals(1, loads);
+        assertEquals(2, translations);
+        assertEquals(8, dispatches);
+    }
+
+    @Test
+    public void latenessIsReadableWhileDispatching() throws InterruptedException {
+        EventTimeline timeline = new EventTimeline.Builder()
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 1, 1)
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 2, 2)
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 3, 3)
+                .build();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean();
+        ReplayScheduler scheduler = new ReplayScheduler("lateness-test", timeline, i -> {
+            if (i == 1 && block.get()) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, () -> {});
+        scheduler.start(System.nanoTime());
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getLateness().getCount());
+
+        // while the second iteration is running only the finished one is reported
+        block.set(true);
+        scheduler.start(System.nanoTime());
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getLateness().getCount());
+        release.countDown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(6, scheduler.getLateness().getCount());
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void coalescingSkipsOnlyStaleMoves() throws InterruptedException {
+        EventTimeline timeline = new EventTimeline.Builder()
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 1, 1)
+                .add(1000, MacroFormat.MOUSE_MOVED, 0, 2, 2)
+                .add(2000, MacroFormat.MOUSE_MOVED, 0, 3, 3)
+                .add(3000, MacroFormat.MOUSE_PRESSED, 16, 3, 3)
+                .add(4000, MacroFormat.MOUSE_DRAGGED, 0, 4, 4)
+                .add(5000, MacroFormat.MOUSE_DRAGGED, 0, 5, 5)
+                .add(6000, MacroFormat.KEY_PRESSED, 65, 0, 0)
+                .add(7000, MacroFormat.MOUSE_MOVED, 0, 6, 6)
+                .build();
+        List<Integer> dispatched = new ArrayList<>();
+        ReplayScheduler scheduler = new ReplayScheduler("coalesce-test", timeline, dispatched::add, () -> {});
+        scheduler.setCatchUp(ReplayScheduler.CatchUp.COALESCE);
+        // start a second in the past so every event is overdue
+        scheduler.start(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        scheduler.shutdownNow();
+
+        // the last move before the press, the press, the last drag before the key, the key and the final move
+        assertEquals(List.of(2, 3, 5, 6, 7), dispatched);
+        assertEquals(3, scheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void screenLayoutResolvesPointsPerScreen() {
+        // a 150% scaled 1920x1080 laptop panel with an unscaled 1920x1080 monitor to its right
+        ScreenLayout layout = new ScreenLayout(
+                new Rectangle[]{new Rectangle(0, 0, 1280, 720), new Rectangle(1920, 0, 1920, 1080)},
+                new double[]{1.5, 1.0}, new double[]{1.5, 1.0});
+        EventTimeline moves = new EventTimeline.Builder()
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 960, 540)
+                .add(1, MacroFormat.MOUSE_MOVED, 0, 1919, 1079)
+                .add(2, MacroFormat.MOUSE_MOVED, 0, 2000, 100)
+                .add(3, MacroFormat.MOUSE_MOVED, 0, -30, 10)
+                .add(4, MacroFormat.MOUSE_MOVED, 0, 5000, 500)
+                .build();
+        DevicePoints points = layout.resolve(moves);
+
+        int[] screens = {0, 0, 1, 0, 1};
+        int[] xs = {640, 1279, 2000, -20, 5000};
+        int[] ys = {360, 719, 100, 6, 500};
+        for (int i = 0; i < moves.size(); i++) {
+            assertEquals(screens[i], points.screen(i), "point " + i);
+            assertEquals(xs[i], points.x(i), "point " + i);
+            assertEquals(ys[i], points.y(i), "point " + i);
+        }
+    }
+
+    @Test
+    public void screenLayoutDerivesDeviceOriginsOfScaledScreens() {
+        // an unscaled 1920x1080 monitor with a 150% scaled 2880x1620 monitor to its right,
+        // whose user-space origin is its device origin divided by its own scale
+        ScreenLayout layout = ScreenLayout.of(new GraphicsDevice[]{
+                new FakeScreen(new Rectangle(0, 0, 1920, 1080), 1.0),
+                new FakeScreen(new Rectangle(1280, 0, 1920, 1080), 1.5)});
+        EventTimeline moves = new EventTimeline.Builder()
+                .add(0, MacroFormat.MOUSE_MOVED, 0, 1000, 500)
+                .add(1, MacroFormat.MOUSE_MOVED, 0, 1920, 0)
+                .add(2, MacroFormat.MOUSE_MOVED, 0, 3360, 810)
+                .add(3, MacroFormat.MOUSE_MOVED, 0, 4799, 1619)
+                .build();
+        DevicePoints points = layout.resolve(moves);
+
+        int[] screens = {0, 1, 1, 1};
+        int[] xs = {1000, 1280, 2240, 3199};
+        int[] ys = {500, 0, 540, 1079};
+        for (int i = 0; i < moves.size(); i++) {
+            assertEquals(screens[i], points.screen(i), "point " + i);
+            assertEquals(xs[i], points.x(i), "point " + i);
+            assertEquals(ys[i], points.y(i), "point " + i);
+        }
+    }
+
+    // a screen that only reports its user-space bounds and scale, enough for ScreenLayout.of
+    private static class FakeScreen extends GraphicsDevice {
+        private final GraphicsConfiguration config;
+
+        FakeScreen(Rectangle bounds, double scale) {
+            config = new GraphicsConfiguration() {
+                @Override
+                public GraphicsDevice getDevice() { return FakeScreen.this; }
+
+                @Override
+                public ColorModel getColorModel() { return ColorModel.getRGBdefault(); }
+
+                @Override
+                public ColorModel getColorModel(int transparency) { return ColorModel.getRGBdefault(); }
+
+                @Override
+                public AffineTransform getDefaultTransform() { return AffineTransform.getScaleInstance(scale, scale); }
+
+                @Override
+                public AffineTransform getNormalizingTransform() { return new AffineTransform(); }
+
+                @Override
+                public Rectangle getBounds() { return new Rectangle(bounds); }
+            };
+        }
+
+        @Override
+        public int getType() { return TYPE_RASTER_SCREEN; }
+
+        @Override
+        public String getIDstring() { return "fake"; }
+
+        @Override
+        public GraphicsConfiguration[] getConfigurations() { return new GraphicsConfiguration[]{config}; }
+
+        @Override
+        public GraphicsConfiguration getDefaultConfiguration() { return config; }
+    }
+
+    @Test
+    public void histogramPercentilesWithinBucketError() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100_000, h.getCount());
+        assertEquals(1000, h.getMin());
+        assertEquals(100_000_000, h.getMax());
+        // every bucket is at most ~1.6% wide, so percentiles stay close to the exact values
+        assertEquals(50_000_000, h.getPercentile(50), 50_000_000 * 0.02);
+        assertEquals(99_000_000, h.getPercentile(99), 99_000_000 * 0.02);
+        assertEquals(100_000_000, h.getPercentile(100));
+    }
+
+    @Test
+    public void histogramAddAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(-5);
+        b.record(1_000_000);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(0, a.getMin());
+        assertEquals(1_000_000, a.getMax());
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getPercentile(99));
+    }
+}
@@ -1,5 +1,19 @@
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
+import edu.temple.UMB.BinaryWriter;
+import edu.temple.UMB.CompiledMacro;
 import edu.temple.UMB.Event;
+import edu.temple.UMB.EventTimeline;
+import edu.temple.UMB.KeyEvent;
+import edu.temple.UMB.KeyReplayer;
 import edu.temple.UMB.Loader;
+import edu.temple.UMB.MacroCache;
+import edu.temple.UMB.MacroFormat;
+import edu.temple.UMB.MappedLoader;
+import edu.temple.UMB.MouseEvent;
+import edu.temple.UMB.MouseLoader;
+import edu.temple.UMB.PathSimplifier;
+import edu.temple.UMB.StreamingWriter;
 import edu.temple.UMB.Writer;
 
 import org.junit.jupiter.api.*;
@@ -98,18 +112,22 @@ class WriterLoaderTests {
         // Create mock input file
         Files.write(input.toPath(), List.of(
                 "START KEY EVENTS",
-                "100 PRESS A",
-                "200 RELEASE A",
+                "100 PRESSED 30",
+                "200 RELEASED 30",
                 "END KEY EVENTS",
                 "EOF"
         ));
 
         Loader loader = new Loader(input);
-        LinkedHashMap<Long, String> map = loader.loadJNativeEventsFromFile();
+        EventTimeline timeline = loader.loadJNativeEventsFromFile();
 
-        assertEquals(2, map.size());
-        assertEquals("PRESS_A", map.get(100L));
-        assertEquals("RELEASE_A", map.get(200L));
+        assertEquals(2, timeline.size());
+        assertEquals(100_000L, timeline.time(0));
+        assertEquals(MacroFormat.KEY_PRESSED, timeline.opcode(0));
+        assertEquals(30, timeline.code(0));
+        assertEquals(200_000L, timeline.time(1));
+        assertEquals(MacroFormat.KEY_RELEASED, timeline.opcode(1));
+        assertEquals(30, timeline.code(1));
     }
 
     // test that nothing blows up in our face if it gets passed an empty file
@@ -119,10 +137,10 @@ class WriterLoaderTests {
         Files.write(input.toPath(), List.of());
 
         Loader loader = new Loader(input);
-        LinkedHashMap<Long, String> map = loader.loadJNativeEventsFromFile();
+        EventTimeline timeline = loader.loadJNativeEventsFromFile();
 
         // Expect no entries, no exception
-        assertTrue(map.isEmpty());
+        assertTrue(timeline.isEmpty());
     }
 
     // test that loader doesnt read past the end key events message
@@ -132,16 +150,527 @@ class WriterLoaderTests {
 
         Files.write(input.toPath(), List.of(
                 "START KEY EVENTS",
-                "111 PRESS A",
+                "111 PRESSED 30",
                 "END KEY EVENTS",
-                "999 RELEASE A" // should not be read
+                "999 RELEASED 30" // should not be read
         ));
 
         Loader loader = new Loader(input);
-        LinkedHashMap<Long, String> map = loader.loadJNativeEventsFromFile();
+        EventTimeline timeline = loader.loadJNativeEventsFromFile();
 
-        assertEquals(1, map.size());
-        assertEquals("PRESS_A", map.get(111L));
+        // the only event read is the press, followed by the manual release the loader adds for it
+        assertEquals(2, timeline.size());
+        assertEquals(111_000L, timeline.time(0));
+        assertEquals(MacroFormat.KEY_PRESSED, timeline.opcode(0));
+        assertEquals(161_000L, timeline.time(1));
+    }
+
+    // helpers to build real recorded events for the binary format, deltas are in milliseconds
+    private static KeyEvent key(long delta, String context, int code) {
+        return new KeyEvent(delta * 1000, new NativeKeyEvent(NativeKeyEvent.NATIVE_KEY_PRESSED, 0, 0, code, NativeKeyEvent.CHAR_UNDEFINED), context);
+    }
+
+    private static MouseEvent mouse(long delta, String context, int x, int y, int button) {
+        return new MouseEvent(delta * 1000, new NativeMouseEvent(NativeMouseEvent.NATIVE_MOUSE_MOVED, 0, x, y, 0, button), context);
+    }
+
+    // test that a binary macro round trips through both loaders
+    @Test
+    void testBinaryRoundTrip() throws IOException {
+        File testFile = tempDir.resolve("binary.umb").toFile();
+        List<KeyEvent> keys = List.of(key(100L, "PRESSED", 30), key(250L, "RELEASED", 30));
+        List<MouseEvent> mice = List.of(
+                mouse(120L, "MOUSE_MOVED", 10, 20, 0),
+                mouse(130L, "MOUSE_PRESSED", -5, 1080, 1),
+                mouse(400L, "MOUSE_RELEASED", 2000, 300, 1)
+        );
+        new BinaryWriter().writeToFile(testFile, keys, mice);
+
+        assertTrue(MacroFormat.isBinary(testFile));
+
+        EventTimeline keyTimeline = new Loader(testFile).loadJNativeEventsFromFile();
+        assertEquals(List.of("100 PRESSED 30", "250 RELEASED 30"), describe(keyTimeline));
+
+        EventTimeline mouseTimeline = new MouseLoader(testFile).loadJNativeEventsFromFile();
+        assertEquals(List.of(
+                "120 MOUSE_MOVED 10,20 0",
+                "130 MOUSE_PRESSED -5,1080 1",
+                "400 MOUSE_RELEASED 2000,300 1"
+        ), describe(mouseTimeline));
+    }
+
+    // test that unknown mouse events in text macros are skipped instead of loaded with an invalid opcode
+    @Test
+    void testMouseLoaderSkipsUnknownEvents() throws IOException {
+        File file = tempDir.resolve("unknown-mouse.txt").toFile();
+        Files.write(file.toPath(), List.of("START MOUSE EVENTS", "10 MOUSE_MOVED 1,2 0", "20 MOUSE_WHEEL 1,2 0",
+                "30 MOUSE_PRESSED 3,4 1", "END MOUSE EVENTS", "EOF"));
+        EventTimeline mouseTimeline = new MouseLoader(file).loadJNativeEventsFromFile();
+        assertEquals(List.of("10 MOUSE_MOVED 1,2 0", "30 MOUSE_PRESSED 3,4 1"), describe(mouseTimeline));
+    }
+
+    // test that text macros are still detected as text
+    @Test
+    void testTextMacroIsNotBinary() throws IOException {
+        File input = tempDir.resolve("text.txt").toFile();
+        Files.write(input.toPath(), List.of("START KEY EVENTS", "END KEY EVENTS"));
+        assertFalse(MacroFormat.isBinary(input));
+    }
+
+    // test that a binary macro cut off mid-record still loads everything before the cut
+    @Test
+    void testBinaryLoaderToleratesTruncatedTail() throws IOException {
+        File testFile = tempDir.resolve("truncated.umb").toFile();
+        new BinaryWriter().writeToFile(testFile, List.of(key(100L, "PRESSED", 30), key(200L, "RELEASED", 30)), List.of());
+        byte[] bytes = Files.readAllBytes(testFile.toPath());
+        // drop the END opcode and half of the last key code
+        Files.write(testFile.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+
+        EventTimeline keyTimeline = new Loader(testFile).loadJNativeEventsFromFile();
+        // the pressed key is kept and the loader adds a manual release for it
+        assertEquals(List.of("100 PRESSED 30", "150 RELEASED 30"), describe(keyTimeline));
+    }
+
+    // test that a streamed recording matches what the batch writer would produce
+    @Test
+    void testStreamingWriterRoundTrip() throws Exception {
+        File testFile = tempDir.resolve("streamed.umb").toFile();
+        StreamingWriter stream = new StreamingWriter(testFile, 2, 10L);
+        stream.submit(key(100L, "PRESSED", 30));
+        stream.submit(mouse(120L, "MOUSE_MOVED", 10, 20, 0));
+        stream.submit(mouse(130L, "MOUSE_PRESSED", -5, 1080, 1));
+        stream.submit(key(250L, "RELEASED", 30));
+        assertEquals(4, stream.close());
+
+        assertEquals(List.of(
+                "100 PRESSED 30",
+                "120 MOUSE_MOVED 10,20 0",
+                "130 MOUSE_PRESSED -5,1080 1",
+                "250 RELEASED 30"
+        ), visitAll(testFile));
+    }
+
+    // test that a stream which was never closed (e.g. after a crash) is readable up to the last flush
+    @Test
+    void testUnclosedStreamIsReadable() throws Exception {
+        File testFile = tempDir.resolve("crashed.umb").toFile();
+        StreamingWriter stream = new StreamingWriter(testFile, 16, 10L);
+        stream.submit(key(100L, "PRESSED", 30));
+        stream.submit(key(200L, "RELEASED", 30));
+        // wait for the periodic flush
+        long deadline = System.currentTimeMillis() + 5000;
+        while (testFile.length() < 11 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("100 PRESSED 30", "200 RELEASED 30"), visitAll(testFile));
+        stream.close();
+    }
+
+    // renders a timeline in the text format so it is easy to compare
+    private static List<String> describe(EventTimeline timeline) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            String line = MacroFormat.formatMillis(timeline.time(i)) + " " + MacroFormat.contextOf(timeline.opcode(i)) + " ";
+            if (MacroFormat.isKeyOpcode(timeline.opcode(i))) {
+                lines.add(line + timeline.code(i));
+            } else {
+                lines.add(line + timeline.x(i) + "," + timeline.y(i) + " " + timeline.code(i));
+            }
+        }
+        return lines;
+    }
+
+    // collects everything the mapped loader visits as text so it is easy to compare
+    private static List<String> visitAll(File file) throws IOException {
+        List<String> seen = new ArrayList<>();
+        new MappedLoader(file).load(new MappedLoader.Visitor() {
+            @Override
+            public void key(long time, int opcode, int keyCode) {
+                seen.add(MacroFormat.formatMillis(time) + " " + MacroFormat.contextOf(opcode) + " " + keyCode);
+            }
+
+            @Override
+            public void mouse(long time, int opcode, int x, int y, int button) {
+                seen.add(MacroFormat.formatMillis(time) + " " + MacroFormat.contextOf(opcode) + " " + x + "," + y + " " + button);
+            }
+        });
+        return seen;
+    }
+
+    // test that the mapped loader reads both sections of a text macro in one pass
+    @Test
+    void testMappedLoaderReadsTextMacro() throws IOException {
+        File input = tempDir.resolve("mapped.txt").toFile();
+        Files.writeString(input.toPath(), "START KEY EVENTS\r\n100 PRESSED 30\r\n200 RELEASED 30\r\nEND KEY EVENTS\r\n"
+                + "START MOUSE EVENTS\n150 MOUSE_MOVED -10,20 0\n160 MOUSE_PRESSED 5,6 1\nEND MOUSE EVENTS\nEOF\n");
+
+        assertEquals(List.of(
+                "100 PRESSED 30",
+                "200 RELEASED 30",
+                "150 MOUSE_MOVED -10,20 0",
+                "160 MOUSE_PRESSED 5,6 1"
+        ), visitAll(input));
+    }
+
+    // test that the mapped loader reads binary macros in time order
+    @Test
+    void testMappedLoaderReadsBinaryMacro() throws IOException {
+        File testFile = tempDir.resolve("mapped.umb").toFile();
+        new BinaryWriter().writeToFile(testFile,
+                List.of(key(100L, "PRESSED", 30), key(200L, "RELEASED", 30)),
+                List.of(mouse(150L, "MOUSE_DRAGGED", 7, 8, 1)));
+
+        assertEquals(List.of(
+                "100 PRESSED 30",
+                "150 MOUSE_DRAGGED 7,8 1",
+                "200 RELEASED 30"
+        ), visitAll(testFile));
+    }
+
+    // test that sub-millisecond timestamps survive the text and binary formats
+    @Test
+    void testMicrosecondTimestampsRoundTrip() throws IOException {
+        List<KeyEvent> keys = List.of(new KeyEvent(100_125L, new NativeKeyEvent(NativeKeyEvent.NATIVE_KEY_PRESSED, 0, 0, 30, NativeKeyEvent.CHAR_UNDEFINED), "PRESSED"),
+                new KeyEvent(100_126L, new NativeKeyEvent(NativeKeyEvent.NATIVE_KEY_RELEASED, 0, 0, 30, NativeKeyEvent.CHAR_UNDEFINED), "RELEASED"));
+        List<MouseEvent> mice = List.of(new MouseEvent(7L, 1, 2, 0, "MOUSE_MOVED"));
+
+        File text = tempDir.resolve("micros.txt").toFile();
+        new Writer(Writer.Type.KEY).writeToFile(text, keys);
+        new Writer(Writer.Type.MOUSE).writeToFile(text, mice);
+        assertEquals("100.125 PRESSED 30", Files.readAllLines(text.toPath()).get(1));
+        File binary = tempDir.resolve("micros.umb").toFile();
+        new BinaryWriter().writeToFile(binary, keys, mice);
+
+        for (File file : List.of(text, binary)) {
+            EventTimeline keyTimeline = new Loader(file).loadJNativeEventsFromFile();
+            assertEquals(100_125L, keyTimeline.time(0), file.getName());
+            assertEquals(100_126L, keyTimeline.time(1), file.getName());
+            assertEquals(7L, new MouseLoader(file).loadJNativeEventsFromFile().time(0), file.getName());
+            assertEquals(List.of("0.007 MOUSE_MOVED 1,2 0", "100.125 PRESSED 30", "100.126 RELEASED 30"),
+                    visitAll(file).stream().sorted().toList(), file.getName());
+        }
+    }
+
+    // test that version 1 binary macros, which store millisecond deltas, are still read correctly
+    @Test
+    void testVersionOneBinaryIsScaledToMicroseconds() throws IOException {
+        File testFile = tempDir.resolve("v1.umb").toFile();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[]{'U', 'M', 'B', 'B', 1});
+        // key pressed at 100ms: opcode, zigzag varint 100 (= 200), key code 30
+        bytes.write(new byte[]{MacroFormat.KEY_PRESSED, (byte) 0xC8, 0x01, 0, 30});
+        // released 50ms later
+        bytes.write(new byte[]{MacroFormat.KEY_RELEASED, 100, 0, 30, MacroFormat.END});
+        Files.write(testFile.toPath(), bytes.toByteArray());
+
+        assertEquals(List.of("100 PRESSED 30", "150 RELEASED 30"), visitAll(testFile));
+    }
+
+    // test the decimal millisecond notation of the text format
+    @Test
+    void testMillisecondNotation() {
+        assertEquals("756", MacroFormat.formatMillis(756_000L));
+        assertEquals("756.125", MacroFormat.formatMillis(756_125L));
+        assertEquals("0.005", MacroFormat.formatMillis(5L));
+        assertEquals("-3.500", MacroFormat.formatMillis(-3_500L));
+        assertEquals(756_000L, MacroFormat.parseMillis("756"));
+        assertEquals(756_125L, MacroFormat.parseMillis("756.125"));
+        assertEquals(756_500L, MacroFormat.parseMillis("756.5"));
+        assertEquals(756_123L, MacroFormat.parseMillis("756.1239"));
+        assertEquals(-3_500L, MacroFormat.parseMillis("-3.500"));
+        assertThrows(NumberFormatException.class, () -> MacroFormat.parseMillis("12.x"));
+    }
+
+    // test that garbage in a text macro is reported instead of silently skipped
+    @Test
+    void testMappedLoaderRejectsMalformedLine() throws IOException {
+        File input = tempDir.resolve("bad.txt").toFile();
+        Files.write(input.toPath(), List.of("START KEY EVENTS", "100 PRESS A", "END KEY EVENTS"));
+        assertThrows(IOException.class, () -> visitAll(input));
+    }
+
+    // stress test: thousands of key and mouse events recorded in the same millisecond must all survive a save and load
+    @Test
+    void testSameMillisecondEventsAreNotDropped() throws IOException {
+        int n = 5000;
+        List<KeyEvent> keys = new ArrayList<>();
+        List<MouseEvent> mice = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            keys.add(key(42L, i % 2 == 0 ? "PRESSED" : "RELEASED", 30));
+            mice.add(mouse(42L, "MOUSE_MOVED", i, n - i, 0));
+        }
+
+        File text = tempDir.resolve("same_ms.txt").toFile();
+        new Writer(Writer.Type.KEY).writeToFile(text, keys);
+        new Writer(Writer.Type.MOUSE).writeToFile(text, mice);
+        File binary = tempDir.resolve("same_ms.umb").toFile();
+        new BinaryWriter().writeToFile(binary, keys, mice);
+
+        for (File file : List.of(text, binary)) {
+            EventTimeline keyTimeline = new Loader(file).loadJNativeEventsFromFile();
+            EventTimeline mouseTimeline = new MouseLoader(file).loadJNativeEventsFromFile();
+            assertEquals(n, keyTimeline.size(), file.getName());
+            assertEquals(n, mouseTimeline.size(), file.getName());
+            for (int i = 0; i < n; i++) {
+                assertEquals(42_000L, keyTimeline.time(i));
+                assertEquals(i % 2 == 0 ? MacroFormat.KEY_PRESSED : MacroFormat.KEY_RELEASED, keyTimeline.opcode(i));
+                // recorded order is kept
+                assertEquals(i, mouseTimeline.x(i));
+            }
+            assertEquals(2 * n, visitAll(file).size(), file.getName());
+        }
+
+        // the binary stream keeps the interleaving the events were recorded in
+        List<String> merged = visitAll(binary);
+        assertTrue(merged.get(0).contains("PRESSED"));
+        assertTrue(merged.get(1).contains("MOUSE_MOVED"));
+    }
+
+    // test that out of order input is sorted by time and then sequence without losing duplicates
+    @Test
+    void testTimelineOrdersByTimeThenSequence() {
+        EventTimeline timeline = new EventTimeline.Builder()
+                .add(20L, 3, MacroFormat.KEY_PRESSED, 1, 0, 0)
+                .add(10L, 5, MacroFormat.KEY_PRESSED, 2, 0, 0)
+                .add(20L, 1, MacroFormat.KEY_PRESSED, 3, 0, 0)
+                .add(10L, 4, MacroFormat.KEY_PRESSED, 4, 0, 0)
+                .build();
+
+        assertEquals(4, timeline.size());
+        int[] expected = {4, 2, 3, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], timeline.code(i));
+        }
+    }
+
+    // test that merging the key and mouse timelines keeps the recorded interleaving on equal timestamps
+    @Test
+    void testMergeInterleavesBySequence() {
+        EventTimeline keys = new EventTimeline.Builder()
+                .add(10L, 0, MacroFormat.KEY_PRESSED, 42, 0, 0)
+                .add(30L, 3, MacroFormat.KEY_RELEASED, 42, 0, 0)
+                .build();
+        EventTimeline mice = new EventTimeline.Builder()
+                .add(10L, 1, MacroFormat.MOUSE_PRESSED, 1, 5, 5)
+                .add(20L, 2, MacroFormat.MOUSE_RELEASED, 1, 5, 5)
+                .add(30L, 4, MacroFormat.MOUSE_MOVED, 0, 6, 6)
+                .build();
+
+        EventTimeline merged = EventTimeline.merge(keys, mice);
+
+        assertEquals(5, merged.size());
+        for (int i = 0; i < merged.size(); i++) {
+            assertEquals(i, merged.sequence(i));
+        }
+        assertEquals(MacroFormat.KEY_PRESSED, merged.opcode(0));
+        assertEquals(MacroFormat.MOUSE_PRESSED, merged.opcode(1));
+        assertEquals(MacroFormat.KEY_RELEASED, merged.opcode(3));
+    }
+
+    // test that collinear moves are dropped while corners, clicks and the ends of every run are kept
+    @Test
+    void testPathSimplifierKeepsShape() {
+        List<MouseEvent> mice = new ArrayList<>();
+        // straight line to the right, then straight down, 1ms apart
+        for (int i = 0; i <= 10; i++) {
+            mice.add(mouse(i, "MOUSE_MOVED", i * 10, 0, 0));
+        }
+        for (int i = 1; i <= 10; i++) {
+            mice.add(mouse(10 + i, "MOUSE_MOVED", 100, i * 10, 0));
+        }
+        mice.add(mouse(21, "MOUSE_PRESSED", 100, 100, 1));
+        mice.add(mouse(22, "MOUSE_DRAGGED", 101, 100, 1));
+        mice.add(mouse(23, "MOUSE_DRAGGED", 102, 100, 1));
+        mice.add(mouse(24, "MOUSE_RELEASED", 102, 100, 1));
+
+        List<MouseEvent> kept = PathSimplifier.simplify(mice, 1.0);
+
+        List<String> lines = new ArrayList<>();
+        for (MouseEvent e : kept) {
+            lines.add(e.toString());
+        }
+        assertEquals(List.of(
+                "0 MOUSE_MOVED 0,0 0",
+                "10 MOUSE_MOVED 100,0 0",
+                "20 MOUSE_MOVED 100,100 0",
+                "21 MOUSE_PRESSED 100,100 1",
+                "22 MOUSE_DRAGGED 101,100 1",
+                "23 MOUSE_DRAGGED 102,100 1",
+                "24 MOUSE_RELEASED 102,100 1"
+        ), lines);
+    }
+
+    // test that a slow straight movement keeps a point at least every max gap so replay still glides
+    @Test
+    void testPathSimplifierBoundsGaps() {
+        EventTimeline.Builder builder = new EventTimeline.Builder();
+        // one pixel every 10ms for a second
+        for (int i = 0; i <= 100; i++) {
+            builder.add(i * 10_000L, MacroFormat.MOUSE_MOVED, 0, i, 0);
+        }
+        EventTimeline simplified = PathSimplifier.simplify(builder.build(), 2.0);
+
+        assertTrue(simplified.size() < 101 / 4, "too many points kept: " + simplified.size());
+        for (int i = 1; i < simplified.size(); i++) {
+            assertTrue(simplified.time(i) - simplified.time(i - 1) <= PathSimplifier.DEFAULT_MAX_GAP_MICROS + 10_000L);
+        }
+        assertEquals(1_000_000L, simplified.lastTime());
+    }
+
+    // test that compacting a macro keeps key events and their interleaving with mouse events
+    @Test
+    void testCompactFile() throws IOException {
+        File in = tempDir.resolve("in.txt").toFile();
+        File out = tempDir.resolve("out.txt").toFile();
+        List<MouseEvent> mice = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            mice.add(mouse(i, "MOUSE_MOVED", i, i, 0));
+        }
+        new Writer(Writer.Type.KEY).writeToFile(in, List.of(key(5L, "PRESSED", 30), key(10L, "RELEASED", 30)));
+        new Writer(Writer.Type.MOUSE).writeToFile(in, mice);
+
+        String reduction = PathSimplifier.compactFile(in, out, 1.0, false);
+
+        assertEquals("11 -> 2 mouse events (81.8% fewer)", reduction);
+        assertFalse(MacroFormat.isBinary(out));
+        assertEquals(List.of(
+                "5 PRESSED 30",
+                "10 RELEASED 30",
+                "0 MOUSE_MOVED 0,0 0",
+                "10 MOUSE_MOVED 10,10 0"
+        ), visitAll(out));
+    }
+
+    // test that compacting a macro onto itself replaces it instead of appending to it
+    @Test
+    void testCompactFileInPlace() throws IOException {
+        File file = tempDir.resolve("inplace.txt").toFile();
+        List<MouseEvent> mice = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            mice.add(mouse(i, "MOUSE_MOVED", i, i, 0));
+        }
+        new Writer(Writer.Type.KEY).writeToFile(file, List.of(key(5L, "PRESSED", 30), key(10L, "RELEASED", 30)));
+        new Writer(Writer.Type.MOUSE).writeToFile(file, mice);
+
+        PathSimplifier.compactFile(file, file, 1.0, false);
+
+        assertEquals(List.of(
+                "5 PRESSED 30",
+                "10 RELEASED 30",
+                "0 MOUSE_MOVED 0,0 0",
+                "10 MOUSE_MOVED 10,10 0"
+        ), visitAll(file));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(List.of(file.toPath()), files.toList());
+        }
+    }
+
+    // test that an unchanged macro is served from the cache and a changed one is reloaded
+    @Test
+    void testMacroCacheInvalidatesOnChange() throws IOException {
+        File file = tempDir.resolve("cached.txt").toFile();
+        Files.write(file.toPath(), List.of("START KEY EVENTS", "10 PRESSED 30", "20 RELEASED 30", "END KEY EVENTS", "EOF"));
+        MacroCache cache = new MacroCache(1024 * 1024);
+
+        MacroCache.Macro first = cache.get(file);
+        assertSame(first, cache.get(file));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Files.write(file.toPath(), List.of("START KEY EVENTS", "10 PRESSED 31", "20 RELEASED 31", "30 PRESSED 31", "40 RELEASED 31", "END KEY EVENTS", "EOF"));
+        MacroCache.Macro second = cache.get(file);
+        assertNotSame(first, second);
+        assertEquals(4, second.getKeys().size());
+        assertEquals(1, cache.size());
+    }
+
+    // test that the least recently used macro is evicted once the budget is exceeded
+    @Test
+    void testMacroCacheEvictsLeastRecentlyUsed() throws IOException {
+        File a = tempDir.resolve("a.txt").toFile();
+        File b = tempDir.resolve("b.txt").toFile();
+        File c = tempDir.resolve("c.txt").toFile();
+        for (File f : List.of(a, b, c)) {
+            Files.write(f.toPath(), List.of("START KEY EVENTS", "10 PRESSED 30", "20 RELEASED 30", "END KEY EVENTS", "EOF"));
+        }
+        // room for two of these macros
+        MacroCache probe = new MacroCache(Long.MAX_VALUE);
+        probe.get(a);
+        MacroCache cache = new MacroCache(probe.getUsedBytes() * 2);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        // b was used least recently
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        cache.get(a);
+        assertEquals(2, cache.getHits());
+        cache.get(b);
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    // test that the translation table covers keys beyond the handful that used to be mapped by hand
+    @Test
+    void testKeyTranslationTable() {
+        assertEquals(java.awt.event.KeyEvent.VK_A, KeyReplayer.toAwt(NativeKeyEvent.VC_A));
+        assertEquals(java.awt.event.KeyEvent.VK_CAPS_LOCK, KeyReplayer.toAwt(NativeKeyEvent.VC_CAPS_LOCK));
+        assertEquals(java.awt.event.KeyEvent.VK_F24, KeyReplayer.toAwt(NativeKeyEvent.VC_F24));
+        assertEquals(java.awt.event.KeyEvent.VK_BACK_SPACE, KeyReplayer.toAwt(NativeKeyEvent.VC_BACKSPACE));
+        assertEquals(java.awt.event.KeyEvent.VK_DECIMAL, KeyReplayer.toAwt(NativeKeyEvent.VC_SEPARATOR));
+        assertEquals(KeyReplayer.UNMAPPED, KeyReplayer.toAwt(NativeKeyEvent.VC_MEDIA_PLAY));
+        assertEquals(KeyReplayer.UNMAPPED, KeyReplayer.toAwt(-5));
+        assertEquals(KeyReplayer.UNMAPPED, KeyReplayer.toAwt(1 << 20));
+    }
+
+    // test that a compiled sidecar is loaded with translated codes and ignored once the macro changes
+    @Test
+    void testCompiledMacroSidecar() throws IOException {
+        File file = tempDir.resolve("compiled.txt").toFile();
+        Files.write(file.toPath(), List.of("START KEY EVENTS", "10 PRESSED 30", "20 RELEASED 30", "END KEY EVENTS",
+                "START MOUSE EVENTS", "15 MOUSE_PRESSED 40,50 1", "25 MOUSE_RELEASED 40,50 1", "END MOUSE EVENTS", "EOF"));
+        File sidecar = CompiledMacro.compile(file);
+        assertTrue(CompiledMacro.isSidecar(sidecar));
+
+        MacroCache.Macro compiled = new MacroCache(1024 * 1024).get(file);
+        assertTrue(compiled.isTranslated());
+        assertEquals(2, compiled.getKeys().size());
+        assertEquals(java.awt.event.KeyEvent.VK_A, compiled.getKeys().code(0));
+        assertEquals(java.awt.event.InputEvent.BUTTON1_MASK, compiled.getMice().code(0));
+        assertEquals(40, compiled.getMice().x(0));
+        assertEquals(compiled.getKeys().time(1), new MacroCache(1024 * 1024).get(file).getKeys().time(1));
+
+        Files.write(file.toPath(), List.of("START KEY EVENTS", "10 PRESSED 31", "20 RELEASED 31", "30 PRESSED 31", "40 RELEASED 31", "END KEY EVENTS", "EOF"));
+        assertNull(CompiledMacro.loadIfFresh(file));
+        MacroCache.Macro raw = new MacroCache(1024 * 1024).get(file);
+        assertFalse(raw.isTranslated());
+        assertEquals(31, raw.getKeys().code(0));
+    }
+
+    // test that a sidecar is ignored once its macro was replaced, even with the same size and modification time
+    @Test
+    void testCompiledMacroSidecarIgnoresReplacedMacro() throws IOException {
+        Path file = tempDir.resolve("replaced.txt");
+        Files.write(file, List.of("START KEY EVENTS", "10 PRESSED 30", "20 RELEASED 30", "END KEY EVENTS", "EOF"));
+        File sidecar = CompiledMacro.compile(file.toFile());
+        assertNotNull(CompiledMacro.loadIfFresh(file.toFile()));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(2, files.count());
+        }
+
+        Path other = tempDir.resolve("other.txt");
+        Files.write(other, List.of("START KEY EVENTS", "10 PRESSED 31", "20 RELEASED 31", "END KEY EVENTS", "EOF"));
+        Files.setLastModifiedTime(other, Files.getLastModifiedTime(file));
+        Files.move(other, file, StandardCopyOption.REPLACE_EXISTING);
+        assertNull(CompiledMacro.loadIfFresh(file.toFile()));
+
+        CompiledMacro.compile(file.toFile());
+        assertEquals(java.awt.event.KeyEvent.VK_S, CompiledMacro.loadIfFresh(file.toFile()).getKeys().code(0));
+        assertTrue(sidecar.isFile());
     }
 
     // TODO: test that Loader loads mouse events correctly (after mouse recording PR is finished)